@@ -0,0 +1,269 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.interceptor;
+
+import com.compass.vinyl.Mode;
+import com.compass.vinyl.RecordingConfig;
+import com.compass.vinyl.Vinyl;
+import com.compass.vinyl.metrics.LatencyHistogram;
+import com.compass.vinyl.player.DatabaseRecordPlayer;
+import com.compass.vinyl.player.LocalFileSystemRecordPlayer;
+import com.compass.vinyl.player.RecordPlayer;
+import com.compass.vinyl.serializer.JSONSerializer;
+import okhttp3.*;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Load through the OkHttp interceptor, end to end: a number of clients call a local {@link MockWebServer},
+ * answering after a fixed latency, as fast as they can for a while, through Vinyl in each {@link Mode} and
+ * once without the interceptor for comparison. The throughput, the latency percentiles of the calls and the
+ * rate at which the client threads allocate are printed for each mode.
+ * <p>
+ * The settings are system properties, passed on as project properties by the gradle task, e.g.
+ * {@code ./gradlew loadHarness -Pload.clients=16 -Pload.latencyMillis=50 -Pload.modes=CACHE,PLAYBACK}:
+ * <ul>
+ *     <li>{@code load.clients}: concurrent clients, 8 by default</li>
+ *     <li>{@code load.latencyMillis}: latency of the upstream service, 20 ms by default</li>
+ *     <li>{@code load.payloadBytes}: size of the responses, 1024 bytes by default</li>
+ *     <li>{@code load.distinctRequests}: distinct request bodies, 100 by default</li>
+ *     <li>{@code load.warmupSeconds} and {@code load.seconds}: duration of the warmup and of the
+ *     measurement, 5 and 10 seconds by default</li>
+ *     <li>{@code load.player}: {@code file} (the default) or {@code database}</li>
+ *     <li>{@code load.timeToLiveMillis}: time to live of the responses in cache mode, stale after half of
+ *     it, none by default</li>
+ *     <li>{@code load.modes}: comma separated modes to run, and {@code NONE} for the calls without the
+ *     interceptor, all of them by default</li>
+ * </ul>
+ * Failed calls, such as the ones failed on purpose in chaos mode, are counted apart and left out of the
+ * latencies.
+ */
+public class InterceptorLoadHarness {
+
+    private static final String NONE = "NONE";
+
+    private final int clients = Integer.getInteger("load.clients", 8);
+
+    private final int latencyMillis = Integer.getInteger("load.latencyMillis", 20);
+
+    private final int payloadBytes = Integer.getInteger("load.payloadBytes", 1024);
+
+    private final int distinctRequests = Integer.getInteger("load.distinctRequests", 100);
+
+    private final int warmupSeconds = Integer.getInteger("load.warmupSeconds", 5);
+
+    private final int seconds = Integer.getInteger("load.seconds", 10);
+
+    private final String player = System.getProperty("load.player", "file");
+
+    private final long timeToLiveMillis = Long.getLong("load.timeToLiveMillis", 0);
+
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        List<String> modes = new ArrayList<>();
+        String modeProperty = System.getProperty("load.modes");
+        if (modeProperty == null || modeProperty.isEmpty()) {
+            modes.add(NONE);
+            for (Mode mode : Mode.values())
+                modes.add(mode.name());
+        }
+        else {
+            for (String mode : modeProperty.split(","))
+                modes.add(mode.trim().toUpperCase(Locale.ROOT));
+        }
+
+        InterceptorLoadHarness harness = new InterceptorLoadHarness();
+        System.out.println(harness.settings());
+        System.out.println(Result.HEADER);
+        for (String mode : modes)
+            System.out.println(harness.run(mode));
+    }
+
+    private String settings() {
+        return String.format(Locale.ROOT, "clients=%d latency=%dms payload=%dB distinctRequests=%d warmup=%ds "
+                        + "measurement=%ds player=%s timeToLive=%dms", clients, latencyMillis, payloadBytes,
+                distinctRequests, warmupSeconds, seconds, player, timeToLiveMillis);
+    }
+
+    /**
+     * Warm up, then measure the calls in the given mode, against a server and recordings of their own.
+     */
+    Result run(String mode) throws Exception {
+        Path recordingPath = Files.createTempDirectory("vinyl-load-");
+        MockWebServer server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            private final String body = responseBody(payloadBytes);
+
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setBody(body).setHeadersDelay(latencyMillis, TimeUnit.MILLISECONDS);
+            }
+        });
+        server.start();
+
+        RecordPlayer recordPlayer = null;
+        Vinyl vinyl = null;
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(clients, 5, TimeUnit.MINUTES));
+        if (!NONE.equals(mode)) {
+            recordPlayer = "database".equals(player) ? new DatabaseRecordPlayer() : new LocalFileSystemRecordPlayer();
+            vinyl = new Vinyl.Builder()
+                    .usingMode(Mode.valueOf(mode))
+                    .withPlayer(recordPlayer)
+                    .usingRecordingConfig(new RecordingConfig(JSONSerializer.getInstance(), recordingPath.toString()))
+                    .create();
+            VinylInterceptor.OkHttpInterceptor interceptor = new VinylInterceptor.OkHttpInterceptor(vinyl);
+            if (timeToLiveMillis > 0)
+                interceptor.setTimeToLive(timeToLiveMillis / 2, timeToLiveMillis);
+            builder.addInterceptor(interceptor);
+        }
+        OkHttpClient client = builder.build();
+
+        try {
+            load(client, server, warmupSeconds);
+            Result result = load(client, server, seconds);
+            result.mode = mode;
+            return result;
+        } finally {
+            if (vinyl != null)
+                vinyl.close();
+            client.connectionPool().evictAll();
+            server.shutdown();
+            if (recordPlayer != null)
+                recordPlayer.close();
+            delete(recordingPath);
+        }
+    }
+
+    private Result load(OkHttpClient client, MockWebServer server, int durationInSeconds) throws Exception {
+        Result result = new Result();
+        LongAdder allocatedBytes = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(clients);
+        HttpUrl url = server.url("/v1/listings/search");
+        int upstreamCallsBefore = server.getRequestCount();
+        long[] deadline = new long[1];
+
+        for (int i = 0; i < clients; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    long threadId = Thread.currentThread().getId();
+                    long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+                    while (System.nanoTime() < deadline[0])
+                        call(client, url, result);
+                    allocatedBytes.add(threads.getThreadAllocatedBytes(threadId) - allocatedBefore);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }, "vinyl-load-client-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        long startTime = System.nanoTime();
+        deadline[0] = startTime + TimeUnit.SECONDS.toNanos(durationInSeconds);
+        start.countDown();
+        done.await();
+
+        result.elapsedInNanos = System.nanoTime() - startTime;
+        result.allocatedBytes = allocatedBytes.sum();
+        result.upstreamCalls = server.getRequestCount() - upstreamCallsBefore;
+        return result;
+    }
+
+    private void call(OkHttpClient client, HttpUrl url, Result result) {
+        int requestNumber = ThreadLocalRandom.current().nextInt(distinctRequests);
+        Request request = new Request.Builder()
+                .url(url)
+                .post(RequestBody.create("{\"query\":\"listing-" + requestNumber + "\"}",
+                        MediaType.parse("application/json; charset=utf-8")))
+                .build();
+
+        long start = System.nanoTime();
+        try (Response response = client.newCall(request).execute()) {
+            response.body().string();
+            result.latencies.record(System.nanoTime() - start);
+        } catch (IOException | RuntimeException e) {
+            result.failures.increment();
+        }
+    }
+
+    private static String responseBody(int bytes) {
+        StringBuilder body = new StringBuilder(bytes + 64).append("{\"listings\":[");
+        for (int i = 0; body.length() < bytes - 2; i++) {
+            if (i > 0)
+                body.append(',');
+            body.append("{\"id\":\"listing-").append(i).append("\",\"price\":").append(1_000_000 + i).append('}');
+        }
+        return body.append("]}").toString();
+    }
+
+    private static void delete(Path path) throws IOException {
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(path)) {
+            paths = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+        for (Path child : paths) {
+            try {
+                Files.deleteIfExists(child);
+            } catch (IOException e) {
+                // a refresh still running in cache mode may have recorded in the meantime
+                System.err.println("Couldn't delete " + child + ": " + e);
+            }
+        }
+    }
+
+    static class Result {
+
+        static final String HEADER = String.format(Locale.ROOT, "%-10s %10s %10s %10s %10s %10s %12s %12s %10s",
+                "mode", "calls/s", "p50(us)", "p99(us)", "p999(us)", "max(us)", "alloc(MB/s)", "alloc(B/call)",
+                "failures");
+
+        final LatencyHistogram latencies = new LatencyHistogram();
+
+        final LongAdder failures = new LongAdder();
+
+        String mode;
+
+        long elapsedInNanos;
+
+        long allocatedBytes;
+
+        int upstreamCalls;
+
+        @Override
+        public String toString() {
+            long calls = latencies.getCount() + failures.sum();
+            double elapsedInSeconds = elapsedInNanos / 1e9;
+            return String.format(Locale.ROOT, "%-10s %10.0f %10d %10d %10d %10d %12.1f %12d %10d"
+                            + "  (%d calls to the service)",
+                    mode, latencies.getCount() / elapsedInSeconds,
+                    latencies.getPercentileInNanos(50) / 1000, latencies.getPercentileInNanos(99) / 1000,
+                    latencies.getPercentileInNanos(99.9) / 1000, latencies.getMaxInNanos() / 1000,
+                    allocatedBytes / elapsedInSeconds / (1024 * 1024), calls == 0 ? 0 : allocatedBytes / calls,
+                    failures.sum(), upstreamCalls);
+        }
+    }
+}
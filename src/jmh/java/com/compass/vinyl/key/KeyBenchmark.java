@@ -0,0 +1,63 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.key;
+
+import com.compass.vinyl.Data;
+import com.compass.vinyl.RecordingConfig;
+import com.compass.vinyl.Scenario;
+import com.compass.vinyl.serializer.JSONSerializer;
+import com.compass.vinyl.utils.Utilities;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Identification of a scenario, with each key strategy, and the MD5 of a string on its own. A scenario is
+ * created for each identification, since the unique id of a scenario is computed once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KeyBenchmark {
+
+    private static final List<Data> INPUTS = Arrays.asList(new Data("header", ""),
+            new Data("requestBody", "{\"query\":\"new york\",\"page\":1,\"filters\":[\"garage\",\"pool\"]}"));
+
+    private String message;
+
+    @Setup
+    public void setup() {
+        message = JSONSerializer.getInstance().serialize(INPUTS);
+    }
+
+    @State(Scope.Benchmark)
+    public static class Identification {
+
+        @Param({"md5", "murmur3"})
+        public String keyStrategy;
+
+        private RecordingConfig config;
+
+        @Setup
+        public void setup() {
+            KeyStrategy strategy = "murmur3".equals(keyStrategy)
+                    ? Murmur3KeyStrategy.getInstance() : Md5KeyStrategy.getInstance();
+            config = new RecordingConfig(JSONSerializer.getInstance(), "/tmp/vinyl-benchmark", strategy);
+        }
+    }
+
+    @Benchmark
+    public String getUniqueId(Identification identification) {
+        return new Scenario("/v1/listings/search", "POST", INPUTS).getUniqueId(identification.config);
+    }
+
+    @Benchmark
+    public String md5() {
+        return Utilities.md5(message);
+    }
+}
@@ -0,0 +1,115 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.player;
+
+import com.compass.vinyl.Data;
+import com.compass.vinyl.RecordingConfig;
+import com.compass.vinyl.Scenario;
+import com.compass.vinyl.serializer.JSONSerializer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Record and playback (of recorded and missing scenarios) with the file and database players, on a single
+ * thread and on four threads at once. Each call identifies a new scenario, as a call through Vinyl does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecordPlayerBenchmark {
+
+    private static final int SCENARIOS = 1_000;
+
+    @Param({"file", "database"})
+    public String player;
+
+    @Param({"1024"})
+    public int payloadBytes;
+
+    private RecordPlayer recordPlayer;
+
+    private RecordingConfig config;
+
+    private Path recordingPath;
+
+    private Data output;
+
+    @Setup
+    public void setup() throws IOException {
+        recordingPath = Files.createTempDirectory("vinyl-benchmark-");
+        config = new RecordingConfig(JSONSerializer.getInstance(), recordingPath.toString());
+        recordPlayer = "database".equals(player) ? new DatabaseRecordPlayer() : new LocalFileSystemRecordPlayer();
+
+        StringBuilder body = new StringBuilder(payloadBytes);
+        while (body.length() < payloadBytes)
+            body.append("{\"id\":\"listing\",\"price\":1000000}");
+        output = new Data("response", body.substring(0, payloadBytes));
+        for (int i = 0; i < SCENARIOS; i++)
+            recordPlayer.record(scenario("recorded-" + i).withOutput(output), config);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        recordPlayer.close();
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(recordingPath)) {
+            paths = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+        for (Path path : paths)
+            Files.deleteIfExists(path);
+    }
+
+    private static Scenario scenario(String input) {
+        return new Scenario("/v1/listings/search", "POST", Collections.singletonList(new Data("requestBody", input)));
+    }
+
+    private static int next() {
+        return ThreadLocalRandom.current().nextInt(SCENARIOS);
+    }
+
+    @Benchmark
+    public Object playbackHit() {
+        return recordPlayer.playback(scenario("recorded-" + next()), config).getOutput().getValue();
+    }
+
+    @Benchmark
+    public Scenario playbackMiss() {
+        return recordPlayer.playback(scenario("missing-" + next()), config);
+    }
+
+    @Benchmark
+    public boolean record() {
+        return recordPlayer.record(scenario("recorded-" + next()).withOutput(output), config);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object playbackHitConcurrent() {
+        return playbackHit();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Scenario playbackMissConcurrent() {
+        return playbackMiss();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean recordConcurrent() {
+        return record();
+    }
+}
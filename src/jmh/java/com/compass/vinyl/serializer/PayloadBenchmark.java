@@ -0,0 +1,71 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.serializer;
+
+import com.compass.vinyl.Data;
+import com.compass.vinyl.Scenario;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip through the {@link JSONSerializer} of a scenario holding a response body of 1 KB, 100 KB and
+ * 5 MB, as recorded by the OkHttp interceptor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PayloadBenchmark {
+
+    @Param({"1024", "102400", "5242880"})
+    public int payloadBytes;
+
+    private Serializer serializer;
+
+    private Scenario scenario;
+
+    private byte[] serializedScenario;
+
+    @Setup
+    public void setup() {
+        serializer = JSONSerializer.getInstance();
+        scenario = new Scenario("/v1/listings/search", "POST",
+                Collections.singletonList(new Data("requestBody", "{\"query\":\"new york\"}")),
+                new Data("response", responseBody(payloadBytes)));
+        serializedScenario = serializer.serializeToBytes(scenario);
+    }
+
+    /**
+     * JSON of about the given size, with quotes to be escaped as in an actual response.
+     */
+    static String responseBody(int bytes) {
+        StringBuilder body = new StringBuilder(bytes + 64).append("{\"listings\":[");
+        for (int i = 0; body.length() < bytes - 2; i++) {
+            if (i > 0)
+                body.append(',');
+            body.append("{\"id\":\"listing-").append(i).append("\",\"price\":").append(1_000_000 + i)
+                    .append(",\"address\":\"1 Main Street, Apartment ").append(i).append("\"}");
+        }
+        return body.append("]}").toString();
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return serializer.serializeToBytes(scenario);
+    }
+
+    @Benchmark
+    public Object deserialize() {
+        return serializer.deserialize(serializedScenario, Scenario.class).getOutput().getValue();
+    }
+
+    @Benchmark
+    public Object roundTrip() {
+        byte[] serializedData = serializer.serializeToBytes(scenario);
+        return serializer.deserialize(serializedData, Scenario.class).getOutput().getValue();
+    }
+}
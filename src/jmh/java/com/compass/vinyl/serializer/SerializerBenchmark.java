@@ -0,0 +1,85 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.serializer;
+
+import com.compass.vinyl.Data;
+import com.compass.vinyl.Scenario;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization and deserialization of a scenario holding a list of objects, with the default and the tuned
+ * {@link JSONSerializer}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializerBenchmark {
+
+    @Param({"default", "tuned"})
+    public String instance;
+
+    @Param({"10", "1000"})
+    public int listings;
+
+    private Serializer serializer;
+
+    private Scenario scenario;
+
+    private byte[] serializedScenario;
+
+    @Setup
+    public void setup() {
+        serializer = "tuned".equals(instance) ? JSONSerializer.getTunedInstance() : JSONSerializer.getInstance();
+
+        List<Listing> output = new ArrayList<>(listings);
+        for (int i = 0; i < listings; i++)
+            output.add(new Listing("listing-" + i, "1 Main Street, Apartment " + i, 1_000_000L + i, 3,
+                    Arrays.asList("garage", "garden", "pool")));
+        scenario = new Scenario("com.compass.listings", "search",
+                Arrays.asList(new Data("query", "new york"), new Data("page", 1)), new Data("listings", output));
+        serializedScenario = serializer.serializeToBytes(scenario);
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return serializer.serializeToBytes(scenario);
+    }
+
+    @Benchmark
+    public Object deserialize() {
+        // the output is decoded on access, which is part of a playback
+        return serializer.deserialize(serializedScenario, Scenario.class).getOutput().getValue();
+    }
+
+    public static class Listing {
+
+        private String id;
+
+        private String address;
+
+        private long price;
+
+        private int bedrooms;
+
+        private List<String> amenities;
+
+        private Listing() {
+        }
+
+        Listing(String id, String address, long price, int bedrooms, List<String> amenities) {
+            this.id = id;
+            this.address = address;
+            this.price = price;
+            this.bedrooms = bedrooms;
+            this.amenities = amenities;
+        }
+    }
+}
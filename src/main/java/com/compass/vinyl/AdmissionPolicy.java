@@ -0,0 +1,153 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl;
+
+import com.compass.vinyl.utils.FrequencySketch;
+
+/**
+ * Decides which of the outputs computed by {@link Vinyl#playbackOrCompute} are recorded, given to
+ * {@link Vinyl.Builder#usingAdmissionPolicy}. The policy is told how long the output took to compute, how often
+ * the scenario was asked for recently and how big the output is, so the storage goes to the scenarios whose
+ * recording saves the most time. An output that isn't admitted is still returned to the callers.
+ *
+ * The scenarios recorded explicitly, and the refreshes of the stale recordings, are always recorded.
+ */
+@FunctionalInterface
+public interface AdmissionPolicy {
+
+    /**
+     * Policy recording all the computed outputs, used when no policy is configured.
+     */
+    AdmissionPolicy ALWAYS = candidate -> true;
+
+    /**
+     * @param candidate
+     *      Computed scenario along with its costs
+     * @return
+     *      whether the scenario is recorded
+     */
+    boolean admit(Candidate candidate);
+
+    /**
+     * @return
+     *      policy admitting the scenarios admitted by both this policy and the other one
+     */
+    default AdmissionPolicy and(AdmissionPolicy other) {
+        return candidate -> admit(candidate) && other.admit(candidate);
+    }
+
+    /**
+     * Record only the outputs that were slow to compute, such as the calls to a slow service.
+     *
+     * @param computeTimeInMillis
+     *      Time the computation should have taken longer than
+     */
+    static AdmissionPolicy slowerThan(long computeTimeInMillis) {
+        long computeTimeInNanos = computeTimeInMillis * 1_000_000;
+        return candidate -> candidate.getComputeTimeInNanos() > computeTimeInNanos;
+    }
+
+    /**
+     * Record a scenario only once it was asked for a number of times recently, so the scenarios asked for once
+     * aren't recorded. With 2, a scenario is recorded on its second sighting.
+     *
+     * @param times
+     *      Number of times the scenario should have been asked for, at most
+     *      {@link FrequencySketch#MAX_FREQUENCY}
+     */
+    static AdmissionPolicy seenAtLeast(int times) {
+        if (times < 1 || times > FrequencySketch.MAX_FREQUENCY)
+            throw new IllegalArgumentException("Times should be between 1 and " + FrequencySketch.MAX_FREQUENCY
+                    + ": " + times);
+        return candidate -> candidate.getFrequency() >= times;
+    }
+
+    /**
+     * Record only the outputs smaller than a size.
+     *
+     * @param sizeInBytes
+     *      Size the output should be smaller than
+     */
+    static AdmissionPolicy smallerThan(long sizeInBytes) {
+        return candidate -> candidate.getSizeInBytes() < sizeInBytes;
+    }
+
+    /**
+     * Record the outputs whose recording is expected to save the most time for the storage it takes: the time
+     * to compute the output, times how often it was asked for recently, per kilobyte of output.
+     *
+     * @param microsPerKilobyte
+     *      Time that should be saved per kilobyte of storage, in microseconds
+     */
+    static AdmissionPolicy savingAtLeast(long microsPerKilobyte) {
+        return candidate -> {
+            double micros = candidate.getComputeTimeInNanos() / 1000.0 * candidate.getFrequency();
+            double kilobytes = Math.max(1, candidate.getSizeInBytes()) / 1024.0;
+            return micros / kilobytes >= microsPerKilobyte;
+        };
+    }
+
+    /**
+     * Computed scenario to be admitted, along with its costs. The size is only worked out if the policy asks
+     * for it.
+     */
+    final class Candidate {
+
+        private final Scenario scenario;
+
+        private final long computeTimeInNanos;
+
+        private final int frequency;
+
+        private final RecordingConfig config;
+
+        private long sizeInBytes = -1;
+
+        Candidate(Scenario scenario, long computeTimeInNanos, int frequency, RecordingConfig config) {
+            this.scenario = scenario;
+            this.computeTimeInNanos = computeTimeInNanos;
+            this.frequency = frequency;
+            this.config = config;
+        }
+
+        /**
+         * @return
+         *      scenario with the computed output
+         */
+        public Scenario getScenario() {
+            return scenario;
+        }
+
+        /**
+         * @return
+         *      time taken to compute the output
+         */
+        public long getComputeTimeInNanos() {
+            return computeTimeInNanos;
+        }
+
+        /**
+         * @return
+         *      estimated number of times the scenario was asked for recently (including this time), at most
+         *      {@link FrequencySketch#MAX_FREQUENCY}
+         */
+        public int getFrequency() {
+            return frequency;
+        }
+
+        /**
+         * @return
+         *      size of the output: the UTF-8 size of a text output, otherwise its serialized size
+         */
+        public long getSizeInBytes() {
+            if (sizeInBytes < 0) {
+                Data output = scenario.getOutput();
+                byte[] bytes = output.getStringValueBytes();
+                if (bytes == null)
+                    bytes = config.getSerializer().serializeToBytes(output);
+                sizeInBytes = bytes == null ? 0 : bytes.length;
+            }
+            return sizeInBytes;
+        }
+    }
+}
@@ -2,6 +2,14 @@
 
 package com.compass.vinyl;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Named value of a scenario. A value played back from a recording may be kept in its serialized form and
+ * decoded on first access, so a recording that is discarded (or only passed on as text) isn't decoded.
+ */
 public class Data {
 
     private String typeInfo;
@@ -10,6 +18,9 @@ public class Data {
 
     private Object value;
 
+    // Serialized value, cleared once decoded
+    private transient volatile EncodedValue encodedValue;
+
     public Data(String name, Object value) {
         this.typeInfo = value.getClass().getCanonicalName();
         this.name = name;
@@ -18,6 +29,18 @@ public class Data {
 
     private Data(){}
 
+    /**
+     * @param encodedValue
+     *      Serialized value, decoded on first access. A null value stands for a null value.
+     */
+    public static Data ofEncoded(String name, String typeInfo, EncodedValue encodedValue) {
+        Data data = new Data();
+        data.typeInfo = typeInfo;
+        data.name = name;
+        data.encodedValue = encodedValue;
+        return data;
+    }
+
     public String getTypeInfo() {
         return typeInfo;
     }
@@ -27,6 +50,63 @@ public class Data {
     }
 
     public Object getValue() {
+        if (encodedValue != null) {
+            synchronized (this) {
+                EncodedValue encoded = encodedValue;
+                if (encoded != null) {
+                    value = encoded.decode();
+                    encodedValue = null;
+                }
+            }
+        }
         return value;
     }
+
+    /**
+     * @return the value as UTF-8 text when it is a string, taken straight from the recording if the value
+     *      hasn't been decoded, null when the value isn't a string
+     */
+    @JsonIgnore
+    public byte[] getStringValueBytes() {
+        EncodedValue encoded = encodedValue;
+        if (encoded != null) {
+            byte[] bytes = encoded.stringBytes();
+            if (bytes != null)
+                return bytes;
+        }
+
+        Object decoded = getValue();
+        return decoded instanceof String ? ((String) decoded).getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * @return length of the value in its serialized form if it hasn't been decoded and the length is known,
+     *      -1 otherwise
+     */
+    @JsonIgnore
+    public int getEncodedLength() {
+        EncodedValue encoded = encodedValue;
+        return encoded != null ? encoded.length() : -1;
+    }
+
+    /**
+     * Value in the form it was serialized in.
+     */
+    public interface EncodedValue {
+
+        Object decode();
+
+        /**
+         * @return UTF-8 bytes of the value if it is a string and they can be taken from the serialized form,
+         *      null otherwise
+         */
+        byte[] stringBytes();
+
+        /**
+         * @return length of the serialized form, -1 if it isn't known
+         */
+        default int length() {
+            return -1;
+        }
+    }
 }
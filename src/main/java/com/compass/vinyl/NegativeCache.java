@@ -0,0 +1,77 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Scenarios known to miss, held in memory until their time to live runs out, keyed by unique id. The number of
+ * entries is bounded: once full, an entry is dropped for each one added, expired entries being dropped as they
+ * are found. As the entries are short lived, the one dropped isn't otherwise chosen.
+ */
+class NegativeCache {
+
+    private final int maxEntries;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    NegativeCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    void put(String uniqueId, Scenario scenario, long expiryTimeInMillis) {
+        if (entries.size() >= maxEntries) {
+            Iterator<Entry> iterator = entries.values().iterator();
+            if (iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+        entries.put(uniqueId, new Entry(scenario, expiryTimeInMillis));
+    }
+
+    /**
+     * @return
+     *      the scenario known to miss, null if there is none or its time to live has run out
+     */
+    Scenario get(String uniqueId, long currentTimeInMillis) {
+        Entry entry = entries.get(uniqueId);
+        if (entry == null)
+            return null;
+        if (entry.expiryTimeInMillis <= currentTimeInMillis) {
+            entries.remove(uniqueId, entry);
+            return null;
+        }
+        return entry.scenario;
+    }
+
+    void remove(String uniqueId) {
+        entries.remove(uniqueId);
+    }
+
+    void clear() {
+        entries.clear();
+    }
+
+    boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private static class Entry {
+
+        private final Scenario scenario;
+
+        private final long expiryTimeInMillis;
+
+        private Entry(Scenario scenario, long expiryTimeInMillis) {
+            this.scenario = scenario;
+            this.expiryTimeInMillis = expiryTimeInMillis;
+        }
+    }
+}
@@ -2,6 +2,8 @@
 
 package com.compass.vinyl;
 
+import com.compass.vinyl.key.KeyStrategy;
+import com.compass.vinyl.key.Md5KeyStrategy;
 import com.compass.vinyl.serializer.Serializer;
 
 public class RecordingConfig {
@@ -10,9 +12,21 @@ public class RecordingConfig {
 
     final String recordingPath;
 
+    final KeyStrategy keyStrategy;
+
     public RecordingConfig(Serializer serializer, String recordingPath) {
+        this(serializer, recordingPath, Md5KeyStrategy.getInstance());
+    }
+
+    /**
+     * @param keyStrategy
+     *      Strategy for the unique ids of the scenarios. The recordings of a recording path are only played
+     *      back with the strategy they were recorded with.
+     */
+    public RecordingConfig(Serializer serializer, String recordingPath, KeyStrategy keyStrategy) {
         this.serializer = serializer;
         this.recordingPath = recordingPath;
+        this.keyStrategy = keyStrategy;
     }
 
     public Serializer getSerializer() {
@@ -22,4 +36,8 @@ public class RecordingConfig {
     public String getRecordingPath() {
         return recordingPath;
     }
+
+    public KeyStrategy getKeyStrategy() {
+        return keyStrategy;
+    }
 }
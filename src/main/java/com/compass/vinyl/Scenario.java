@@ -2,11 +2,22 @@
 
 package com.compass.vinyl;
 
+import com.compass.vinyl.key.KeyStrategy;
+import com.compass.vinyl.key.Md5KeyStrategy;
+import com.compass.vinyl.serializer.JSONSerializer;
 import com.compass.vinyl.serializer.Serializer;
-import com.compass.vinyl.utils.Utilities;
 
 import java.util.List;
 
+/**
+ * A call (source and method) with its inputs and output. The scenario is identified by the unique id derived
+ * from its source, method and inputs, which is computed once and carried along with the scenario (see
+ * {@link #withOutput(Data)}), hence the inputs shouldn't be modified once the scenario is created.
+ *
+ * Scenarios are equal when their unique ids are. The identity of a scenario is the unique id computed first,
+ * or the one derived by {@link Md5KeyStrategy} with JSON serialization, when the scenario is compared before
+ * being identified. Scenarios are expected to be compared with the ones identified the same way.
+ */
 public class Scenario {
 
     private String source;
@@ -21,6 +32,8 @@ public class Scenario {
 
     private Data output;
 
+    private transient volatile Identity identity;
+
     public Scenario(String source, String method, List<Data> inputs, Data output) {
         this.source = source;
         this.method = method;
@@ -36,6 +49,16 @@ public class Scenario {
 
     private Scenario() {}
 
+    /**
+     * @return scenario with the same source, method, inputs (and identity) as this scenario, and the given output
+     */
+    public Scenario withOutput(Data output) {
+        Scenario scenario = new Scenario(source, method, inputs, output);
+        scenario.metadata = metadata;
+        scenario.identity = identity;
+        return scenario;
+    }
+
     public String getSource() {
         return source;
     }
@@ -64,8 +87,86 @@ public class Scenario {
         this.metadata = metadata;
     }
 
+    /**
+     * @return unique id of the scenario as per the {@link Md5KeyStrategy}
+     */
     public String getUniqueId(Serializer serializer) {
-        String inputsJson = serializer.serialize(new Scenario(this.getSource(), this.getMethod(), this.getInputs()));
-        return Utilities.md5(inputsJson);
+        return getUniqueId(Md5KeyStrategy.getInstance(), serializer);
+    }
+
+    /**
+     * @return unique id of the scenario as per the key strategy of the configuration
+     */
+    public String getUniqueId(RecordingConfig config) {
+        return getUniqueId(config.getKeyStrategy(), config.getSerializer());
+    }
+
+    /**
+     * The unique id computed first is kept as the identity of the scenario, ids asked for with another key
+     * strategy or serializer are computed each time.
+     */
+    private String getUniqueId(KeyStrategy keyStrategy, Serializer serializer) {
+        serializer = serializer.getKeySerializer();
+        Identity current = identity;
+        if (current != null) {
+            if (current.keyStrategy == keyStrategy && current.serializer == serializer)
+                return current.uniqueId;
+            return keyStrategy.uniqueId(this, serializer);
+        }
+
+        String uniqueId = keyStrategy.uniqueId(this, serializer);
+        synchronized (this) {
+            if (identity == null)
+                identity = new Identity(keyStrategy, serializer, uniqueId);
+        }
+        return uniqueId;
+    }
+
+    /**
+     * Take on the identity of the other scenario, which has the same source, method and inputs.
+     */
+    void copyIdentity(Scenario scenario) {
+        if (identity == null && scenario.identity != null)
+            identity = scenario.identity;
+    }
+
+    private Identity identity() {
+        Identity current = identity;
+        if (current == null) {
+            getUniqueId(Md5KeyStrategy.getInstance(), JSONSerializer.getInstance());
+            current = identity;
+        }
+        return current;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (!(other instanceof Scenario))
+            return false;
+
+        Identity own = identity();
+        return own.uniqueId.equals(((Scenario) other).getUniqueId(own.keyStrategy, own.serializer));
+    }
+
+    @Override
+    public int hashCode() {
+        return identity().uniqueId.hashCode();
+    }
+
+    private static final class Identity {
+
+        private final KeyStrategy keyStrategy;
+
+        private final Serializer serializer;
+
+        private final String uniqueId;
+
+        Identity(KeyStrategy keyStrategy, Serializer serializer, String uniqueId) {
+            this.keyStrategy = keyStrategy;
+            this.serializer = serializer;
+            this.uniqueId = uniqueId;
+        }
     }
 }
@@ -4,12 +4,21 @@ package com.compass.vinyl;
 
 import java.util.List;
 
+/**
+ * Metadata of a recorded scenario. In cache mode a recording is played back until its expiry time. Past its
+ * soft expiry time (when set, before the expiry time) the recording is stale: it is still played back, and
+ * refreshed in the background by {@link Vinyl#playbackOrCompute(Scenario, java.util.function.Supplier)}.
+ */
 public class ScenarioMetadata {
 
     private Long expiryTimeInMillis;
 
+    private Long softExpiryTimeInMillis;
+
     private List<String> tags;
 
+    private Long recordedTimeInMillis;
+
     public ScenarioMetadata(){}
 
     public ScenarioMetadata(List<String> tags){
@@ -31,4 +40,46 @@ public class ScenarioMetadata {
     public void setExpiryTimeInMillis(Long expiryTimeInMillis) {
         this.expiryTimeInMillis = expiryTimeInMillis;
     }
+
+    public Long getSoftExpiryTimeInMillis() {
+        return softExpiryTimeInMillis;
+    }
+
+    public void setSoftExpiryTimeInMillis(Long softExpiryTimeInMillis) {
+        this.softExpiryTimeInMillis = softExpiryTimeInMillis;
+    }
+
+    /**
+     * @return
+     *      time the scenario was recorded, set by Vinyl on the recordings with a soft expiry time, so their
+     *      expiry is renewed by the same time to live when refreshed
+     */
+    public Long getRecordedTimeInMillis() {
+        return recordedTimeInMillis;
+    }
+
+    public void setRecordedTimeInMillis(Long recordedTimeInMillis) {
+        this.recordedTimeInMillis = recordedTimeInMillis;
+    }
+
+    /**
+     * @param currentTimeInMillis
+     *      time to check the expiry against
+     * @return
+     *      true if an expiry is set and it is before the given time
+     */
+    public boolean isExpired(long currentTimeInMillis) {
+        return expiryTimeInMillis != null && expiryTimeInMillis < currentTimeInMillis;
+    }
+
+    /**
+     * @param currentTimeInMillis
+     *      time to check the soft expiry against
+     * @return
+     *      true if a soft expiry is set and it is before the given time, while the recording hasn't expired
+     */
+    public boolean isStale(long currentTimeInMillis) {
+        return softExpiryTimeInMillis != null && softExpiryTimeInMillis < currentTimeInMillis
+                && !isExpired(currentTimeInMillis);
+    }
 }
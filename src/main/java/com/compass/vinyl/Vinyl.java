@@ -2,11 +2,32 @@
 
 package com.compass.vinyl;
 
+import com.compass.vinyl.metrics.CallTrace;
+import com.compass.vinyl.metrics.VinylMetrics;
+import com.compass.vinyl.metrics.VinylProfiler;
 import com.compass.vinyl.player.RecordPlayer;
+import com.compass.vinyl.utils.FrequencySketch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 /**
  * Vinyl represents the layer to record and playback the scenarios.
@@ -14,17 +35,73 @@ import java.util.List;
  * RecordingConfig - determines the (de)serialization for data
  * Player - determines where the data is stored and retrieved
  *
+ * The asynchronous methods run on a bounded pool of I/O threads, or on the executor given to the builder.
+ * Closing Vinyl stops the background refreshes of the stale recordings and the I/O threads, the player is
+ * closed by its owner.
  */
-public class Vinyl {
+public class Vinyl implements AutoCloseable {
 
     private static final Logger LOG = LoggerFactory.getLogger(Vinyl.class);
 
+    private static final long DEFAULT_COALESCING_TIMEOUT_MILLIS = 30_000;
+
+    private static final int DEFAULT_REFRESH_THREADS = 2;
+
+    private static final int DEFAULT_REFRESH_QUEUE_CAPACITY = 1_000;
+
+    private static final int DEFAULT_IO_THREADS = 4;
+
+    private static final int DEFAULT_IO_QUEUE_CAPACITY = 10_000;
+
+    private static final int DEFAULT_NEGATIVE_CACHE_SIZE = 10_000;
+
+    // Number of distinct scenarios the frequencies of the requests are estimated for
+    private static final int REQUEST_SKETCH_SIZE = 10_000;
+
     private Mode mode;
 
     private RecordingConfig config;
 
     private RecordPlayer player;
 
+    private long coalescingTimeoutInMillis = DEFAULT_COALESCING_TIMEOUT_MILLIS;
+
+    private int refreshThreads = DEFAULT_REFRESH_THREADS;
+
+    private int refreshQueueCapacity = DEFAULT_REFRESH_QUEUE_CAPACITY;
+
+    // Created on the first refresh of a stale recording
+    private ThreadPoolExecutor refreshExecutor;
+
+    private int ioThreads = DEFAULT_IO_THREADS;
+
+    private int ioQueueCapacity = DEFAULT_IO_QUEUE_CAPACITY;
+
+    // Executor of the asynchronous calls, created on first use unless given to the builder
+    private volatile Executor ioExecutor;
+
+    private boolean ownsIoExecutor;
+
+    private boolean backgroundRecording;
+
+    private VinylMetrics metrics = VinylMetrics.NONE;
+
+    // Traces the stages of the calls when set
+    private VinylProfiler profiler;
+
+    // Scenarios known to miss, in cache mode
+    private NegativeCache negativeCache;
+
+    private AdmissionPolicy admissionPolicy = AdmissionPolicy.ALWAYS;
+
+    // Frequencies of the scenarios asked for, unless all the computed outputs are admitted
+    private FrequencySketch requests;
+
+    private boolean closed;
+
+    // Computations of the scenarios that missed, keyed by unique id
+    private final Map<String, CompletableFuture<Scenario>> computations = new ConcurrentHashMap<>();
+
     private Vinyl(){
     }
 
@@ -43,8 +120,12 @@ public class Vinyl {
      *      scenario with source, method, inputs and output to be recorded
      */
     public void record(Scenario scenario) {
+        scenario = stamped(scenario);
+        CallTrace trace = beginTrace(CallTrace.Operation.RECORD, scenario);
+        long start = System.nanoTime();
+        boolean status = false;
         try {
-            boolean status = player.record(scenario, config);
+            status = player.record(scenario, config);
             if (!status)
                 LOG.warn("Recording failed for the scenario:" + scenario
                         + " and config: " + config);
@@ -53,6 +134,98 @@ public class Vinyl {
             LOG.error("Recording failed for the scenario:" + scenario
             + " and config: " + config, r);
         }
+        finally {
+            metrics.onRecord(scenario.getSource(), scenario.getMethod(), status, System.nanoTime() - start);
+            endTrace(trace);
+        }
+        if (status && !negativeCache.isEmpty())
+            negativeCache.remove(scenario.getUniqueId(config));
+    }
+
+    /**
+     * @return
+     *      the scenario with a copy of its metadata stamped with the time of the recording, when it has a soft
+     *      expiry time, to renew its expiry once refreshed
+     */
+    private static Scenario stamped(Scenario scenario) {
+        ScenarioMetadata metadata = scenario.getMetadata();
+        if (metadata == null || metadata.getSoftExpiryTimeInMillis() == null)
+            return scenario;
+        ScenarioMetadata stampedMetadata = new ScenarioMetadata(metadata.getTags());
+        stampedMetadata.setSoftExpiryTimeInMillis(metadata.getSoftExpiryTimeInMillis());
+        stampedMetadata.setExpiryTimeInMillis(metadata.getExpiryTimeInMillis());
+        stampedMetadata.setRecordedTimeInMillis(System.currentTimeMillis());
+        Scenario stampedScenario = scenario.withOutput(scenario.getOutput());
+        stampedScenario.setMetadata(stampedMetadata);
+        return stampedScenario;
+    }
+
+    /**
+     * @return
+     *      metadata of the refresh of the stale recording: the tags of the recording, with its soft expiry and
+     *      expiry renewed by the times to live it was recorded with. The expiry of a recording made before it
+     *      was stamped is taken from the scenario asked for, if set.
+     */
+    private static ScenarioMetadata renewed(ScenarioMetadata stale, ScenarioMetadata requested) {
+        ScenarioMetadata metadata = new ScenarioMetadata(stale.getTags());
+        Long recordedTime = stale.getRecordedTimeInMillis();
+        long currentTime = System.currentTimeMillis();
+        if (recordedTime != null) {
+            metadata.setSoftExpiryTimeInMillis(currentTime + stale.getSoftExpiryTimeInMillis() - recordedTime);
+            if (stale.getExpiryTimeInMillis() != null)
+                metadata.setExpiryTimeInMillis(currentTime + stale.getExpiryTimeInMillis() - recordedTime);
+        }
+        else if (requested != null && requested.getSoftExpiryTimeInMillis() != null) {
+            metadata.setSoftExpiryTimeInMillis(requested.getSoftExpiryTimeInMillis());
+            metadata.setExpiryTimeInMillis(requested.getExpiryTimeInMillis());
+        }
+        else {
+            metadata.setSoftExpiryTimeInMillis(stale.getSoftExpiryTimeInMillis());
+            metadata.setExpiryTimeInMillis(stale.getExpiryTimeInMillis());
+        }
+        if (metadata.getTags() == null && requested != null)
+            metadata.setTags(requested.getTags());
+        return metadata;
+    }
+
+    /**
+     * In cache mode, remember that the scenario is known to miss (such as when the actual service failed for
+     * it, or had nothing worth recording) for a while, so its calls can be answered by
+     * {@link #playbackNegative(Scenario)} without reaching the player or the service. The scenario is held in
+     * memory as is, with an output describing the miss if any, and isn't recorded. Recording the scenario
+     * forgets that it is known to miss. Outside of cache mode nothing is remembered.
+     *
+     * @param scenario
+     *      scenario with source, method, inputs and optionally an output describing the miss
+     * @param timeToLiveInMillis
+     *      Time for which the scenario is known to miss
+     */
+    public void recordNegative(Scenario scenario, long timeToLiveInMillis) {
+        if (mode != Mode.CACHE || timeToLiveInMillis <= 0)
+            return;
+        negativeCache.put(scenario.getUniqueId(config), scenario,
+                System.currentTimeMillis() + timeToLiveInMillis);
+    }
+
+    /**
+     * Play back the scenario if it is known to miss, see {@link #recordNegative(Scenario, long)}. The player
+     * isn't reached.
+     *
+     * @param scenario
+     *      scenario with source, method, inputs
+     *
+     * @return
+     *      the scenario given when it was found to miss, null if it isn't known to miss (any longer)
+     */
+    public Scenario playbackNegative(Scenario scenario) {
+        if (negativeCache.isEmpty())
+            return null;
+        Scenario negativeScenario = negativeCache.get(scenario.getUniqueId(config), System.currentTimeMillis());
+        if (negativeScenario == null)
+            return null;
+        metrics.onPlayback(scenario.getSource(), scenario.getMethod(), VinylMetrics.Outcome.NEGATIVE, 0);
+        // each caller gets its own scenario
+        return negativeScenario.withOutput(negativeScenario.getOutput());
     }
 
     /**
@@ -67,29 +240,405 @@ public class Vinyl {
     public Scenario playback(Scenario scenario) {
 
         // In Chaos mode, randomly fail the request
-        if (mode == Mode.CHAOS) {
-            if (Math.random() < 0.5) {
-                return new Scenario(scenario.getSource(), scenario.getMethod(), scenario.getInputs(), null);
-            }
+        if (failInChaos()) {
+            metrics.onPlayback(scenario.getSource(), scenario.getMethod(), VinylMetrics.Outcome.CHAOS, 0);
+            return new Scenario(scenario.getSource(), scenario.getMethod(), scenario.getInputs(), null);
         }
 
-        // Get the recorded scenario
-        Scenario recordedScenario = player.playback(scenario, config);
-        if (recordedScenario == null)
+        CallTrace trace = beginTrace(CallTrace.Operation.PLAYBACK, scenario);
+        try {
+            long start = System.nanoTime();
+            AtomicBoolean expired = new AtomicBoolean();
+            Scenario recordedScenario = lookup(scenario, () -> expired.set(true));
+            metrics.onPlayback(scenario.getSource(), scenario.getMethod(),
+                    expired.get() ? VinylMetrics.Outcome.EXPIRED : outcomeOf(recordedScenario),
+                    System.nanoTime() - start);
+
+            return afterPlayback(scenario, recordedScenario);
+        } finally {
+            endTrace(trace);
+        }
+    }
+
+    /**
+     * Get the recorded scenario from the player, without failing in chaos mode nor reporting the playback to
+     * the metrics and the profiler. In cache mode the expired data is not sent back.
+     */
+    private Scenario lookup(Scenario scenario) {
+        return lookup(scenario, () -> {});
+    }
+
+    /**
+     * @param onExpired
+     *      Run when the recording isn't sent back as it has expired
+     */
+    private Scenario lookup(Scenario scenario, Runnable onExpired) {
+        if (mode == Mode.CACHE)
+            return player.playbackIfNotExpired(scenario, config, System.currentTimeMillis(), onExpired);
+        return player.playback(scenario, config);
+    }
+
+    /**
+     * Start tracing the call if profiled. The scenario is identified up front, as the first stage, so the
+     * players reuse its unique id.
+     */
+    private CallTrace beginTrace(CallTrace.Operation operation, Scenario scenario) {
+        if (profiler == null)
             return null;
+        CallTrace trace = CallTrace.begin(operation, scenario.getSource(), scenario.getMethod());
+        long time = trace.start();
+        scenario.getUniqueId(config);
+        trace.lap(CallTrace.Stage.KEY, time);
+        return trace;
+    }
+
+    private void endTrace(CallTrace trace) {
+        if (trace == null)
+            return;
+        trace.end();
+        profiler.onCall(trace);
+    }
+
+    /**
+     * Play back the scenario if recorded, otherwise compute its output and record it. Concurrent calls for a
+     * scenario that isn't recorded are coalesced: the first call computes the output, the others wait for it
+     * and get the scenario it computed (or the failure of the computation). A call that waits longer than the
+     * coalescing timeout computes the output itself.
+     *
+     * In cache mode a stale recording (see {@link ScenarioMetadata#isStale(long)}) is played back as is, and its
+     * output is computed again and recorded in the background. Refreshes run on a bounded pool of threads, a
+     * refresh that doesn't fit in the queue is dropped and the stale recording is served until the next call.
+     *
+     * @param scenario
+     *      scenario with source, method, inputs
+     * @param compute
+     *      computes the output of the scenario, such as by calling the actual service. A null output isn't
+     *      recorded, nor is an output rejected by the {@link AdmissionPolicy}. The refresh of a stale recording
+     *      calls it on a background thread.
+     *
+     * @return
+     *      the recorded scenario, or the scenario with the computed output
+     */
+    public Scenario playbackOrCompute(Scenario scenario, Supplier<Data> compute) {
+        return playbackOrCompute(scenario, compute, compute);
+    }
+
+    /**
+     * Play back the scenario if recorded, otherwise compute its output and record it, as in
+     * {@link #playbackOrCompute(Scenario, Supplier)}, refreshing a stale recording with its own computation.
+     * The refreshed recording keeps the tags of the stale one, and its expiry is renewed.
+     *
+     * @param scenario
+     *      scenario with source, method, inputs
+     * @param compute
+     *      computes the output of the scenario missing a recording, on the caller's thread (or the thread of
+     *      the call it is coalesced with)
+     * @param refresh
+     *      computes the output replacing a stale recording, on a background thread. A null output keeps the
+     *      stale recording.
+     *
+     * @return
+     *      the recorded scenario, or the scenario with the computed output
+     */
+    public Scenario playbackOrCompute(Scenario scenario, Supplier<Data> compute, Supplier<Data> refresh) {
+        if (requests != null)
+            requests.increment(scenario.getUniqueId(config));
+
+        Scenario recordedScenario = playback(scenario);
+        if (recordedScenario != null) {
+            if (mode == Mode.CACHE && recordedScenario.getMetadata() != null
+                    && recordedScenario.getMetadata().isStale(System.currentTimeMillis()))
+                scheduleRefresh(scenario, recordedScenario.getMetadata(), refresh);
+            return recordedScenario;
+        }
+
+        String uniqueId = scenario.getUniqueId(config);
+        CompletableFuture<Scenario> computation = new CompletableFuture<>();
+        CompletableFuture<Scenario> inProgress = computations.putIfAbsent(uniqueId, computation);
+        if (inProgress != null)
+            return awaitComputation(inProgress, scenario, compute);
+
+        CompletableFuture<Void> recording = null;
+        try {
+            // not redundant: a computation of the scenario might have completed and been recorded between the
+            // playback and the registration of this one, which would otherwise compute it again. It costs a
+            // second read of the storage on each miss that isn't coalesced, cheaper than a needless computation,
+            // and goes through the lookup as the miss was already reported by the playback
+            recordedScenario = afterPlayback(scenario, lookup(scenario));
+            if (recordedScenario == null && backgroundRecording) {
+                long start = System.nanoTime();
+                Data output = computeOutput(scenario, compute);
+                recordedScenario = scenario.withOutput(output);
+                if (output != null && admit(recordedScenario, System.nanoTime() - start, admissionPolicy))
+                    recording = recordAsync(recordedScenario);
+            }
+            else if (recordedScenario == null) {
+                recordedScenario = computeAndRecord(scenario, compute, admissionPolicy);
+            }
+            computation.complete(recordedScenario);
+            return recordedScenario;
+        }
+        catch (RuntimeException | Error e) {
+            computation.completeExceptionally(e);
+            throw e;
+        }
+        finally {
+            // calls made until the recording is written get the computed scenario
+            if (recording != null)
+                recording.whenComplete((result, failure) -> computations.remove(uniqueId, computation));
+            else
+                computations.remove(uniqueId, computation);
+        }
+    }
+
+    private Scenario awaitComputation(CompletableFuture<Scenario> computation, Scenario scenario,
+                                      Supplier<Data> compute) {
+        try {
+            Scenario computedScenario = computation.get(coalescingTimeoutInMillis, TimeUnit.MILLISECONDS);
+            // each caller gets its own scenario
+            return computedScenario.withOutput(computedScenario.getOutput());
+        }
+        catch (TimeoutException e) {
+            LOG.warn("Timed out waiting for the output of the scenario being computed, computing it again. Source="
+                    + scenario.getSource() + ", method=" + scenario.getMethod());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (CancellationException e) {
+            // the refresh being waited for was dropped
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw new IllegalStateException("Computation of the scenario failed.", e.getCause());
+        }
+        return computeAndRecord(scenario, compute, admissionPolicy);
+    }
+
+    /**
+     * Compute and record the output of the stale scenario in the background, unless it is already being
+     * computed. The new recording replaces the stale one, which is served in the meantime.
+     */
+    private void scheduleRefresh(Scenario scenario, ScenarioMetadata staleMetadata, Supplier<Data> compute) {
+        String uniqueId = scenario.getUniqueId(config);
+        CompletableFuture<Scenario> refresh = new CompletableFuture<>();
+        if (computations.putIfAbsent(uniqueId, refresh) != null)
+            return;
+
+        try {
+            refreshExecutor().execute(() -> {
+                try {
+                    Scenario refreshedScenario = scenario.withOutput(null);
+                    refreshedScenario.setMetadata(renewed(staleMetadata, scenario.getMetadata()));
+                    // the scenario was admitted when first recorded
+                    refresh.complete(computeAndRecord(refreshedScenario, compute, AdmissionPolicy.ALWAYS));
+                }
+                catch (RuntimeException | Error e) {
+                    LOG.error("Refresh failed for the scenario:" + scenario + " and config: " + config, e);
+                    refresh.completeExceptionally(e);
+                }
+                finally {
+                    computations.remove(uniqueId, refresh);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            LOG.warn("Refresh queue is full, serving the stale scenario. Source=" + scenario.getSource()
+                    + ", method=" + scenario.getMethod());
+            computations.remove(uniqueId, refresh);
+            refresh.cancel(false);
+        }
+    }
+
+    private synchronized ThreadPoolExecutor refreshExecutor() {
+        if (closed)
+            throw new RejectedExecutionException("Vinyl is closed.");
+        if (refreshExecutor == null)
+            refreshExecutor = newExecutor("vinyl-refresh-", refreshThreads, refreshQueueCapacity);
+        return refreshExecutor;
+    }
+
+    private Executor ioExecutor() {
+        Executor executor = ioExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                if (closed)
+                    throw new RejectedExecutionException("Vinyl is closed.");
+                if (ioExecutor == null) {
+                    ioExecutor = newExecutor("vinyl-io-", ioThreads, ioQueueCapacity);
+                    ownsIoExecutor = true;
+                }
+                executor = ioExecutor;
+            }
+        }
+        return executor;
+    }
+
+    private static ThreadPoolExecutor newExecutor(String threadName, int threads, int queueCapacity) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, threadName + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Stop the background refreshes and the I/O threads, the tasks already queued are completed. An executor
+     * given to the builder isn't shut down.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (refreshExecutor != null)
+            refreshExecutor.shutdown();
+        if (ownsIoExecutor)
+            ((ThreadPoolExecutor) ioExecutor).shutdown();
+    }
+
+    private Scenario computeAndRecord(Scenario scenario, Supplier<Data> compute, AdmissionPolicy policy) {
+        long start = System.nanoTime();
+        Data output = computeOutput(scenario, compute);
+        Scenario computedScenario = scenario.withOutput(output);
+        if (output != null && admit(computedScenario, System.nanoTime() - start, policy))
+            record(computedScenario);
+        return computedScenario;
+    }
+
+    private boolean admit(Scenario computedScenario, long computeTimeInNanos, AdmissionPolicy policy) {
+        if (policy == AdmissionPolicy.ALWAYS)
+            return true;
+        int frequency = requests.frequency(computedScenario.getUniqueId(config));
+        boolean admitted = policy.admit(new AdmissionPolicy.Candidate(computedScenario, computeTimeInNanos,
+                frequency, config));
+        if (!admitted && LOG.isDebugEnabled())
+            LOG.debug("Computed output not admitted for recording. Source=" + computedScenario.getSource()
+                    + ", method=" + computedScenario.getMethod());
+        return admitted;
+    }
+
+    private Data computeOutput(Scenario scenario, Supplier<Data> compute) {
+        long start = System.nanoTime();
+        Data output = compute.get();
+        metrics.onCompute(scenario.getSource(), scenario.getMethod(), System.nanoTime() - start);
+        return output;
+    }
+
+    /**
+     * Record all the scenarios in Vinyl in a single batch
+     *
+     * @param scenarios
+     *      scenarios with source, method, inputs and output to be recorded
+     */
+    public void recordAll(Collection<Scenario> scenarios) {
+        long start = System.nanoTime();
+        boolean status = false;
+        try {
+            status = player.recordAll(scenarios, config);
+            if (!status)
+                LOG.warn("Recording failed for some of the " + scenarios.size() + " scenarios"
+                        + " and config: " + config);
+        }
+        catch(RuntimeException r) {
+            LOG.error("Recording failed for the " + scenarios.size() + " scenarios"
+                    + " and config: " + config, r);
+        }
+        finally {
+            // each scenario is accounted an equal share of the batch
+            long duration = (System.nanoTime() - start) / Math.max(1, scenarios.size());
+            for (Scenario scenario : scenarios)
+                metrics.onRecord(scenario.getSource(), scenario.getMethod(), status, duration);
+        }
+        if (status && !negativeCache.isEmpty()) {
+            for (Scenario scenario : scenarios)
+                negativeCache.remove(scenario.getUniqueId(config));
+        }
+    }
 
-        if (mode == Mode.CACHE) {
-            ScenarioMetadata metadata = recordedScenario.getMetadata();
-            if (metadata != null) {
-                long currentTime = System.currentTimeMillis();
+    public Mode getMode() {
+        return mode;
+    }
 
-                // Check if the data has expired, if so, do not send the data back
-                if (metadata.getExpiryTimeInMillis() != null && metadata.getExpiryTimeInMillis() < currentTime)
-                    return null;
+    /**
+     * Play back all the scenarios in a single batch. Each scenario is treated as in {@link #playback(Scenario)}.
+     *
+     * @param scenarios
+     *      scenarios with source, method, inputs
+     *
+     * @return
+     *      the recorded scenarios in the iteration order of the given scenarios, null for the ones
+     *      that aren't recorded (or have expired)
+     */
+    public List<Scenario> playbackAll(Collection<Scenario> scenarios) {
+        List<Scenario> recordedScenarios = new ArrayList<>(Collections.nCopies(scenarios.size(), (Scenario) null));
+        List<Scenario> scenariosToPlayback = new ArrayList<>(scenarios.size());
+        List<Integer> positions = new ArrayList<>(scenarios.size());
+
+        int position = 0;
+        for (Scenario scenario : scenarios) {
+            if (failInChaos()) {
+                metrics.onPlayback(scenario.getSource(), scenario.getMethod(), VinylMetrics.Outcome.CHAOS, 0);
+                recordedScenarios.set(position, new Scenario(scenario.getSource(), scenario.getMethod(),
+                        scenario.getInputs(), null));
+            } else {
+                scenariosToPlayback.add(scenario);
+                positions.add(position);
+            }
+            position++;
+        }
+
+        long start = System.nanoTime();
+        List<Scenario> playedBack = player.playbackAll(scenariosToPlayback, config);
+        long currentTime = System.currentTimeMillis();
+        long duration = (System.nanoTime() - start) / Math.max(1, playedBack.size());
+        for (int i = 0; i < playedBack.size(); i++) {
+            Scenario recordedScenario = playedBack.get(i);
+            Scenario scenario = scenariosToPlayback.get(i);
+
+            // Check if the data has expired, if so, do not send the data back
+            if (mode == Mode.CACHE && recordedScenario != null && recordedScenario.getMetadata() != null
+                    && recordedScenario.getMetadata().isExpired(currentTime)) {
+                recordedScenario = null;
+                metrics.onPlayback(scenario.getSource(), scenario.getMethod(), VinylMetrics.Outcome.EXPIRED,
+                        duration);
             }
+            else {
+                metrics.onPlayback(scenario.getSource(), scenario.getMethod(), outcomeOf(recordedScenario),
+                        duration);
+            }
+
+            recordedScenarios.set(positions.get(i), afterPlayback(scenario, recordedScenario));
         }
+        return recordedScenarios;
+    }
+
+    private VinylMetrics.Outcome outcomeOf(Scenario recordedScenario) {
+        if (recordedScenario == null)
+            return VinylMetrics.Outcome.MISS;
+        if (mode == Mode.CACHE && recordedScenario.getMetadata() != null
+                && recordedScenario.getMetadata().isStale(System.currentTimeMillis()))
+            return VinylMetrics.Outcome.STALE;
+        return VinylMetrics.Outcome.HIT;
+    }
 
-        else if (mode == Mode.PLAYBACK) {
+    private boolean failInChaos() {
+        return mode == Mode.CHAOS && Math.random() < 0.5;
+    }
+
+    private Scenario afterPlayback(Scenario scenario, Scenario recordedScenario) {
+        if (recordedScenario == null)
+            return null;
+
+        // the recorded scenario has the same inputs, hence the identity already computed
+        recordedScenario.copyIdentity(scenario);
+
+        if (mode == Mode.PLAYBACK) {
             // Ignore the time to live in playback mode
             return recordedScenario;
         }
@@ -108,11 +657,84 @@ public class Vinyl {
      *      Specific scenario to be cleared (identified by source, method and inputs)
      */
     public void clearScenario(Scenario scenario) {
+        negativeCache.remove(scenario.getUniqueId(config));
         player.delete(scenario, config);
     }
 
     public void clear(List<String> tags) {
-        player.deleteByTags(tags, config);
+        CallTrace trace = profiler == null ? null : CallTrace.begin(CallTrace.Operation.DELETE_BY_TAGS, null, null);
+        try {
+            // the scenarios known to miss aren't tagged, and are all forgotten
+            negativeCache.clear();
+            player.deleteByTags(tags, config);
+        } finally {
+            endTrace(trace);
+        }
+    }
+
+    /**
+     * Play back the scenario on the I/O executor, see {@link #playback(Scenario)}.
+     *
+     * @param scenario
+     *      scenario with source, method, inputs
+     *
+     * @return
+     *      future of the recorded scenario, completed with null if it isn't recorded. The future fails with a
+     *      {@link RejectedExecutionException} if the executor can't take the playback.
+     */
+    public CompletableFuture<Scenario> playbackAsync(Scenario scenario) {
+        return supplyAsync(() -> playback(scenario));
+    }
+
+    /**
+     * Record the scenario on the I/O executor, see {@link #record(Scenario)}. The caller needn't wait for the
+     * future, which completes once the recording is attempted. The failure of the recording is only logged,
+     * as with the synchronous record.
+     *
+     * @param scenario
+     *      scenario with source, method, inputs and output to be recorded
+     *
+     * @return
+     *      future completed once the recording is attempted, failed with a {@link RejectedExecutionException}
+     *      if the executor can't take the recording
+     */
+    public CompletableFuture<Void> recordAsync(Scenario scenario) {
+        return supplyAsync(() -> {
+            record(scenario);
+            return null;
+        });
+    }
+
+    /**
+     * Clear the scenario from the recorded data on the I/O executor, see {@link #clearScenario(Scenario)}.
+     */
+    public CompletableFuture<Void> clearScenarioAsync(Scenario scenario) {
+        return supplyAsync(() -> {
+            clearScenario(scenario);
+            return null;
+        });
+    }
+
+    /**
+     * Clear the scenarios matching the tags on the I/O executor, see {@link #clear(List)}.
+     */
+    public CompletableFuture<Void> clearAsync(List<String> tags) {
+        return supplyAsync(() -> {
+            clear(tags);
+            return null;
+        });
+    }
+
+    private <T> CompletableFuture<T> supplyAsync(Supplier<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, ioExecutor());
+        }
+        catch (RejectedExecutionException e) {
+            LOG.warn("I/O queue is full, rejecting the call.");
+            CompletableFuture<T> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(e);
+            return rejected;
+        }
     }
 
     private void randomize(Scenario recordedScenario) {
@@ -127,14 +749,149 @@ public class Vinyl {
 
         private Mode mode;
 
+        private long coalescingTimeoutInMillis = DEFAULT_COALESCING_TIMEOUT_MILLIS;
+
+        private int refreshThreads = DEFAULT_REFRESH_THREADS;
+
+        private int refreshQueueCapacity = DEFAULT_REFRESH_QUEUE_CAPACITY;
+
+        private int ioThreads = DEFAULT_IO_THREADS;
+
+        private int ioQueueCapacity = DEFAULT_IO_QUEUE_CAPACITY;
+
+        private Executor ioExecutor;
+
+        private boolean backgroundRecording;
+
+        private VinylMetrics metrics = VinylMetrics.NONE;
+
+        private VinylProfiler profiler;
+
+        private int negativeCacheSize = DEFAULT_NEGATIVE_CACHE_SIZE;
+
+        private AdmissionPolicy admissionPolicy = AdmissionPolicy.ALWAYS;
+
         public Vinyl create() {
             Vinyl vinyl = new Vinyl();
             vinyl.mode = this.mode;
             vinyl.config = this.config;
             vinyl.player = this.player;
+            vinyl.coalescingTimeoutInMillis = this.coalescingTimeoutInMillis;
+            vinyl.refreshThreads = this.refreshThreads;
+            vinyl.refreshQueueCapacity = this.refreshQueueCapacity;
+            vinyl.ioThreads = this.ioThreads;
+            vinyl.ioQueueCapacity = this.ioQueueCapacity;
+            vinyl.ioExecutor = this.ioExecutor;
+            vinyl.backgroundRecording = this.backgroundRecording;
+            vinyl.metrics = this.metrics;
+            vinyl.profiler = this.profiler;
+            vinyl.negativeCache = new NegativeCache(this.negativeCacheSize);
+            vinyl.admissionPolicy = this.admissionPolicy;
+            if (this.admissionPolicy != AdmissionPolicy.ALWAYS)
+                vinyl.requests = new FrequencySketch(REQUEST_SKETCH_SIZE);
             return vinyl;
         }
 
+        /**
+         * @param metrics
+         *      Listener of the calls made through Vinyl, such as {@link com.compass.vinyl.metrics.VinylStats}
+         */
+        public Builder usingMetrics(VinylMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * @param admissionPolicy
+         *      Policy deciding which of the outputs computed by {@link Vinyl#playbackOrCompute(Scenario, Supplier)}
+         *      are recorded, such as {@link AdmissionPolicy#slowerThan(long)}. All of them are by default.
+         */
+        public Builder usingAdmissionPolicy(AdmissionPolicy admissionPolicy) {
+            this.admissionPolicy = admissionPolicy;
+            return this;
+        }
+
+        /**
+         * @param negativeCacheSize
+         *      Maximum number of scenarios remembered to miss in cache mode, see
+         *      {@link Vinyl#recordNegative(Scenario, long)}
+         */
+        public Builder usingNegativeCacheSize(int negativeCacheSize) {
+            if (negativeCacheSize < 1)
+                throw new IllegalArgumentException("Negative cache size should be positive.");
+            this.negativeCacheSize = negativeCacheSize;
+            return this;
+        }
+
+        /**
+         * @param profiler
+         *      Profiler of the stages of each playback, record and clear by tags, which are traced only when
+         *      a profiler is given
+         */
+        public Builder usingProfiler(VinylProfiler profiler) {
+            this.profiler = profiler;
+            return this;
+        }
+
+        /**
+         * @param ioThreads
+         *      Number of threads running the asynchronous calls
+         * @param ioQueueCapacity
+         *      Maximum number of asynchronous calls waiting for a thread, further calls are rejected
+         */
+        public Builder usingIoThreads(int ioThreads, int ioQueueCapacity) {
+            if (ioThreads < 1 || ioQueueCapacity < 1)
+                throw new IllegalArgumentException("I/O threads and queue capacity should be positive.");
+            this.ioThreads = ioThreads;
+            this.ioQueueCapacity = ioQueueCapacity;
+            return this;
+        }
+
+        /**
+         * @param ioExecutor
+         *      Executor of the asynchronous calls, in place of the I/O threads of Vinyl. It is expected to be
+         *      bounded and isn't shut down when Vinyl is closed.
+         */
+        public Builder usingIoExecutor(Executor ioExecutor) {
+            this.ioExecutor = ioExecutor;
+            return this;
+        }
+
+        /**
+         * @param backgroundRecording
+         *      Record the outputs computed by {@link Vinyl#playbackOrCompute(Scenario, Supplier)} on the I/O
+         *      executor, so the call returns as soon as the output is computed. Calls for the scenario are
+         *      served the computed output until it is recorded.
+         */
+        public Builder withBackgroundRecording(boolean backgroundRecording) {
+            this.backgroundRecording = backgroundRecording;
+            return this;
+        }
+
+        /**
+         * @param refreshThreads
+         *      Number of threads refreshing the stale recordings in the background
+         * @param refreshQueueCapacity
+         *      Maximum number of refreshes waiting for a thread, further refreshes are dropped
+         */
+        public Builder usingRefreshThreads(int refreshThreads, int refreshQueueCapacity) {
+            if (refreshThreads < 1 || refreshQueueCapacity < 1)
+                throw new IllegalArgumentException("Refresh threads and queue capacity should be positive.");
+            this.refreshThreads = refreshThreads;
+            this.refreshQueueCapacity = refreshQueueCapacity;
+            return this;
+        }
+
+        /**
+         * @param coalescingTimeoutInMillis
+         *      Time a call waits for the output of the scenario being computed by another call, see
+         *      {@link Vinyl#playbackOrCompute(Scenario, Supplier)}
+         */
+        public Builder usingCoalescingTimeout(long coalescingTimeoutInMillis) {
+            this.coalescingTimeoutInMillis = coalescingTimeoutInMillis;
+            return this;
+        }
+
         public Builder usingRecordingConfig(RecordingConfig config) {
             this.config = config;
             return this;
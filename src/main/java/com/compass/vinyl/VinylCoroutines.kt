@@ -0,0 +1,47 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
+import kotlin.coroutines.suspendCoroutine
+
+// Suspending counterparts of the asynchronous calls of Vinyl. The coroutine is suspended, without blocking its
+// thread, while the call runs on the I/O executor of Vinyl.
+
+/**
+ * Play back the scenario, see [Vinyl.playbackAsync].
+ */
+suspend fun Vinyl.awaitPlayback(scenario: Scenario): Scenario? = playbackAsync(scenario).await()
+
+/**
+ * Record the scenario, see [Vinyl.recordAsync]. To record without waiting, call [Vinyl.recordAsync] instead.
+ */
+suspend fun Vinyl.awaitRecord(scenario: Scenario) {
+    recordAsync(scenario).await()
+}
+
+/**
+ * Clear the scenario from the recorded data, see [Vinyl.clearScenarioAsync].
+ */
+suspend fun Vinyl.awaitClearScenario(scenario: Scenario) {
+    clearScenarioAsync(scenario).await()
+}
+
+/**
+ * Clear the scenarios matching the tags, see [Vinyl.clearAsync].
+ */
+suspend fun Vinyl.awaitClear(tags: List<String>) {
+    clearAsync(tags).await()
+}
+
+private suspend fun <T> CompletableFuture<T>.await(): T = suspendCoroutine { continuation ->
+    whenComplete { result, failure ->
+        if (failure == null)
+            continuation.resume(result)
+        else
+            continuation.resumeWithException((failure as? CompletionException)?.cause ?: failure)
+    }
+}
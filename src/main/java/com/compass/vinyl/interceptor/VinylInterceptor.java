@@ -1,7 +1,9 @@
 package com.compass.vinyl.interceptor;
 
 import com.compass.vinyl.Data;
+import com.compass.vinyl.Mode;
 import com.compass.vinyl.Scenario;
+import com.compass.vinyl.ScenarioMetadata;
 import com.compass.vinyl.Vinyl;
 import okhttp3.*;
 import okio.Buffer;
@@ -10,13 +12,40 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class VinylInterceptor {
 
     public static class OkHttpInterceptor implements Interceptor {
 
+        /**
+         * What is done with a response of the service, as per its status class.
+         */
+        public enum Admission {
+
+            /**
+             * The response is recorded, to be played back.
+             */
+            RECORD,
+
+            /**
+             * The response is remembered in memory for the negative time to live, and the calls in the
+             * meantime are answered with it without calling the service (in cache mode only, see
+             * {@link Vinyl#recordNegative(Scenario, long)}).
+             */
+            NEGATIVE,
+
+            /**
+             * The response is passed on without being kept.
+             */
+            PASS
+        }
+
         private static final String MEDIA_TYPE_JSON = "application/json; charset=utf-8";
 
         private static final String  REQUEST = "requestBody";
@@ -25,6 +54,10 @@ public class VinylInterceptor {
 
         private static final String  RESPONSE = "response";
 
+        private static final String  KNOWN_MISS = "knownMiss";
+
+        private static final long DEFAULT_NEGATIVE_TIME_TO_LIVE_MILLIS = 5_000;
+
         private final long THRESHOLD_5MB = 5 * 1024 * 1024L;
 
         private static final String COMPASS_RESPONSE_FILTER = "X-Compass-Response-Filter";
@@ -33,10 +66,25 @@ public class VinylInterceptor {
 
         private final Vinyl vinyl;
 
+        // Calls made by this interceptor to refresh the stale recordings, which go through to the service
+        private final Set<Call> refreshCalls = ConcurrentHashMap.newKeySet();
+
         private long recordLengthThreshold = THRESHOLD_5MB;
 
+        private Long softTimeToLiveInMillis;
+
+        private Long timeToLiveInMillis;
+
+        // Admission of the responses, indexed by status class
+        private final Admission[] admissions = new Admission[6];
+
+        private Admission failureAdmission = Admission.PASS;
+
+        private long negativeTimeToLiveInMillis = DEFAULT_NEGATIVE_TIME_TO_LIVE_MILLIS;
+
         public OkHttpInterceptor(Vinyl vinyl) {
             this.vinyl = vinyl;
+            Arrays.fill(admissions, Admission.RECORD);
         }
 
         @NotNull
@@ -44,6 +92,9 @@ public class VinylInterceptor {
         public Response intercept(@NotNull Chain chain) throws IOException {
 
             Request request = chain.request();
+            if (refreshCalls.contains(chain.call()))
+                return chain.proceed(request);
+
             String url = request.url().url().getFile();
             String method = request.method();
             Data input = new Data(REQUEST, extractBody(request));
@@ -55,19 +106,57 @@ public class VinylInterceptor {
             inputs.add(header);
             inputs.add(input);
             Scenario inputScenario = new Scenario(url, method, inputs);
-            Scenario recordedScenario = vinyl.playback(inputScenario);
+            inputScenario.setMetadata(metadata());
 
-            Response response;
-            if (recordedScenario == null) {
-                response = chain.proceed(request);
+            // a call known to miss is answered from memory
+            Scenario negativeScenario = vinyl.playbackNegative(inputScenario);
+            if (negativeScenario != null)
+                return knownMiss(request, negativeScenario);
 
-                String responseJSON = response.peekBody(recordLengthThreshold).string();
-                Data output = new Data(RESPONSE, responseJSON);
+            // concurrent calls missing the same scenario make a single call to the service, and a stale recording
+            // is refreshed by a call of its own, on a background thread
+            Response[] serviceResponse = new Response[1];
+            Scenario recordedScenario;
+            try {
+                recordedScenario = vinyl.playbackOrCompute(inputScenario, () -> {
+                    try {
+                        serviceResponse[0] = chain.proceed(request);
+                    } catch (IOException e) {
+                        if (failureAdmission == Admission.NEGATIVE)
+                            vinyl.recordNegative(inputScenario.withOutput(
+                                    new Data(KNOWN_MISS, new KnownMiss(e))), negativeTimeToLiveInMillis);
+                        throw new UncheckedIOException(e);
+                    }
+                    try {
+                        return admit(inputScenario, serviceResponse[0]);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, () -> {
+                    try {
+                        return refresh(chain.call());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
 
-                vinyl.record(new Scenario(url, method, inputs, output));
+            Response response;
+            if (serviceResponse[0] != null) {
+                response = serviceResponse[0];
+            }
+            else if (recordedScenario.getOutput() == null) {
+                if (vinyl.getMode() == Mode.CHAOS)
+                    throw new IOException("Call failed on purpose in chaos mode.");
+                // the call waited for another call whose response wasn't recorded
+                negativeScenario = vinyl.playbackNegative(inputScenario);
+                response = negativeScenario != null ? knownMiss(request, negativeScenario) : chain.proceed(request);
             }
             else {
-                String responseJSON = (String) recordedScenario.getOutput().getValue();
+                // the recorded response is passed on as is, without decoding it into a string
+                byte[] responseJSON = recordedScenario.getOutput().getStringValueBytes();
                 response = new Response.Builder()
                         .request(request)
                         .protocol(Protocol.HTTP_1_1)
@@ -79,6 +168,57 @@ public class VinylInterceptor {
             return response;
         }
 
+        /**
+         * @return
+         *      the response to record, null if it isn't recorded as per its status class
+         */
+        private Data admit(Scenario inputScenario, Response response) throws IOException {
+            Admission admission = admissionOf(response.code());
+            if (admission == Admission.RECORD)
+                return new Data(RESPONSE, response.peekBody(recordLengthThreshold).string());
+            if (admission == Admission.NEGATIVE)
+                vinyl.recordNegative(inputScenario.withOutput(new Data(KNOWN_MISS,
+                        new KnownMiss(response, recordLengthThreshold))), negativeTimeToLiveInMillis);
+            return null;
+        }
+
+        private Admission admissionOf(int code) {
+            int statusClass = code / 100;
+            return statusClass >= 1 && statusClass < admissions.length ? admissions[statusClass] : Admission.PASS;
+        }
+
+        /**
+         * A failed refresh keeps the stale recording, rather than remembering the failure in its place.
+         */
+        private Data refresh(Call call) throws IOException {
+            Call refreshCall = call.clone();
+            refreshCalls.add(refreshCall);
+            try (Response response = refreshCall.execute()) {
+                if (admissionOf(response.code()) != Admission.RECORD)
+                    return null;
+                return new Data(RESPONSE, response.peekBody(recordLengthThreshold).string());
+            } finally {
+                refreshCalls.remove(refreshCall);
+            }
+        }
+
+        private static Response knownMiss(Request request, Scenario negativeScenario) throws IOException {
+            Data output = negativeScenario.getOutput();
+            if (output == null || !(output.getValue() instanceof KnownMiss))
+                throw new IOException("Call known to fail.");
+            return ((KnownMiss) output.getValue()).toResponse(request);
+        }
+
+        private ScenarioMetadata metadata() {
+            if (timeToLiveInMillis == null)
+                return null;
+            long currentTime = System.currentTimeMillis();
+            ScenarioMetadata metadata = new ScenarioMetadata();
+            metadata.setSoftExpiryTimeInMillis(currentTime + softTimeToLiveInMillis);
+            metadata.setExpiryTimeInMillis(currentTime + timeToLiveInMillis);
+            return metadata;
+        }
+
         private String extractBody(Request request) {
             try {
                 Request copy = request.newBuilder().build();
@@ -95,8 +235,106 @@ public class VinylInterceptor {
             }
         }
 
+        /**
+         * Set what is done with the responses of a status class. All the responses are recorded by default.
+         *
+         * @param statusClass
+         *      First digit of the status codes, e.g. 5 for the server errors
+         * @param admission
+         *      What is done with the responses of the status class
+         */
+        public void setAdmission(int statusClass, Admission admission) {
+            if (statusClass < 1 || statusClass >= admissions.length)
+                throw new IllegalArgumentException("Status class should be between 1 and 5: " + statusClass);
+            admissions[statusClass] = admission;
+        }
+
+        /**
+         * Set what is done when the service can't be reached (the call fails with an {@link IOException}).
+         * Failures are passed on by default, and can't be recorded.
+         *
+         * @param failureAdmission
+         *      {@link Admission#NEGATIVE} to fail the calls in the meantime without calling the service, or
+         *      {@link Admission#PASS}
+         */
+        public void setFailureAdmission(Admission failureAdmission) {
+            if (failureAdmission == Admission.RECORD)
+                throw new IllegalArgumentException("Failures can't be recorded.");
+            this.failureAdmission = failureAdmission;
+        }
+
+        /**
+         * @param negativeTimeToLiveInMillis
+         *      Time for which the calls are answered with a response (or failure) admitted as
+         *      {@link Admission#NEGATIVE}, 5 seconds by default
+         */
+        public void setNegativeTimeToLive(long negativeTimeToLiveInMillis) {
+            this.negativeTimeToLiveInMillis = negativeTimeToLiveInMillis;
+        }
+
         public void setRecordLengthThreshold(long recordLengthThreshold) {
             this.recordLengthThreshold = recordLengthThreshold;
         }
+
+        /**
+         * Expire the recorded responses, for use in cache mode. A response older than the soft time to live is
+         * still served while it is refreshed in the background, one older than the time to live is not served.
+         *
+         * @param softTimeToLiveInMillis
+         *      Time after which a recorded response is stale
+         * @param timeToLiveInMillis
+         *      Time after which a recorded response expires, not less than the soft time to live
+         */
+        public void setTimeToLive(long softTimeToLiveInMillis, long timeToLiveInMillis) {
+            if (softTimeToLiveInMillis > timeToLiveInMillis)
+                throw new IllegalArgumentException("Soft time to live should not exceed the time to live.");
+            this.softTimeToLiveInMillis = softTimeToLiveInMillis;
+            this.timeToLiveInMillis = timeToLiveInMillis;
+        }
+
+        /**
+         * Response (or failure) of the service remembered in memory, answering the calls known to miss.
+         */
+        private static class KnownMiss {
+
+            private final int code;
+
+            private final String message;
+
+            private final MediaType contentType;
+
+            private final byte[] body;
+
+            private final String failure;
+
+            KnownMiss(Response response, long maxBodyLength) throws IOException {
+                ResponseBody peekedBody = response.peekBody(maxBodyLength);
+                this.code = response.code();
+                this.message = response.message();
+                this.contentType = peekedBody.contentType();
+                this.body = peekedBody.bytes();
+                this.failure = null;
+            }
+
+            KnownMiss(IOException failure) {
+                this.code = 0;
+                this.message = null;
+                this.contentType = null;
+                this.body = null;
+                this.failure = String.valueOf(failure.getMessage());
+            }
+
+            Response toResponse(Request request) throws IOException {
+                if (failure != null)
+                    throw new IOException("Call known to fail: " + failure);
+                return new Response.Builder()
+                        .request(request)
+                        .protocol(Protocol.HTTP_1_1)
+                        .code(code)
+                        .message(message)
+                        .body(ResponseBody.create(body, contentType))
+                        .build();
+            }
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,24 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.key;
+
+import com.compass.vinyl.Scenario;
+import com.compass.vinyl.serializer.Serializer;
+
+/**
+ * Strategy for deriving the unique id of a scenario from its source, method and inputs. The unique id is
+ * the key of the recording in the storage, hence changing the strategy of a recording path leaves the
+ * existing recordings unreachable.
+ */
+public interface KeyStrategy {
+
+    /**
+     * @param scenario
+     *      Scenario to be identified. The output and metadata of the scenario aren't part of the id.
+     * @param serializer
+     *      Serializer used for the inputs of the scenario
+     * @return
+     *      unique id of the scenario, usable as a file name
+     */
+    String uniqueId(Scenario scenario, Serializer serializer);
+}
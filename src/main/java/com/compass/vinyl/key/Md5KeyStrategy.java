@@ -0,0 +1,58 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.key;
+
+import com.compass.vinyl.Scenario;
+import com.compass.vinyl.serializer.Serializer;
+import com.compass.vinyl.utils.Utilities;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * MD5 of the serialized source, method and inputs of the scenario. This is how the unique ids have always
+ * been derived, and remains the default so the existing recordings keep being played back. The serialized
+ * scenario is streamed into the digest rather than built as a string.
+ */
+public class Md5KeyStrategy implements KeyStrategy {
+
+    private static final Md5KeyStrategy INSTANCE = new Md5KeyStrategy();
+
+    public static Md5KeyStrategy getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public String uniqueId(Scenario scenario, Serializer serializer) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 isn't supported by the platform.", e);
+        }
+
+        try (OutputStream out = new DigestOutputStream(NullOutputStream.INSTANCE, digest)) {
+            serializer.serialize(new Scenario(scenario.getSource(), scenario.getMethod(), scenario.getInputs()), out);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Scenario couldn't be serialized for its unique id.", e);
+        }
+        return Utilities.toHex(digest.digest());
+    }
+
+    private static class NullOutputStream extends OutputStream {
+
+        static final NullOutputStream INSTANCE = new NullOutputStream();
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
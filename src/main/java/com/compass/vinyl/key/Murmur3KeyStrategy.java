@@ -0,0 +1,184 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.key;
+
+import com.compass.vinyl.Scenario;
+import com.compass.vinyl.serializer.Serializer;
+import com.compass.vinyl.utils.Utilities;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 128 bit MurmurHash3 (x64 variant) of the source, method and serialized inputs of the scenario. The inputs
+ * are streamed into the hash as they are serialized. This is much cheaper than {@link Md5KeyStrategy}, but
+ * derives different ids, so it suits new recording paths (or ones recorded again).
+ */
+public class Murmur3KeyStrategy implements KeyStrategy {
+
+    private static final Murmur3KeyStrategy INSTANCE = new Murmur3KeyStrategy();
+
+    public static Murmur3KeyStrategy getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public String uniqueId(Scenario scenario, Serializer serializer) {
+        Murmur3OutputStream hash = new Murmur3OutputStream();
+        try {
+            writeString(hash, scenario.getSource());
+            writeString(hash, scenario.getMethod());
+            serializer.serialize(scenario.getInputs(), hash);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Scenario couldn't be serialized for its unique id.", e);
+        }
+        return hash.toHex();
+    }
+
+    /**
+     * Length prefixed, so that the boundary between source and method is part of the hash.
+     */
+    private static void writeString(Murmur3OutputStream out, String value) {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Incremental MurmurHash3_x64_128 with seed 0 over the bytes written.
+     */
+    static class Murmur3OutputStream extends OutputStream {
+
+        private static final long C1 = 0x87c37b91114253d5L;
+
+        private static final long C2 = 0x4cf5ad432745937fL;
+
+        private final byte[] block = new byte[16];
+
+        private int blockLength;
+
+        private long length;
+
+        private long h1;
+
+        private long h2;
+
+        @Override
+        public void write(int b) {
+            block[blockLength++] = (byte) b;
+            length++;
+            if (blockLength == block.length) {
+                mix(getLong(block, 0), getLong(block, 8));
+                blockLength = 0;
+            }
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int count) {
+            int end = offset + count;
+            length += count;
+
+            if (blockLength > 0) {
+                int fill = Math.min(block.length - blockLength, count);
+                System.arraycopy(bytes, offset, block, blockLength, fill);
+                blockLength += fill;
+                offset += fill;
+                if (blockLength < block.length)
+                    return;
+                mix(getLong(block, 0), getLong(block, 8));
+                blockLength = 0;
+            }
+
+            for (; end - offset >= 16; offset += 16)
+                mix(getLong(bytes, offset), getLong(bytes, offset + 8));
+
+            blockLength = end - offset;
+            System.arraycopy(bytes, offset, block, 0, blockLength);
+        }
+
+        void writeInt(int value) {
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+
+        private void mix(long k1, long k2) {
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        /**
+         * @return hash of the bytes written so far, as 32 hex characters
+         */
+        String toHex() {
+            long k1 = 0;
+            long k2 = 0;
+            for (int i = blockLength - 1; i >= 8; i--)
+                k2 = (k2 << 8) | (block[i] & 0xffL);
+            for (int i = Math.min(blockLength, 8) - 1; i >= 0; i--)
+                k1 = (k1 << 8) | (block[i] & 0xffL);
+
+            // mixing the zero padding of a partial block is a no-op
+            long r1 = h1 ^ mixK1(k1);
+            long r2 = h2 ^ mixK2(k2);
+
+            r1 ^= length;
+            r2 ^= length;
+            r1 += r2;
+            r2 += r1;
+            r1 = fmix(r1);
+            r2 = fmix(r2);
+            r1 += r2;
+            r2 += r1;
+
+            byte[] hash = new byte[16];
+            for (int i = 0; i < 8; i++) {
+                hash[i] = (byte) (r1 >>> (56 - 8 * i));
+                hash[8 + i] = (byte) (r2 >>> (56 - 8 * i));
+            }
+            return Utilities.toHex(hash);
+        }
+
+        private static long mixK1(long k1) {
+            k1 *= C1;
+            k1 = Long.rotateLeft(k1, 31);
+            return k1 * C2;
+        }
+
+        private static long mixK2(long k2) {
+            k2 *= C2;
+            k2 = Long.rotateLeft(k2, 33);
+            return k2 * C1;
+        }
+
+        private static long fmix(long k) {
+            k ^= k >>> 33;
+            k *= 0xff51afd7ed558ccdL;
+            k ^= k >>> 33;
+            k *= 0xc4ceb9fe1a85ec53L;
+            k ^= k >>> 33;
+            return k;
+        }
+
+        private static long getLong(byte[] bytes, int offset) {
+            long value = 0;
+            for (int i = offset + 7; i >= offset; i--)
+                value = (value << 8) | (bytes[i] & 0xffL);
+            return value;
+        }
+    }
+}
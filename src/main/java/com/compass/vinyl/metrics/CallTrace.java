@@ -0,0 +1,234 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.metrics;
+
+import java.util.Locale;
+
+/**
+ * Breakdown of the time taken by a call made through Vinyl, when a {@link VinylProfiler} is configured. The
+ * trace of the call in progress is held by the calling thread, so the players time their stages through
+ * {@link #current()} without it being passed around:
+ * <pre>
+ *     CallTrace trace = CallTrace.current();
+ *     long time = trace.start();
+ *     byte[] serializedData = read(path);
+ *     time = trace.lap(CallTrace.Stage.IO, time);
+ * </pre>
+ * Without a call being traced, the current trace is a disabled one which doesn't read the clock. Work done on
+ * other threads (such as the parallel reads of a batch playback) isn't attributed to the call, and the time
+ * not attributed to any stage is accounted as {@link Stage#OTHER}.
+ */
+public final class CallTrace {
+
+    private static final Operation[] OPERATIONS = Operation.values();
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private static final CallTrace DISABLED = new CallTrace(null, null, null, null, false);
+
+    private static final ThreadLocal<CallTrace> CURRENT = new ThreadLocal<>();
+
+    /**
+     * Call being traced.
+     */
+    public enum Operation {
+        PLAYBACK,
+        RECORD,
+        DELETE_BY_TAGS
+    }
+
+    /**
+     * Stage of a call.
+     */
+    public enum Stage {
+
+        /**
+         * Identification of the scenario, see {@link com.compass.vinyl.Scenario#getUniqueId}.
+         */
+        KEY,
+
+        /**
+         * Serialization of the scenario. A scenario serialized straight into a file includes the writes.
+         */
+        SERIALIZE,
+
+        /**
+         * Reads and writes of the storage.
+         */
+        IO,
+
+        /**
+         * Deserialization of the recorded scenario.
+         */
+        DESERIALIZE,
+
+        /**
+         * Check of the expiry of the recorded scenario.
+         */
+        EXPIRY,
+
+        /**
+         * Rest of the call, not attributed to any of the stages.
+         */
+        OTHER
+    }
+
+    private final Operation operation;
+
+    private final String source;
+
+    private final String method;
+
+    private final CallTrace parent;
+
+    private final boolean enabled;
+
+    private final long[] stageDurations = new long[STAGES.length];
+
+    // Stages timed during the call, as a bit per stage
+    private int stagesTimed;
+
+    private final long startTime;
+
+    private long durationInNanos;
+
+    private CallTrace(Operation operation, String source, String method, CallTrace parent, boolean enabled) {
+        this.operation = operation;
+        this.source = source;
+        this.method = method;
+        this.parent = parent;
+        this.enabled = enabled;
+        this.startTime = enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * @return
+     *      trace of the call in progress on this thread, a disabled trace if the call isn't traced
+     */
+    public static CallTrace current() {
+        CallTrace trace = CURRENT.get();
+        return trace == null ? DISABLED : trace;
+    }
+
+    /**
+     * Start tracing a call on this thread, until {@link #end()}. A call made within the call is traced on
+     * its own.
+     *
+     * @param operation
+     *      Call being traced
+     * @param source
+     *      Source of the scenario, null if the call isn't about a scenario
+     * @param method
+     *      Method of the scenario, null if the call isn't about a scenario
+     */
+    public static CallTrace begin(Operation operation, String source, String method) {
+        CallTrace trace = new CallTrace(operation, source, method, CURRENT.get(), true);
+        CURRENT.set(trace);
+        return trace;
+    }
+
+    /**
+     * Stop tracing the call, resuming the call it was made within.
+     */
+    public void end() {
+        if (!enabled)
+            return;
+        durationInNanos = System.nanoTime() - startTime;
+        long attributed = 0;
+        for (long stageDuration : stageDurations)
+            attributed += stageDuration;
+        stageDurations[Stage.OTHER.ordinal()] += Math.max(0, durationInNanos - attributed);
+        stagesTimed |= 1 << Stage.OTHER.ordinal();
+
+        if (parent == null)
+            CURRENT.remove();
+        else
+            CURRENT.set(parent);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return
+     *      time to start a stage from, 0 if the trace is disabled
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Account the time since the given time to the stage.
+     *
+     * @param stage
+     *      Stage that just completed
+     * @param since
+     *      Time the stage started, as returned by {@link #start()} or by the previous lap
+     * @return
+     *      time the next stage starts from
+     */
+    public long lap(Stage stage, long since) {
+        if (!enabled)
+            return since;
+        long now = System.nanoTime();
+        stageDurations[stage.ordinal()] += now - since;
+        stagesTimed |= 1 << stage.ordinal();
+        return now;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * @return
+     *      duration of the whole call, known once it has ended
+     */
+    public long getDurationInNanos() {
+        return durationInNanos;
+    }
+
+    public long getStageDurationInNanos(Stage stage) {
+        return stageDurations[stage.ordinal()];
+    }
+
+    /**
+     * @return
+     *      whether the stage took place during the call
+     */
+    public boolean isTimed(Stage stage) {
+        return (stagesTimed & (1 << stage.ordinal())) != 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(128)
+                .append(operation.name().toLowerCase(Locale.ROOT));
+        if (source != null)
+            builder.append(" source=").append(source).append(" method=").append(method);
+        builder.append(" total=").append(durationInNanos / 1000).append("us");
+        for (Stage stage : STAGES) {
+            if (isTimed(stage))
+                builder.append(' ').append(stage.name().toLowerCase(Locale.ROOT)).append('=')
+                        .append(stageDurations[stage.ordinal()] / 1000).append("us");
+        }
+        return builder.toString();
+    }
+
+    static Operation[] operations() {
+        return OPERATIONS;
+    }
+
+    static Stage[] stages() {
+        return STAGES;
+    }
+}
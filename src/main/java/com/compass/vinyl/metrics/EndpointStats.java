@@ -0,0 +1,161 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts and latencies of the calls for an endpoint (source and method). Counters are {@link LongAdder}s, so
+ * threads recording at once don't contend.
+ */
+public class EndpointStats implements EndpointStatsMXBean {
+
+    private final String source;
+
+    private final String method;
+
+    private final LongAdder[] outcomes = new LongAdder[VinylMetrics.Outcome.values().length];
+
+    private final LongAdder recordFailures = new LongAdder();
+
+    private final LatencyHistogram playbackLatency = new LatencyHistogram();
+
+    private final LatencyHistogram recordLatency = new LatencyHistogram();
+
+    private final LatencyHistogram computeLatency = new LatencyHistogram();
+
+    EndpointStats(String source, String method) {
+        this.source = source;
+        this.method = method;
+        for (int i = 0; i < outcomes.length; i++)
+            outcomes[i] = new LongAdder();
+    }
+
+    void recordPlayback(VinylMetrics.Outcome outcome, long durationInNanos) {
+        outcomes[outcome.ordinal()].increment();
+        if (outcome != VinylMetrics.Outcome.CHAOS)
+            playbackLatency.record(durationInNanos);
+    }
+
+    void recordRecord(boolean recorded, long durationInNanos) {
+        if (!recorded)
+            recordFailures.increment();
+        recordLatency.record(durationInNanos);
+    }
+
+    void recordCompute(long durationInNanos) {
+        computeLatency.record(durationInNanos);
+    }
+
+    public long getCount(VinylMetrics.Outcome outcome) {
+        return outcomes[outcome.ordinal()].sum();
+    }
+
+    public LatencyHistogram getPlaybackLatency() {
+        return playbackLatency;
+    }
+
+    public LatencyHistogram getRecordLatency() {
+        return recordLatency;
+    }
+
+    public LatencyHistogram getComputeLatency() {
+        return computeLatency;
+    }
+
+    @Override
+    public String getSource() {
+        return source;
+    }
+
+    @Override
+    public String getMethod() {
+        return method;
+    }
+
+    @Override
+    public long getHits() {
+        return getCount(VinylMetrics.Outcome.HIT);
+    }
+
+    @Override
+    public long getStaleHits() {
+        return getCount(VinylMetrics.Outcome.STALE);
+    }
+
+    @Override
+    public long getMisses() {
+        return getCount(VinylMetrics.Outcome.MISS);
+    }
+
+    @Override
+    public long getExpirations() {
+        return getCount(VinylMetrics.Outcome.EXPIRED);
+    }
+
+    @Override
+    public long getChaosFailures() {
+        return getCount(VinylMetrics.Outcome.CHAOS);
+    }
+
+    @Override
+    public long getNegativeHits() {
+        return getCount(VinylMetrics.Outcome.NEGATIVE);
+    }
+
+    @Override
+    public long getRecordings() {
+        return recordLatency.getCount();
+    }
+
+    @Override
+    public long getRecordFailures() {
+        return recordFailures.sum();
+    }
+
+    /**
+     * @return share of the playbacks (other than the chaos failures and the known misses) that played back a
+     *      recording, stale or not, 0 when there were none
+     */
+    @Override
+    public double getHitRatio() {
+        long hits = getHits() + getStaleHits();
+        long total = hits + getMisses() + getExpirations();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public long getPlaybackP50Micros() {
+        return micros(playbackLatency.getPercentileInNanos(50));
+    }
+
+    @Override
+    public long getPlaybackP99Micros() {
+        return micros(playbackLatency.getPercentileInNanos(99));
+    }
+
+    @Override
+    public long getPlaybackMaxMicros() {
+        return micros(playbackLatency.getMaxInNanos());
+    }
+
+    @Override
+    public long getRecordP99Micros() {
+        return micros(recordLatency.getPercentileInNanos(99));
+    }
+
+    @Override
+    public long getComputeP50Micros() {
+        return micros(computeLatency.getPercentileInNanos(50));
+    }
+
+    @Override
+    public long getComputeP99Micros() {
+        return micros(computeLatency.getPercentileInNanos(99));
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,44 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.metrics;
+
+/**
+ * Statistics of an endpoint (source and method) as exposed over JMX, see {@link JmxExporter}. Latencies are
+ * in microseconds.
+ */
+public interface EndpointStatsMXBean {
+
+    String getSource();
+
+    String getMethod();
+
+    long getHits();
+
+    long getStaleHits();
+
+    long getMisses();
+
+    long getExpirations();
+
+    long getChaosFailures();
+
+    long getNegativeHits();
+
+    long getRecordings();
+
+    long getRecordFailures();
+
+    double getHitRatio();
+
+    long getPlaybackP50Micros();
+
+    long getPlaybackP99Micros();
+
+    long getPlaybackMaxMicros();
+
+    long getRecordP99Micros();
+
+    long getComputeP50Micros();
+
+    long getComputeP99Micros();
+}
@@ -0,0 +1,91 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Exposes the statistics of each endpoint as an MXBean named
+ * {@code com.compass.vinyl:type=Endpoint,name=<name>,source=<source>,method=<method>}. Endpoints are
+ * registered as the first call for them is made, and unregistered on close.
+ */
+public class JmxExporter implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VinylMetrics.class);
+
+    private static final String DOMAIN = "com.compass.vinyl";
+
+    private final VinylStats stats;
+
+    private final MBeanServer server;
+
+    private final String name;
+
+    private final List<ObjectName> registered = new CopyOnWriteArrayList<>();
+
+    private final Consumer<EndpointStats> listener = this::register;
+
+    public JmxExporter(VinylStats stats) {
+        this(stats, ManagementFactory.getPlatformMBeanServer(), "default");
+    }
+
+    /**
+     * @param stats
+     *      Statistics to expose
+     * @param server
+     *      Server the MXBeans are registered with
+     * @param name
+     *      Name telling apart the Vinyl instances of the process
+     */
+    public JmxExporter(VinylStats stats, MBeanServer server, String name) {
+        this.stats = stats;
+        this.server = server;
+        this.name = name;
+        stats.addListener(listener);
+    }
+
+    /**
+     * @return name of the MXBean of the endpoint
+     */
+    public ObjectName objectNameOf(String source, String method) throws JMException {
+        return new ObjectName(DOMAIN + ":type=Endpoint,name=" + ObjectName.quote(name)
+                + ",source=" + ObjectName.quote(String.valueOf(source))
+                + ",method=" + ObjectName.quote(String.valueOf(method)));
+    }
+
+    private void register(EndpointStats endpoint) {
+        try {
+            ObjectName objectName = objectNameOf(endpoint.getSource(), endpoint.getMethod());
+            server.registerMBean(endpoint, objectName);
+            registered.add(objectName);
+        } catch (InstanceAlreadyExistsException e) {
+            // registered while the listener was being added
+        } catch (JMException e) {
+            LOG.warn("Statistics of the endpoint couldn't be registered. Source=" + endpoint.getSource()
+                    + ", method=" + endpoint.getMethod(), e);
+        }
+    }
+
+    @Override
+    public void close() {
+        stats.removeListener(listener);
+        for (ObjectName objectName : registered) {
+            try {
+                server.unregisterMBean(objectName);
+            } catch (JMException e) {
+                LOG.warn("Statistics of the endpoint couldn't be unregistered. Name=" + objectName, e);
+            }
+        }
+        registered.clear();
+    }
+}
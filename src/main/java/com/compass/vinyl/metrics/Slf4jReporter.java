@@ -0,0 +1,72 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logs a summary of the statistics of each endpoint periodically, at info level through the logger of
+ * {@link VinylMetrics}. The counts are totals since the statistics were created.
+ */
+public class Slf4jReporter implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VinylMetrics.class);
+
+    private final VinylStats stats;
+
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * @param stats
+     *      Statistics to report
+     * @param periodInMillis
+     *      Time between the reports
+     */
+    public Slf4jReporter(VinylStats stats, long periodInMillis) {
+        if (periodInMillis < 1)
+            throw new IllegalArgumentException("Period should be positive: " + periodInMillis);
+        this.stats = stats;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "vinyl-metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::report, periodInMillis, periodInMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Log the summary now.
+     */
+    public void report() {
+        if (!LOG.isInfoEnabled())
+            return;
+        for (EndpointStats endpoint : stats.getEndpoints())
+            LOG.info(summaryOf(endpoint));
+    }
+
+    static String summaryOf(EndpointStats endpoint) {
+        return String.format(Locale.ROOT, "Vinyl source=%s method=%s hits=%d stale=%d misses=%d expired=%d "
+                        + "negative=%d chaos=%d hitRatio=%.3f playback(p50/p99/max)=%d/%d/%dus "
+                        + "compute(p50/p99)=%d/%dus recordings=%d recordFailures=%d recordP99=%dus",
+                endpoint.getSource(), endpoint.getMethod(), endpoint.getHits(), endpoint.getStaleHits(),
+                endpoint.getMisses(), endpoint.getExpirations(), endpoint.getNegativeHits(),
+                endpoint.getChaosFailures(), endpoint.getHitRatio(), endpoint.getPlaybackP50Micros(),
+                endpoint.getPlaybackP99Micros(), endpoint.getPlaybackMaxMicros(), endpoint.getComputeP50Micros(),
+                endpoint.getComputeP99Micros(), endpoint.getRecordings(), endpoint.getRecordFailures(),
+                endpoint.getRecordP99Micros());
+    }
+
+    /**
+     * Stop the periodic reports.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+    }
+}
@@ -0,0 +1,70 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.metrics;
+
+/**
+ * Listener of the calls made through Vinyl, given to {@link com.compass.vinyl.Vinyl.Builder#usingMetrics}.
+ * The listener is called on the thread of each call, so it should only record the call, such as in the
+ * counters and histograms of {@link VinylStats}. Durations are in nanoseconds, of the calls to the player
+ * (or of the computation of an output).
+ */
+public interface VinylMetrics {
+
+    /**
+     * Listener ignoring all the calls, used when no metrics are configured.
+     */
+    VinylMetrics NONE = new VinylMetrics() {};
+
+    /**
+     * Outcome of the playback of a scenario.
+     */
+    enum Outcome {
+
+        /**
+         * Recorded scenario was played back.
+         */
+        HIT,
+
+        /**
+         * Stale recorded scenario was played back, to be refreshed (see
+         * {@link com.compass.vinyl.ScenarioMetadata#isStale(long)}).
+         */
+        STALE,
+
+        /**
+         * Scenario isn't recorded.
+         */
+        MISS,
+
+        /**
+         * Recorded scenario had expired in cache mode, whether found by Vinyl or rejected by the player itself
+         * (see {@link com.compass.vinyl.player.RecordPlayer#playbackIfNotExpired}).
+         */
+        EXPIRED,
+
+        /**
+         * Playback was failed on purpose in chaos mode.
+         */
+        CHAOS,
+
+        /**
+         * Scenario known to miss was answered from memory, see
+         * {@link com.compass.vinyl.Vinyl#playbackNegative(com.compass.vinyl.Scenario)}.
+         */
+        NEGATIVE
+    }
+
+    default void onPlayback(String source, String method, Outcome outcome, long durationInNanos) {
+    }
+
+    default void onRecord(String source, String method, boolean recorded, long durationInNanos) {
+    }
+
+    /**
+     * Called once the output of a scenario that missed is computed, see
+     * {@link com.compass.vinyl.Vinyl#playbackOrCompute}. Comparing it to the duration of the playbacks tells
+     * how much the recordings save.
+     */
+    default void onCompute(String source, String method, long durationInNanos) {
+    }
+}
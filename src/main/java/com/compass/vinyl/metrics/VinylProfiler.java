@@ -0,0 +1,138 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Profile of the calls made through Vinyl, broken down into their stages, given to
+ * {@link com.compass.vinyl.Vinyl.Builder#usingProfiler}. Each stage of each kind of call (see
+ * {@link CallTrace}) is aggregated into a {@link LatencyHistogram}, across all the endpoints.
+ *
+ * Calls slower than a threshold can also be logged with their breakdown, at warn level through the logger of
+ * {@link VinylMetrics}, sampling one in a given number of them to bound the logging.
+ */
+public class VinylProfiler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VinylMetrics.class);
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[CallTrace.operations().length];
+
+    private final LatencyHistogram[][] stageLatencies =
+            new LatencyHistogram[CallTrace.operations().length][CallTrace.stages().length];
+
+    private final long slowCallThresholdInNanos;
+
+    private final int slowCallSampling;
+
+    private final AtomicLong slowCalls = new AtomicLong();
+
+    /**
+     * Profile without logging the slow calls.
+     */
+    public VinylProfiler() {
+        this(Long.MAX_VALUE, 1);
+    }
+
+    /**
+     * @param slowCallThresholdInMillis
+     *      Duration from which a call is logged
+     * @param slowCallSampling
+     *      Log one in this many slow calls
+     */
+    public VinylProfiler(long slowCallThresholdInMillis, int slowCallSampling) {
+        if (slowCallThresholdInMillis < 0 || slowCallSampling < 1)
+            throw new IllegalArgumentException("Slow call threshold and sampling should be positive.");
+        this.slowCallThresholdInNanos = slowCallThresholdInMillis == Long.MAX_VALUE
+                ? Long.MAX_VALUE : slowCallThresholdInMillis * 1_000_000;
+        this.slowCallSampling = slowCallSampling;
+        for (CallTrace.Operation operation : CallTrace.operations()) {
+            latencies[operation.ordinal()] = new LatencyHistogram();
+            for (CallTrace.Stage stage : CallTrace.stages())
+                stageLatencies[operation.ordinal()][stage.ordinal()] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Aggregate a call that has ended. Called by Vinyl on the thread of the call.
+     *
+     * @param trace
+     *      Breakdown of the call
+     */
+    public void onCall(CallTrace trace) {
+        int operation = trace.getOperation().ordinal();
+        latencies[operation].record(trace.getDurationInNanos());
+        for (CallTrace.Stage stage : CallTrace.stages()) {
+            if (trace.isTimed(stage))
+                stageLatencies[operation][stage.ordinal()].record(trace.getStageDurationInNanos(stage));
+        }
+
+        if (trace.getDurationInNanos() >= slowCallThresholdInNanos) {
+            if ((slowCalls.incrementAndGet() - 1) % slowCallSampling == 0 && LOG.isWarnEnabled())
+                LOG.warn("Slow Vinyl call: " + trace);
+        }
+    }
+
+    /**
+     * @return
+     *      latencies of the whole calls
+     */
+    public LatencyHistogram getLatency(CallTrace.Operation operation) {
+        return latencies[operation.ordinal()];
+    }
+
+    /**
+     * @return
+     *      latencies of the stage, in the calls the stage took place in
+     */
+    public LatencyHistogram getStageLatency(CallTrace.Operation operation, CallTrace.Stage stage) {
+        return stageLatencies[operation.ordinal()][stage.ordinal()];
+    }
+
+    /**
+     * @return
+     *      number of calls slower than the threshold, logged or not
+     */
+    public long getSlowCalls() {
+        return slowCalls.get();
+    }
+
+    /**
+     * Log the percentiles of the calls and of their stages, at info level.
+     */
+    public void report() {
+        if (!LOG.isInfoEnabled())
+            return;
+        for (CallTrace.Operation operation : CallTrace.operations()) {
+            if (getLatency(operation).getCount() > 0)
+                LOG.info(summaryOf(operation));
+        }
+    }
+
+    /**
+     * @return
+     *      the p50/p99/p999 of the calls and of each of their stages, in microseconds
+     */
+    public String summaryOf(CallTrace.Operation operation) {
+        StringBuilder builder = new StringBuilder(256)
+                .append("Vinyl ").append(operation.name().toLowerCase(Locale.ROOT))
+                .append(" calls=").append(getLatency(operation).getCount())
+                .append(" total=").append(percentiles(getLatency(operation)));
+        for (CallTrace.Stage stage : CallTrace.stages()) {
+            LatencyHistogram stageLatency = getStageLatency(operation, stage);
+            if (stageLatency.getCount() > 0)
+                builder.append(' ').append(stage.name().toLowerCase(Locale.ROOT)).append('=')
+                        .append(percentiles(stageLatency));
+        }
+        return builder.append(" (p50/p99/p999 in us)").toString();
+    }
+
+    private static String percentiles(LatencyHistogram histogram) {
+        return histogram.getPercentileInNanos(50) / 1000 + "/" + histogram.getPercentileInNanos(99) / 1000
+                + "/" + histogram.getPercentileInNanos(99.9) / 1000;
+    }
+}
@@ -0,0 +1,117 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Metrics kept in memory, as the {@link EndpointStats} of each source and method. The statistics can be read
+ * directly, or exported with {@link JmxExporter} and {@link Slf4jReporter}.
+ *
+ * The number of endpoints is bounded, the calls for the endpoints beyond the bound are counted together
+ * under the {@link #OTHER} source and method. This keeps the memory in check when the sources are
+ * unbounded, such as URLs with ids in their path.
+ */
+public class VinylStats implements VinylMetrics {
+
+    public static final String OTHER = "*";
+
+    private static final int DEFAULT_MAX_ENDPOINTS = 1_000;
+
+    private final int maxEndpoints;
+
+    // Keyed by source and method
+    private final Map<String, EndpointStats> endpoints = new ConcurrentHashMap<>();
+
+    private final List<Consumer<EndpointStats>> listeners = new CopyOnWriteArrayList<>();
+
+    public VinylStats() {
+        this(DEFAULT_MAX_ENDPOINTS);
+    }
+
+    /**
+     * @param maxEndpoints
+     *      Maximum number of endpoints with statistics of their own
+     */
+    public VinylStats(int maxEndpoints) {
+        if (maxEndpoints < 1)
+            throw new IllegalArgumentException("Maximum endpoints should be positive: " + maxEndpoints);
+        this.maxEndpoints = maxEndpoints;
+    }
+
+    @Override
+    public void onPlayback(String source, String method, Outcome outcome, long durationInNanos) {
+        endpoint(source, method).recordPlayback(outcome, durationInNanos);
+    }
+
+    @Override
+    public void onRecord(String source, String method, boolean recorded, long durationInNanos) {
+        endpoint(source, method).recordRecord(recorded, durationInNanos);
+    }
+
+    @Override
+    public void onCompute(String source, String method, long durationInNanos) {
+        endpoint(source, method).recordCompute(durationInNanos);
+    }
+
+    /**
+     * @return statistics of the endpoint, null if there were no calls for it
+     */
+    public EndpointStats getEndpoint(String source, String method) {
+        return endpoints.get(keyOf(source, method));
+    }
+
+    public Collection<EndpointStats> getEndpoints() {
+        return new ArrayList<>(endpoints.values());
+    }
+
+    /**
+     * @param listener
+     *      Called with the statistics of each endpoint, the existing ones first and then each new one as the
+     *      first call for it is made
+     */
+    public void addListener(Consumer<EndpointStats> listener) {
+        listeners.add(listener);
+        for (EndpointStats endpoint : endpoints.values())
+            listener.accept(endpoint);
+    }
+
+    public void removeListener(Consumer<EndpointStats> listener) {
+        listeners.remove(listener);
+    }
+
+    private EndpointStats endpoint(String source, String method) {
+        String key = keyOf(source, method);
+        EndpointStats endpoint = endpoints.get(key);
+        if (endpoint != null)
+            return endpoint;
+
+        if (endpoints.size() >= maxEndpoints) {
+            source = OTHER;
+            method = OTHER;
+            key = keyOf(source, method);
+        }
+        boolean[] created = new boolean[1];
+        String endpointSource = source;
+        String endpointMethod = method;
+        endpoint = endpoints.computeIfAbsent(key, k -> {
+            created[0] = true;
+            return new EndpointStats(endpointSource, endpointMethod);
+        });
+        if (created[0]) {
+            for (Consumer<EndpointStats> listener : listeners)
+                listener.accept(endpoint);
+        }
+        return endpoint;
+    }
+
+    private static String keyOf(String source, String method) {
+        return source + '\0' + method;
+    }
+}
@@ -0,0 +1,356 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.player;
+
+import com.compass.vinyl.RecordingConfig;
+import com.compass.vinyl.Scenario;
+import com.compass.vinyl.utils.BloomFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * This record player keeps a Bloom filter of the unique ids recorded through it, so a playback of a scenario
+ * that was never recorded returns without reaching the underlying player (and its storage).
+ *
+ * The filter of a recording path is read from a snapshot stored alongside the recordings, or rebuilt from the
+ * recordings of the underlying player when there's no snapshot (see
+ * {@link RecordPlayer#forEachUniqueId(RecordingConfig, Consumer)}). The snapshot is removed once read and
+ * written again on close, so a process that didn't close the player leaves the filter to be rebuilt. When
+ * the underlying player can't enumerate its recordings, playbacks are passed through.
+ *
+ * All the recordings of a recording path are expected to be made through this player while it is open,
+ * a scenario recorded by another process isn't played back until the filter is rebuilt. A Bloom filter can't
+ * remove a deleted scenario, so the filter is rebuilt by the delete that makes deleted scenarios outnumber
+ * the others.
+ */
+public class BloomFilterRecordPlayer implements RecordPlayer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RecordPlayer.class);
+
+    private static final String SNAPSHOT_FILE = ".vinyl-bloom";
+
+    private static final int SNAPSHOT_FORMAT = 1;
+
+    private static final long DEFAULT_EXPECTED_INSERTIONS = 100_000;
+
+    private static final double DEFAULT_FALSE_POSITIVE_PROBABILITY = 0.01;
+
+    private final RecordPlayer player;
+
+    private final long expectedInsertions;
+
+    private final double falsePositiveProbability;
+
+    private final Map<String, Filter> filters = new ConcurrentHashMap<>();
+
+    // Held by the recordings, so a rebuild waits for the ones adding to the filter being replaced
+    private final ReadWriteLock recordingLock = new ReentrantReadWriteLock();
+
+    public BloomFilterRecordPlayer(RecordPlayer player) {
+        this(player, DEFAULT_EXPECTED_INSERTIONS, DEFAULT_FALSE_POSITIVE_PROBABILITY);
+    }
+
+    /**
+     * @param player
+     *      Player the calls are passed on to
+     * @param expectedInsertions
+     *      Number of scenarios a filter is initially sized for, filters grow beyond this as needed
+     * @param falsePositiveProbability
+     *      Probability of passing on the playback of a scenario that was never recorded
+     */
+    public BloomFilterRecordPlayer(RecordPlayer player, long expectedInsertions, double falsePositiveProbability) {
+        if (expectedInsertions < 1 || falsePositiveProbability <= 0 || falsePositiveProbability >= 1)
+            throw new IllegalArgumentException("Expected insertions should be positive and false positive "
+                    + "probability in (0, 1).");
+        this.player = player;
+        this.expectedInsertions = expectedInsertions;
+        this.falsePositiveProbability = falsePositiveProbability;
+    }
+
+    @Override
+    public boolean record(Scenario scenario, RecordingConfig config) {
+        recordingLock.readLock().lock();
+        try {
+            // added before recording, so the scenario can be played back as soon as it is recorded
+            getFilter(config).put(scenario.getUniqueId(config));
+            return player.record(scenario, config);
+        } finally {
+            recordingLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean recordAll(Collection<Scenario> scenarios, RecordingConfig config) {
+        recordingLock.readLock().lock();
+        try {
+            Filter filter = getFilter(config);
+            for (Scenario scenario : scenarios)
+                filter.put(scenario.getUniqueId(config));
+            return player.recordAll(scenarios, config);
+        } finally {
+            recordingLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Scenario playback(Scenario scenario, RecordingConfig config) {
+        if (!getFilter(config).mightContain(scenario.getUniqueId(config)))
+            return null;
+        return player.playback(scenario, config);
+    }
+
+    @Override
+    public Scenario playbackIfNotExpired(Scenario scenario, RecordingConfig config, long currentTimeInMillis,
+                                         Runnable onExpired) {
+        if (!getFilter(config).mightContain(scenario.getUniqueId(config)))
+            return null;
+        return player.playbackIfNotExpired(scenario, config, currentTimeInMillis, onExpired);
+    }
+
+    @Override
+    public List<Scenario> playbackAll(Collection<Scenario> scenarios, RecordingConfig config) {
+        Filter filter = getFilter(config);
+        List<Scenario> recordedScenarios = new ArrayList<>(scenarios.size());
+        List<Integer> candidates = new ArrayList<>();
+        List<Scenario> toPlayback = new ArrayList<>();
+        for (Scenario scenario : scenarios) {
+            if (filter.mightContain(scenario.getUniqueId(config))) {
+                candidates.add(recordedScenarios.size());
+                toPlayback.add(scenario);
+            }
+            recordedScenarios.add(null);
+        }
+
+        if (!toPlayback.isEmpty()) {
+            List<Scenario> playedBack = player.playbackAll(toPlayback, config);
+            for (int i = 0; i < candidates.size(); i++)
+                recordedScenarios.set(candidates.get(i), playedBack.get(i));
+        }
+        return recordedScenarios;
+    }
+
+    @Override
+    public void delete(Scenario scenario, RecordingConfig config) {
+        Filter filter = getFilter(config);
+        player.delete(scenario, config);
+        if (filter.deletes.incrementAndGet() * 2 > filter.insertions.get())
+            replace(filter, config);
+    }
+
+    @Override
+    public void deleteByTags(List<String> tags, RecordingConfig config) {
+        player.deleteByTags(tags, config);
+    }
+
+    @Override
+    public void forEachUniqueId(RecordingConfig config, Consumer<String> action) {
+        player.forEachUniqueId(config, action);
+    }
+
+    /**
+     * Store the snapshots of the filters and close the underlying player.
+     */
+    @Override
+    public void close() {
+        synchronized (filters) {
+            for (Map.Entry<String, Filter> entry : filters.entrySet()) {
+                Filter filter = entry.getValue();
+                if (filter.blooms.isEmpty() || filter.deletes.get() * 2 > filter.insertions.get())
+                    continue;
+                writeSnapshot(snapshotPath(entry.getKey()), filter);
+            }
+            filters.clear();
+        }
+        player.close();
+    }
+
+    private Filter getFilter(RecordingConfig config) {
+        String path = config.getRecordingPath();
+        Filter filter = filters.get(path);
+        if (filter != null)
+            return filter;
+
+        synchronized (filters) {
+            filter = filters.get(path);
+            if (filter == null) {
+                filter = readSnapshot(snapshotPath(path));
+                if (filter == null)
+                    filter = rebuild(config);
+                filters.put(path, filter);
+            }
+            return filter;
+        }
+    }
+
+    /**
+     * Replace the filter of a recording path with one rebuilt from the recordings of the underlying player.
+     * The scenarios recorded while it is rebuilt are added to both filters.
+     */
+    private void replace(Filter filter, RecordingConfig config) {
+        if (filter.blooms.isEmpty() || !filter.replaced.compareAndSet(false, true))
+            return;
+
+        Filter next = new Filter(expectedInsertions, falsePositiveProbability);
+        recordingLock.writeLock().lock();
+        try {
+            filter.next = next;
+        } finally {
+            recordingLock.writeLock().unlock();
+        }
+        filters.replace(config.getRecordingPath(), filter, rebuild(config, next));
+    }
+
+    private Filter rebuild(RecordingConfig config) {
+        return rebuild(config, new Filter(expectedInsertions, falsePositiveProbability));
+    }
+
+    private Filter rebuild(RecordingConfig config, Filter filter) {
+        try {
+            player.forEachUniqueId(config, filter::put);
+            LOG.info("Bloom filter of the recordings built. Path=" + config.getRecordingPath()
+                    + ", recordings=" + filter.insertions.get());
+            return filter;
+        } catch (UnsupportedOperationException e) {
+            LOG.warn("Recordings can't be enumerated, playbacks are passed through. Path="
+                    + config.getRecordingPath());
+        } catch (RuntimeException e) {
+            LOG.error("Error occurred while building the Bloom filter, playbacks are passed through.", e);
+        }
+        return new Filter();
+    }
+
+    private static Path snapshotPath(String recordingPath) {
+        return Paths.get(recordingPath, SNAPSHOT_FILE);
+    }
+
+    private Filter readSnapshot(Path snapshot) {
+        if (!Files.exists(snapshot))
+            return null;
+
+        try {
+            Filter filter = new Filter();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+                if (in.readInt() != SNAPSHOT_FORMAT)
+                    throw new IOException("Unsupported snapshot format.");
+                filter.falsePositiveProbability = in.readDouble();
+                filter.insertions.set(in.readLong());
+                filter.deletes.set(in.readLong());
+                int count = in.readInt();
+                for (int i = 0; i < count; i++)
+                    filter.add(BloomFilter.readFrom(in));
+            }
+            if (filter.blooms.isEmpty())
+                throw new IOException("Snapshot has no filters.");
+            return filter;
+        } catch (IOException e) {
+            LOG.warn("Bloom filter snapshot couldn't be read, rebuilding it. Path=" + snapshot, e);
+            return null;
+        } finally {
+            // removed so that a stale snapshot is never read, it is written again on close
+            try {
+                Files.deleteIfExists(snapshot);
+            } catch (IOException e) {
+                LOG.warn("Bloom filter snapshot couldn't be removed. Path=" + snapshot, e);
+            }
+        }
+    }
+
+    private static void writeSnapshot(Path snapshot, Filter filter) {
+        try {
+            Files.createDirectories(snapshot.getParent());
+            Path temp = Files.createTempFile(snapshot.getParent(), SNAPSHOT_FILE, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(SNAPSHOT_FORMAT);
+                out.writeDouble(filter.falsePositiveProbability);
+                out.writeLong(filter.insertions.get());
+                out.writeLong(filter.deletes.get());
+                out.writeInt(filter.blooms.size());
+                for (BloomFilter bloom : filter.blooms)
+                    bloom.writeTo(out);
+            }
+            Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warn("Bloom filter snapshot couldn't be written. Path=" + snapshot, e);
+        }
+    }
+
+    /**
+     * Filter of a recording path. A new Bloom filter, twice as large, is added once the current one is full.
+     * A filter without any Bloom filter passes all the playbacks through.
+     */
+    private static class Filter {
+
+        private final List<BloomFilter> blooms = new CopyOnWriteArrayList<>();
+
+        private final AtomicLong insertions = new AtomicLong();
+
+        private final AtomicLong deletes = new AtomicLong();
+
+        private final AtomicBoolean replaced = new AtomicBoolean();
+
+        // Filter being rebuilt to replace this one, the scenarios recorded meanwhile are added to it as well
+        private volatile Filter next;
+
+        private double falsePositiveProbability;
+
+        // Insertions the Bloom filters are sized for altogether
+        private volatile long capacity;
+
+        Filter() {
+        }
+
+        Filter(long expectedInsertions, double falsePositiveProbability) {
+            this.falsePositiveProbability = falsePositiveProbability;
+            add(BloomFilter.create(expectedInsertions, falsePositiveProbability));
+        }
+
+        void add(BloomFilter bloom) {
+            blooms.add(bloom);
+            capacity += bloom.getCapacity();
+        }
+
+        void put(String uniqueId) {
+            if (blooms.isEmpty())
+                return;
+
+            if (insertions.incrementAndGet() > capacity) {
+                synchronized (this) {
+                    if (insertions.get() > capacity) {
+                        BloomFilter last = blooms.get(blooms.size() - 1);
+                        add(BloomFilter.create(last.getCapacity() * 2, falsePositiveProbability));
+                    }
+                }
+            }
+            blooms.get(blooms.size() - 1).put(uniqueId);
+
+            Filter next = this.next;
+            if (next != null)
+                next.put(uniqueId);
+        }
+
+        boolean mightContain(String uniqueId) {
+            if (blooms.isEmpty())
+                return true;
+            for (BloomFilter bloom : blooms) {
+                if (bloom.mightContain(uniqueId))
+                    return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,620 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.player;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Log structured storage of the recordings in a directory. Recordings are appended to large segment files
+ * and located through an in-memory index of unique id to the position of the recording in a segment, which is
+ * rebuilt by scanning the segments when the cassette is opened. Deletes append a tombstone, and the space held
+ * by overwritten or deleted recordings is reclaimed by {@link #compact()}, which rewrites the live recordings.
+ * Segments are immutable once sealed (when a new segment is started), hence they can be memory mapped.
+ *
+ * Segment layout: magic and format version, followed by entries of
+ * [body length: int][crc32 of body: int][body], where the body is
+ * [type: byte][expiry: long][id: short length + utf-8][tags: short count + (short length + utf-8)...][payload].
+ */
+class Cassette implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RecordPlayer.class);
+
+    static final long NO_EXPIRY = Long.MAX_VALUE;
+
+    private static final String SEGMENT_PREFIX = "cassette-";
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private static final String LOCK_FILE = "cassette.lock";
+
+    private static final byte[] MAGIC = {'V', 'N', 'Y', 'L'};
+
+    private static final byte FORMAT_VERSION = 1;
+
+    private static final int SEGMENT_HEADER_LENGTH = MAGIC.length + 1;
+
+    private static final int ENTRY_HEADER_LENGTH = Integer.BYTES * 2;
+
+    private static final byte PUT = 1;
+
+    private static final byte DELETE = 2;
+
+    private final Path directory;
+
+    private final long maxSegmentBytes;
+
+    private final ReadMode readMode;
+
+    private final FileChannel lockChannel;
+
+    private final FileLock lock;
+
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+
+    // Guarded by this, as are the segments
+    private final Map<String, Set<String>> tagIndex = new HashMap<>();
+
+    private final List<Segment> segments = new ArrayList<>();
+
+    private Segment active;
+
+    private long nextSegmentId;
+
+    private long garbageBytes;
+
+    private Cassette(Path directory, long maxSegmentBytes, ReadMode readMode, FileChannel lockChannel,
+                     FileLock lock) {
+        this.directory = directory;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.readMode = readMode;
+        this.lockChannel = lockChannel;
+        this.lock = lock;
+    }
+
+    /**
+     * Open the cassette in the directory, creating it if missing.
+     */
+    static Cassette open(Path directory, long maxSegmentBytes, ReadMode readMode) throws IOException {
+        Files.createDirectories(directory);
+        FileChannel lockChannel = FileChannel.open(directory.resolve(LOCK_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock = lockChannel.tryLock();
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("Cassette is in use by another process. Path=" + directory);
+        }
+
+        Cassette cassette = new Cassette(directory, maxSegmentBytes, readMode, lockChannel, lock);
+        try {
+            cassette.load();
+        } catch (IOException | RuntimeException e) {
+            cassette.close();
+            throw e;
+        }
+        return cassette;
+    }
+
+    /**
+     * Append the recordings, each replacing any earlier recording with the same id.
+     */
+    synchronized void put(List<Recording> recordings) throws IOException {
+        List<byte[]> entries = new ArrayList<>(recordings.size());
+        for (Recording recording : recordings)
+            entries.add(encode(PUT, recording.id, recording.expiry, recording.tags, recording.payload));
+        append(recordings, entries);
+    }
+
+    /**
+     * @param onExpired
+     *      Run when the recording has expired by the given time
+     * @return payload of the recording, null if it is missing or has expired by the given time. The buffer
+     *      might be a read only view of a mapped segment.
+     */
+    ByteBuffer get(String id, long currentTimeInMillis, Runnable onExpired) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            Location location = index.get(id);
+            if (location == null)
+                return null;
+            if (location.expiry < currentTimeInMillis) {
+                onExpired.run();
+                return null;
+            }
+
+            try {
+                return location.segment.read(location.payloadOffset, location.payloadLength);
+            } catch (ClosedChannelException e) {
+                // the segment was compacted away in the meantime, look up the new location
+                if (!location.segment.retired || attempt >= 2)
+                    throw e;
+            }
+        }
+    }
+
+    void forEachId(Consumer<String> action) {
+        index.keySet().forEach(action);
+    }
+
+    synchronized void delete(Collection<String> ids) throws IOException {
+        List<Recording> tombstones = new ArrayList<>(ids.size());
+        List<byte[]> entries = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            if (index.containsKey(id)) {
+                Recording tombstone = new Recording(id, NO_EXPIRY, Collections.emptyList(), null);
+                tombstones.add(tombstone);
+                entries.add(encode(DELETE, id, NO_EXPIRY, tombstone.tags, null));
+            }
+        }
+        append(tombstones, entries);
+    }
+
+    synchronized void deleteByTags(Collection<String> tags) throws IOException {
+        Set<String> ids = new HashSet<>();
+        for (String tag : tags) {
+            Set<String> taggedIds = tagIndex.get(tag);
+            if (taggedIds != null)
+                ids.addAll(taggedIds);
+        }
+        delete(ids);
+    }
+
+    /**
+     * Rewrite the live recordings into new segments and remove the existing segments. Playbacks continue
+     * while the compaction is in progress, recordings wait for it to complete.
+     */
+    synchronized void compact() throws IOException {
+        List<Segment> compacted = new ArrayList<>(segments);
+        active = newSegment();
+
+        // copied in chunks to bound the memory held by the payloads read
+        List<Recording> live = new ArrayList<>();
+        List<byte[]> entries = new ArrayList<>();
+        long pendingBytes = 0;
+        for (Map.Entry<String, Location> indexEntry : index.entrySet()) {
+            Location location = indexEntry.getValue();
+            ByteBuffer buffer = location.segment.read(location.payloadOffset, location.payloadLength);
+            byte[] payload = new byte[buffer.remaining()];
+            buffer.get(payload);
+            Recording recording = new Recording(indexEntry.getKey(), location.expiry, location.tags, payload);
+            byte[] entry = encode(PUT, recording.id, recording.expiry, recording.tags, payload);
+            live.add(recording);
+            entries.add(entry);
+            pendingBytes += entry.length;
+            if (pendingBytes >= maxSegmentBytes) {
+                append(live, entries);
+                live.clear();
+                entries.clear();
+                pendingBytes = 0;
+            }
+        }
+        append(live, entries);
+
+        for (Segment segment : compacted) {
+            segments.remove(segment);
+            segment.retire();
+            Files.deleteIfExists(segment.path);
+        }
+        garbageBytes = 0;
+        LOG.info("Cassette compacted. Path=" + directory + ", segments=" + segments.size());
+    }
+
+    /**
+     * @return bytes held by the recordings that have been overwritten or deleted
+     */
+    synchronized long getGarbageBytes() {
+        return garbageBytes;
+    }
+
+    int size() {
+        return index.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            for (Segment segment : segments)
+                segment.close();
+        } finally {
+            lock.release();
+            lockChannel.close();
+        }
+    }
+
+    private void append(List<Recording> recordings, List<byte[]> entries) throws IOException {
+        int start = 0;
+        long pendingBytes = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            long entryLength = entries.get(i).length;
+            if (active == null || (active.size + pendingBytes + entryLength > maxSegmentBytes
+                    && active.size + pendingBytes > SEGMENT_HEADER_LENGTH)) {
+                if (active != null) {
+                    write(recordings, entries, start, i);
+                    active.seal(readMode);
+                }
+                active = newSegment();
+                start = i;
+                pendingBytes = 0;
+            }
+            pendingBytes += entryLength;
+        }
+        if (start < entries.size())
+            write(recordings, entries, start, entries.size());
+    }
+
+    /**
+     * Write the entries to the active segment with a single write and publish them to the index.
+     */
+    private void write(List<Recording> recordings, List<byte[]> entries, int from, int to) throws IOException {
+        int length = 0;
+        for (int i = from; i < to; i++)
+            length += entries.get(i).length;
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        for (int i = from; i < to; i++)
+            buffer.put(entries.get(i));
+        buffer.flip();
+
+        long position = active.size;
+        active.write(buffer, position);
+
+        for (int i = from; i < to; i++) {
+            Recording recording = recordings.get(i);
+            int entryLength = entries.get(i).length;
+            if (recording.payload != null) {
+                long payloadOffset = position + entryLength - recording.payload.length;
+                publish(recording.id, new Location(active, payloadOffset, recording.payload.length,
+                        recording.expiry, recording.tags, entryLength));
+            } else {
+                publish(recording.id, null);
+                garbageBytes += entryLength;
+            }
+            position += entryLength;
+        }
+        active.size = position;
+    }
+
+    private void publish(String id, Location location) {
+        Location previous = location != null ? index.put(id, location) : index.remove(id);
+        if (previous != null) {
+            garbageBytes += previous.entryLength;
+            for (String tag : previous.tags) {
+                Set<String> taggedIds = tagIndex.get(tag);
+                if (taggedIds != null && taggedIds.remove(id) && taggedIds.isEmpty())
+                    tagIndex.remove(tag);
+            }
+        }
+        if (location != null) {
+            for (String tag : location.tags)
+                tagIndex.computeIfAbsent(tag, key -> new HashSet<>()).add(id);
+        }
+    }
+
+    private Segment newSegment() throws IOException {
+        Path path = directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, nextSegmentId++, SEGMENT_SUFFIX));
+        Segment segment = new Segment(path);
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_LENGTH);
+        header.put(MAGIC).put(FORMAT_VERSION).flip();
+        segment.write(header, 0);
+        segment.size = SEGMENT_HEADER_LENGTH;
+        segments.add(segment);
+        return segment;
+    }
+
+    private synchronized void load() throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream)
+                paths.add(path);
+        }
+        Collections.sort(paths);
+
+        for (Path path : paths) {
+            String name = path.getFileName().toString();
+            long segmentId = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            nextSegmentId = Math.max(nextSegmentId, segmentId + 1);
+
+            Segment segment = new Segment(path);
+            segments.add(segment);
+            segment.size = scan(segment);
+            if (active != null)
+                active.seal(readMode);
+            active = segment;
+        }
+
+        // a torn write at the end of the last segment is discarded, further entries are appended after it
+        if (active != null && active.size < active.channel().size())
+            active.channel().truncate(active.size);
+
+        LOG.info("Cassette opened. Path=" + directory + ", recordings=" + index.size() + ", segments=" + segments.size());
+    }
+
+    /**
+     * Index the entries of the segment.
+     *
+     * @return the length of the segment up to the last valid entry
+     */
+    private long scan(Segment segment) throws IOException {
+        FileChannel channel = segment.channel();
+        long length = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_LENGTH);
+        if (!readFully(channel, header, 0)) {
+            LOG.warn("Cassette segment is incomplete. Path=" + segment.path);
+            channel.truncate(0);
+            ByteBuffer newHeader = ByteBuffer.allocate(SEGMENT_HEADER_LENGTH);
+            newHeader.put(MAGIC).put(FORMAT_VERSION).flip();
+            segment.write(newHeader, 0);
+            return SEGMENT_HEADER_LENGTH;
+        }
+        byte[] magic = new byte[MAGIC.length];
+        header.flip();
+        header.get(magic);
+        if (!Arrays.equals(magic, MAGIC) || header.get() != FORMAT_VERSION)
+            throw new IOException("Not a cassette segment or unsupported format. Path=" + segment.path);
+
+        long position = SEGMENT_HEADER_LENGTH;
+        ByteBuffer entryHeader = ByteBuffer.allocate(ENTRY_HEADER_LENGTH);
+        CRC32 crc = new CRC32();
+        while (position < length) {
+            entryHeader.clear();
+            if (!readFully(channel, entryHeader, position))
+                break;
+            entryHeader.flip();
+            int bodyLength = entryHeader.getInt();
+            int checksum = entryHeader.getInt();
+            if (bodyLength <= 0 || position + ENTRY_HEADER_LENGTH + bodyLength > length)
+                break;
+
+            ByteBuffer body = ByteBuffer.allocate(bodyLength);
+            if (!readFully(channel, body, position + ENTRY_HEADER_LENGTH))
+                break;
+            crc.reset();
+            crc.update(body.array(), 0, bodyLength);
+            if ((int) crc.getValue() != checksum)
+                break;
+
+            body.flip();
+            byte type = body.get();
+            long expiry = body.getLong();
+            String id = readString(body);
+            int tagCount = body.getShort() & 0xffff;
+            List<String> tags = new ArrayList<>(tagCount);
+            for (int i = 0; i < tagCount; i++)
+                tags.add(readString(body));
+
+            int entryLength = ENTRY_HEADER_LENGTH + bodyLength;
+            if (type == PUT) {
+                long payloadOffset = position + ENTRY_HEADER_LENGTH + body.position();
+                publish(id, new Location(segment, payloadOffset, body.remaining(), expiry, tags, entryLength));
+            } else {
+                publish(id, null);
+                garbageBytes += entryLength;
+            }
+            position += entryLength;
+        }
+
+        if (position < length)
+            LOG.warn("Cassette segment has an incomplete entry, ignoring the rest. Path=" + segment.path
+                    + ", position=" + position);
+        return position;
+    }
+
+    private static byte[] encode(byte type, String id, long expiry, List<String> tags, byte[] payload) {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        List<byte[]> tagBytes = new ArrayList<>(tags.size());
+        int bodyLength = 1 + Long.BYTES + Short.BYTES + idBytes.length + Short.BYTES;
+        for (String tag : tags) {
+            byte[] bytes = tag.getBytes(StandardCharsets.UTF_8);
+            tagBytes.add(bytes);
+            bodyLength += Short.BYTES + bytes.length;
+        }
+        if (payload != null)
+            bodyLength += payload.length;
+
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_HEADER_LENGTH + bodyLength);
+        entry.putInt(bodyLength);
+        entry.putInt(0);
+        entry.put(type);
+        entry.putLong(expiry);
+        putString(entry, idBytes);
+        entry.putShort((short) tagBytes.size());
+        for (byte[] bytes : tagBytes)
+            putString(entry, bytes);
+        if (payload != null)
+            entry.put(payload);
+
+        CRC32 crc = new CRC32();
+        crc.update(entry.array(), ENTRY_HEADER_LENGTH, bodyLength);
+        entry.putInt(Integer.BYTES, (int) crc.getValue());
+        return entry.array();
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        if (bytes.length > 0xffff)
+            throw new IllegalArgumentException("Id or tag is too long to be recorded: " + bytes.length + " bytes");
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xffff;
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Recording to be appended to the cassette. A recording without payload is a tombstone.
+     */
+    static class Recording {
+
+        final String id;
+
+        final long expiry;
+
+        final List<String> tags;
+
+        final byte[] payload;
+
+        Recording(String id, long expiry, List<String> tags, byte[] payload) {
+            this.id = id;
+            this.expiry = expiry;
+            this.tags = tags;
+            this.payload = payload;
+        }
+    }
+
+    private static class Location {
+
+        final Segment segment;
+
+        final long payloadOffset;
+
+        final int payloadLength;
+
+        final long expiry;
+
+        final List<String> tags;
+
+        final int entryLength;
+
+        Location(Segment segment, long payloadOffset, int payloadLength, long expiry, List<String> tags,
+                 int entryLength) {
+            this.segment = segment;
+            this.payloadOffset = payloadOffset;
+            this.payloadLength = payloadLength;
+            this.expiry = expiry;
+            this.tags = tags;
+            this.entryLength = entryLength;
+        }
+    }
+
+    private static class Segment {
+
+        final Path path;
+
+        // Guarded by the cassette
+        long size;
+
+        volatile boolean retired;
+
+        // Mapping of the sealed segment, the mapping stays valid until garbage collected
+        private volatile MappedByteBuffer mapped;
+
+        private volatile FileChannel channel;
+
+        // Channel of the readers, apart from the one written to: a reader interrupted during a read closes the
+        // channel it reads from, which then only fails the other readers until it is reopened
+        private volatile FileChannel readChannel;
+
+        Segment(Path path) throws IOException {
+            this.path = path;
+            this.channel = open(path);
+        }
+
+        ByteBuffer read(long position, int length) throws IOException {
+            MappedByteBuffer mapping = mapped;
+            if (mapping != null) {
+                ByteBuffer view = mapping.duplicate();
+                view.limit((int) position + length).position((int) position);
+                return view.slice();
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (true) {
+                // an interrupted thread would close the channel before failing the read
+                if (Thread.currentThread().isInterrupted())
+                    throw new ClosedByInterruptException();
+                try {
+                    if (!readFully(readChannel(), buffer, position))
+                        throw new EOFException("Recording is truncated. Path=" + path + ", position=" + position);
+                    buffer.flip();
+                    return buffer;
+                } catch (ClosedChannelException e) {
+                    // the channel closed by another interrupted reader is reopened, the interrupted one fails
+                    if (retired || e instanceof ClosedByInterruptException || Thread.currentThread().isInterrupted())
+                        throw e;
+                }
+            }
+        }
+
+        private FileChannel readChannel() throws IOException {
+            FileChannel current = readChannel;
+            if (current != null && current.isOpen())
+                return current;
+            synchronized (this) {
+                if (retired)
+                    throw new ClosedChannelException();
+                if (readChannel == null || !readChannel.isOpen())
+                    readChannel = FileChannel.open(path, StandardOpenOption.READ);
+                return readChannel;
+            }
+        }
+
+        void write(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining())
+                channel().write(buffer, position + buffer.position());
+        }
+
+        FileChannel channel() throws IOException {
+            FileChannel current = channel;
+            if (!current.isOpen() && !retired)
+                reopen();
+            return channel;
+        }
+
+        private synchronized void reopen() throws IOException {
+            if (!retired && !channel.isOpen())
+                channel = open(path);
+        }
+
+        /**
+         * Called once no more entries are appended to the segment.
+         */
+        void seal(ReadMode readMode) throws IOException {
+            if (readMode == ReadMode.MEMORY_MAPPED && size <= Integer.MAX_VALUE)
+                mapped = channel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+
+        synchronized void retire() throws IOException {
+            retired = true;
+            channel.close();
+            if (readChannel != null)
+                readChannel.close();
+        }
+
+        synchronized void close() throws IOException {
+            retire();
+        }
+
+        private static FileChannel open(Path path) throws IOException {
+            return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+    }
+}
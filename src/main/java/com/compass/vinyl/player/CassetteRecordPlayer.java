@@ -0,0 +1,274 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.player;
+
+import com.compass.vinyl.RecordingConfig;
+import com.compass.vinyl.Scenario;
+import com.compass.vinyl.metrics.CallTrace;
+import com.compass.vinyl.serializer.Serializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * This record player stores the scenarios of a recording path in a few large append-only segment files
+ * (a "cassette") rather than a file per scenario. A playback is a single positional read located through an
+ * in-memory index of the unique ids, which is rebuilt from the segments when the cassette is opened.
+ *
+ * Recording a scenario again or deleting it leaves the earlier recording in its segment until
+ * {@link #compact(RecordingConfig)} rewrites the live recordings. Tags and expiry are kept in the index, so
+ * deleting by tags doesn't read any recording and an expired recording is rejected without reading it.
+ * Segments are immutable once sealed, and are memory mapped by default so a playback from a sealed segment
+ * is deserialized straight from the page cache.
+ *
+ * A cassette is opened on first use and kept open until the player is closed. The open cassettes are shared
+ * (and reference counted) across the players in the process, and locked against use by another process.
+ * The player shouldn't be closed while calls on it are still in progress.
+ */
+public class CassetteRecordPlayer implements RecordPlayer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RecordPlayer.class);
+
+    private static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+
+    private static final Map<Path, SharedCassette> OPEN_CASSETTES = new HashMap<>();
+
+    private final Map<String, SharedCassette> cassettes = new ConcurrentHashMap<>();
+
+    private final long maxSegmentBytes;
+
+    private final ReadMode readMode;
+
+    private volatile boolean closed;
+
+    public CassetteRecordPlayer() {
+        this(DEFAULT_SEGMENT_BYTES);
+    }
+
+    /**
+     * @param maxSegmentBytes
+     *      Size after which recordings are appended to a new segment. When the cassette is already opened by
+     *      another player in the process, the segment size of that player applies.
+     */
+    public CassetteRecordPlayer(long maxSegmentBytes) {
+        this(maxSegmentBytes, ReadMode.MEMORY_MAPPED);
+    }
+
+    /**
+     * @param maxSegmentBytes
+     *      Size after which recordings are appended to a new segment
+     * @param readMode
+     *      How the sealed segments are read. The segment being appended to is always read with read calls.
+     *      When the cassette is already opened by another player in the process, the settings of that
+     *      player apply.
+     */
+    public CassetteRecordPlayer(long maxSegmentBytes, ReadMode readMode) {
+        if (maxSegmentBytes < 1)
+            throw new IllegalArgumentException("Segment size should be positive: " + maxSegmentBytes);
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.readMode = readMode;
+    }
+
+    @Override
+    public boolean record(Scenario scenario, RecordingConfig config) {
+        return recordAll(Collections.singletonList(scenario), config);
+    }
+
+    /**
+     * Record the scenarios with a single append to the cassette.
+     */
+    @Override
+    public boolean recordAll(Collection<Scenario> scenarios, RecordingConfig config) {
+        Serializer serializer = config.getSerializer();
+        CallTrace trace = CallTrace.current();
+        List<Cassette.Recording> recordings = new ArrayList<>(scenarios.size());
+        for (Scenario scenario : scenarios) {
+            long expiry = Cassette.NO_EXPIRY;
+            List<String> tags = Collections.emptyList();
+            if (scenario.getMetadata() != null) {
+                if (scenario.getMetadata().getExpiryTimeInMillis() != null)
+                    expiry = scenario.getMetadata().getExpiryTimeInMillis();
+                if (scenario.getMetadata().getTags() != null)
+                    tags = scenario.getMetadata().getTags();
+            }
+            long time = trace.start();
+            byte[] serializedData = serializer.serializeToBytes(scenario);
+            trace.lap(CallTrace.Stage.SERIALIZE, time);
+            if (serializedData == null) {
+                LOG.error("Scenario couldn't be serialized. Source=" + scenario.getSource()
+                        + ", method=" + scenario.getMethod());
+                return false;
+            }
+            recordings.add(new Cassette.Recording(scenario.getUniqueId(config), expiry, tags, serializedData));
+        }
+
+        long time = trace.start();
+        try {
+            getCassette(config).put(recordings);
+        } catch (IOException | IllegalArgumentException e) {
+            LOG.error("Error occurred while recording the data.", e);
+            return false;
+        } finally {
+            trace.lap(CallTrace.Stage.IO, time);
+        }
+        return true;
+    }
+
+    @Override
+    public Scenario playback(Scenario scenario, RecordingConfig config) {
+        return playbackIfNotExpired(scenario, config, Long.MIN_VALUE);
+    }
+
+    @Override
+    public Scenario playbackIfNotExpired(Scenario scenario, RecordingConfig config, long currentTimeInMillis,
+                                         Runnable onExpired) {
+        Serializer serializer = config.getSerializer();
+        String uniqueId = scenario.getUniqueId(config);
+        CallTrace trace = CallTrace.current();
+        long time = trace.start();
+        ByteBuffer serializedData;
+        try {
+            // the cassette checks the expiry along with the lookup
+            serializedData = getCassette(config).get(uniqueId, currentTimeInMillis, onExpired);
+        } catch (IOException e) {
+            LOG.error("Error occurred while retrieving the data.", e);
+            return null;
+        } finally {
+            time = trace.lap(CallTrace.Stage.IO, time);
+        }
+
+        if (serializedData == null)
+            return null;
+        Scenario recordedScenario = serializer.deserialize(serializedData, Scenario.class);
+        trace.lap(CallTrace.Stage.DESERIALIZE, time);
+        return recordedScenario;
+    }
+
+    @Override
+    public void delete(Scenario scenario, RecordingConfig config) {
+        String uniqueId = scenario.getUniqueId(config);
+        try {
+            getCassette(config).delete(Collections.singletonList(uniqueId));
+        } catch (IOException e) {
+            LOG.error("Error occurred while deleting the data.", e);
+        }
+    }
+
+    @Override
+    public void deleteByTags(List<String> tags, RecordingConfig config) {
+        CallTrace trace = CallTrace.current();
+        long time = trace.start();
+        try {
+            getCassette(config).deleteByTags(tags);
+        } catch (IOException e) {
+            LOG.error("Error occurred while deleting the data for tags:" + tags, e);
+        } finally {
+            trace.lap(CallTrace.Stage.IO, time);
+        }
+    }
+
+    @Override
+    public void forEachUniqueId(RecordingConfig config, Consumer<String> action) {
+        try {
+            getCassette(config).forEachId(action);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Rewrite the live recordings of the cassette into new segments, reclaiming the space of the recordings
+     * that were overwritten or deleted. Playbacks continue during the compaction while recordings wait for it.
+     *
+     * @param config
+     *      Configuration identifying the recordings
+     * @return
+     *      status of the compaction
+     */
+    public boolean compact(RecordingConfig config) {
+        try {
+            getCassette(config).compact();
+        } catch (IOException e) {
+            LOG.error("Error occurred while compacting the recordings.", e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Release the cassettes opened by this player. A cassette is closed once all the players using it
+     * have been closed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (OPEN_CASSETTES) {
+            for (SharedCassette cassette : cassettes.values())
+                cassette.release();
+            cassettes.clear();
+        }
+    }
+
+    private Cassette getCassette(RecordingConfig config) throws IOException {
+        String path = config.getRecordingPath();
+        SharedCassette cassette = cassettes.get(path);
+        if (cassette != null)
+            return cassette.cassette;
+
+        synchronized (OPEN_CASSETTES) {
+            if (closed)
+                throw new IllegalStateException("Record player is already closed.");
+
+            cassette = cassettes.get(path);
+            if (cassette == null) {
+                Path location = Paths.get(path).toAbsolutePath().normalize();
+                cassette = OPEN_CASSETTES.get(location);
+                if (cassette == null) {
+                    cassette = new SharedCassette(location, Cassette.open(location, maxSegmentBytes, readMode));
+                    OPEN_CASSETTES.put(location, cassette);
+                }
+                cassette.references++;
+                cassettes.put(path, cassette);
+            }
+            return cassette.cassette;
+        }
+    }
+
+    /**
+     * Cassette opened for a recording path. Reference counting is guarded by {@link #OPEN_CASSETTES}.
+     */
+    private static class SharedCassette {
+
+        private final Path location;
+
+        private final Cassette cassette;
+
+        private int references;
+
+        SharedCassette(Path location, Cassette cassette) {
+            this.location = location;
+            this.cassette = cassette;
+        }
+
+        void release() {
+            if (--references > 0)
+                return;
+
+            OPEN_CASSETTES.remove(location);
+            try {
+                cassette.close();
+                LOG.info("Cassette closed. Path=" + location);
+            } catch (IOException e) {
+                LOG.error("Error occurred while closing the cassette. Path=" + location, e);
+            }
+        }
+    }
+}
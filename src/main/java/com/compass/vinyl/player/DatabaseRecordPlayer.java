@@ -4,18 +4,35 @@ package com.compass.vinyl.player;
 
 import com.compass.vinyl.RecordingConfig;
 import com.compass.vinyl.Scenario;
+import com.compass.vinyl.metrics.CallTrace;
 import com.compass.vinyl.serializer.Serializer;
 import org.rocksdb.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 /**
  * This record player uses <a href="https://github.com/facebook/rocksdb">RocksDB</a> as a key-value server
  * for storing data on flash drives.
  * Hashed scenario is used as key and scenario is stored as value.
+ *
+ * Each value starts with a fixed size header holding the expiry of the scenario, so an expired recording
+ * is rejected in cache mode without deserializing it. Expired recordings are removed by
+ * {@link #purgeExpired(RecordingConfig)}. When a retention period is given, the database also drops any
+ * recording older than it during compaction, irrespective of the expiry of the scenario.
+ *
+ * The database for a recording path is opened on first use and kept open until the player is closed,
+ * so a playback is a single lookup. RocksDB allows only one open handle per database in a process, hence
+ * the open databases are shared (and reference counted) across all the players in the process.
+ * The player shouldn't be closed while calls on it are still in progress.
  */
 public class DatabaseRecordPlayer implements RecordPlayer {
 
@@ -23,136 +40,523 @@ public class DatabaseRecordPlayer implements RecordPlayer {
 
     private static final String TAGS_COLUMN_FAMILY = "tags-column-family";
 
-    private static final Integer TTL_SECONDS = 24*60*60;
+    // Non-positive time to live of the database, the recordings are kept until they are purged or deleted
+    private static final int NO_RETENTION = -1;
 
-    final List<ColumnFamilyDescriptor> cfDescriptors;
+    // Value header: format byte followed by the expiry time in millis
+    private static final byte VALUE_HEADER_FORMAT = 1;
 
-    final List<Integer> ttlValues;
+    private static final int VALUE_HEADER_LENGTH = 1 + Long.BYTES;
+
+    private static final long NO_EXPIRY = Long.MAX_VALUE;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    // Upper bound on the deletes buffered in memory while invalidating a tag
+    private static final int MAX_BATCH_SIZE = 10_000;
+
+    private static final Map<String, Store> OPEN_STORES = new HashMap<>();
+
+    private final Map<String, Store> stores = new ConcurrentHashMap<>();
+
+    private final int retentionSeconds;
+
+    private volatile boolean closed;
 
     public DatabaseRecordPlayer(){
-        RocksDB.loadLibrary();
-        cfDescriptors = Arrays.asList(
-                new ColumnFamilyDescriptor(RocksDB.DEFAULT_COLUMN_FAMILY),
-                new ColumnFamilyDescriptor(TAGS_COLUMN_FAMILY.getBytes())
-        );
-        ttlValues = Arrays.asList(TTL_SECONDS, TTL_SECONDS);
+        this(NO_RETENTION);
+    }
+
+    /**
+     * @param retentionSeconds
+     *      Period after which the recordings are dropped irrespective of their expiry, none when not positive.
+     *      When the database is already opened by another player in the process, the retention of that player
+     *      applies.
+     */
+    public DatabaseRecordPlayer(int retentionSeconds) {
+        this.retentionSeconds = retentionSeconds;
     }
 
     @Override
     public boolean record(Scenario scenario, RecordingConfig config) {
+        return recordAll(Collections.singletonList(scenario), config);
+    }
+
+    /**
+     * Record the scenarios using a single write, a scenario and its tag index entries are always written
+     * atomically. The index entries of the tags of a recording being replaced are removed in the same write.
+     */
+    @Override
+    public boolean recordAll(Collection<Scenario> scenarios, RecordingConfig config) {
         Serializer serializer = config.getSerializer();
-        byte[] serializedData = serializer.serialize(scenario).getBytes();
-        String uniqueId = scenario.getUniqueId(serializer);
-        List<ColumnFamilyHandle> columnFamilyHandleList = new ArrayList<>();
+        CallTrace trace = CallTrace.current();
+        long time = trace.start();
 
-        try (DBOptions options = new DBOptions().setCreateIfMissing(true).setCreateMissingColumnFamilies(true);
-             TtlDB db = TtlDB.open(options, config.getRecordingPath(), cfDescriptors, columnFamilyHandleList, ttlValues, false)) {
-            try {
-                db.put(columnFamilyHandleList.get(0),uniqueId.getBytes(), serializedData);
-                if (scenario.getMetadata() != null)
-                    storeMetadata(db,columnFamilyHandleList.get(1),serializer,scenario, uniqueId);
-            } finally {
-                for (ColumnFamilyHandle columnFamilyHandle : columnFamilyHandleList) {
-                    columnFamilyHandle.close();
+        try {
+            Store store = getStore(config);
+            List<byte[]> keys = new ArrayList<>(scenarios.size());
+            for (Scenario scenario : scenarios)
+                keys.add(scenario.getUniqueId(config).getBytes(StandardCharsets.UTF_8));
+            // multiGet maps the values by the instances of the keys passed in
+            Map<byte[], byte[]> previousValues =
+                    store.db.multiGet(Collections.nCopies(keys.size(), store.scenarios), keys);
+            time = trace.lap(CallTrace.Stage.IO, time);
+
+            // Tags of the scenarios recorded earlier in this batch, in case a scenario repeats
+            Map<String, List<String>> batchTags = new HashMap<>();
+            try (WriteBatch batch = new WriteBatch()) {
+                int i = 0;
+                for (Scenario scenario : scenarios) {
+                    byte[] key = keys.get(i++);
+                    byte[] previousValue = previousValues.get(key);
+                    if (previousValue != null)
+                        deleteTagRows(store, batch, key, tagsOf(previousValue, serializer));
+                    deleteTagRows(store, batch, key, batchTags.get(new String(key, StandardCharsets.UTF_8)));
+                    time = trace.lap(CallTrace.Stage.IO, time);
+                    byte[] serializedData = serializeWithHeader(scenario, serializer);
+                    time = trace.lap(CallTrace.Stage.SERIALIZE, time);
+
+                    batch.put(store.scenarios, key, serializedData);
+                    List<String> tags = scenario.getMetadata() != null ? scenario.getMetadata().getTags() : null;
+                    if (tags != null) {
+                        for (String tag : tags)
+                            batch.put(store.tags, tagIndexKey(tagPrefix(tag), key), EMPTY);
+                        batchTags.put(new String(key, StandardCharsets.UTF_8), tags);
+                    }
                 }
+                store.db.write(store.writeOptions, batch);
             }
-        } catch (RocksDBException e) {
+        } catch (RocksDBException | IOException e) {
             LOG.error("Error occurred while recording the data.", e);
             return false;
+        } finally {
+            trace.lap(CallTrace.Stage.IO, time);
         }
         return true;
     }
 
-    private void storeMetadata(RocksDB db, ColumnFamilyHandle tagColumnFamily, Serializer serializer, Scenario scenario,
-                               String uniqueId) throws RocksDBException {
-        for(String tag : scenario.getMetadata().getTags()) {
-            byte[] uniqueScenarioIds = db.get(tagColumnFamily, tag.getBytes());
-            HashSet<String> uniqueIds = new HashSet<>();
-            if(Objects.nonNull(uniqueScenarioIds)){
-                uniqueIds = serializer.deserialize(new String(uniqueScenarioIds) ,HashSet.class);
-            }
-            uniqueIds.add(uniqueId);
-            byte[] serializedIds = serializer.serialize(uniqueIds).getBytes();
-            db.put(tagColumnFamily, tag.getBytes(), serializedIds);
-        }
+    @Override
+    public Scenario playback(Scenario scenario, RecordingConfig config) {
+        return playbackIfNotExpired(scenario, config, Long.MIN_VALUE);
     }
 
     @Override
-    public Scenario playback(Scenario scenario, RecordingConfig config) {
+    public Scenario playbackIfNotExpired(Scenario scenario, RecordingConfig config, long currentTimeInMillis,
+                                         Runnable onExpired) {
         Serializer serializer = config.getSerializer();
-        String uniqueId = scenario.getUniqueId(serializer);
-        List<ColumnFamilyHandle> columnFamilyHandleList = new ArrayList<>();
+        String uniqueId = scenario.getUniqueId(config);
+        CallTrace trace = CallTrace.current();
+        long time = trace.start();
         byte[] serializedData;
-        try (DBOptions options = new DBOptions()
-                            .setCreateIfMissing(true)
-                            .setCreateMissingColumnFamilies(true);
-             RocksDB db = RocksDB.openReadOnly(options, config.getRecordingPath(), cfDescriptors, columnFamilyHandleList)) {
-            try {
-                serializedData = db.get(columnFamilyHandleList.get(0), uniqueId.getBytes());
-            } finally {
-                for (ColumnFamilyHandle columnFamilyHandle : columnFamilyHandleList) {
-                    columnFamilyHandle.close();
-                }
-            }
+        try {
+            Store store = getStore(config);
+            serializedData = store.db.get(store.scenarios, uniqueId.getBytes(StandardCharsets.UTF_8));
         } catch (RocksDBException e) {
             LOG.error("Error occurred while retrieving the data.", e);
             return null;
+        } finally {
+            trace.lap(CallTrace.Stage.IO, time);
         }
 
-        if (serializedData != null)
-            return config.getSerializer().deserialize(new String(serializedData), Scenario.class);
-        return null;
+        return decode(serializedData, serializer, currentTimeInMillis, onExpired);
     }
 
+    /**
+     * Playback the scenarios using a single lookup for all of them.
+     */
     @Override
-    public void delete(Scenario scenario, RecordingConfig config) {
+    public List<Scenario> playbackAll(Collection<Scenario> scenarios, RecordingConfig config) {
         Serializer serializer = config.getSerializer();
-        String uniqueId = scenario.getUniqueId(serializer);
-        final List<ColumnFamilyHandle> columnFamilyHandleList = new ArrayList<>();
+        List<Scenario> recordedScenarios = new ArrayList<>(scenarios.size());
+        List<byte[]> keys = new ArrayList<>(scenarios.size());
+        for (Scenario scenario : scenarios)
+            keys.add(scenario.getUniqueId(config).getBytes(StandardCharsets.UTF_8));
 
-        try (DBOptions options = new DBOptions().setCreateIfMissing(true).setCreateMissingColumnFamilies(true);
-             RocksDB db = RocksDB.open(options, config.getRecordingPath(), cfDescriptors, columnFamilyHandleList)) {
-            try {
-                db.delete(columnFamilyHandleList.get(0), uniqueId.getBytes());
-            } finally {
-                for (ColumnFamilyHandle columnFamilyHandle : columnFamilyHandleList) {
-                    columnFamilyHandle.close();
-                }
+        Map<byte[], byte[]> serializedData;
+        try {
+            Store store = getStore(config);
+            serializedData = store.db.multiGet(Collections.nCopies(keys.size(), store.scenarios), keys);
+        } catch (RocksDBException e) {
+            LOG.error("Error occurred while retrieving the data.", e);
+            return Arrays.asList(new Scenario[scenarios.size()]);
+        }
+
+        // values are mapped to the very key instances that were looked up
+        for (byte[] key : keys)
+            recordedScenarios.add(decode(serializedData.get(key), serializer, Long.MIN_VALUE));
+        return recordedScenarios;
+    }
+
+    private Scenario decode(byte[] serializedData, Serializer serializer, long currentTimeInMillis) {
+        return decode(serializedData, serializer, currentTimeInMillis, () -> {});
+    }
+
+    private Scenario decode(byte[] serializedData, Serializer serializer, long currentTimeInMillis,
+                            Runnable onExpired) {
+        if (serializedData == null)
+            return null;
+
+        if (!hasHeader(serializedData)) {
+            // Recorded before the value header was introduced, the expiry is only known after deserialization
+            Scenario recordedScenario = serializer.deserialize(serializedData, Scenario.class);
+            if (recordedScenario != null && recordedScenario.getMetadata() != null
+                    && recordedScenario.getMetadata().isExpired(currentTimeInMillis)) {
+                onExpired.run();
+                return null;
+            }
+            return recordedScenario;
+        }
+
+        CallTrace trace = CallTrace.current();
+        long time = trace.start();
+        boolean expired = expiryOf(serializedData) < currentTimeInMillis;
+        time = trace.lap(CallTrace.Stage.EXPIRY, time);
+        if (expired) {
+            onExpired.run();
+            return null;
+        }
+        Scenario recordedScenario = serializer.deserialize(ByteBuffer.wrap(serializedData, VALUE_HEADER_LENGTH,
+                serializedData.length - VALUE_HEADER_LENGTH), Scenario.class);
+        trace.lap(CallTrace.Stage.DESERIALIZE, time);
+        return recordedScenario;
+    }
+
+    @Override
+    public void delete(Scenario scenario, RecordingConfig config) {
+        byte[] key = scenario.getUniqueId(config).getBytes(StandardCharsets.UTF_8);
+
+        try {
+            Store store = getStore(config);
+            byte[] value = store.db.get(store.scenarios, key);
+            if (value == null)
+                return;
+            try (WriteBatch batch = new WriteBatch()) {
+                deleteRecording(store, batch, key, value, config.getSerializer());
+                store.db.write(store.writeOptions, batch);
             }
         } catch (RocksDBException e) {
             LOG.error("Error occurred while deleting the data.", e);
         }
     }
 
+    /**
+     * Delete the recording along with its rows in the tag index, found from the tags of the recorded scenario.
+     */
+    private void deleteRecording(Store store, WriteBatch batch, byte[] key, byte[] value, Serializer serializer)
+            throws RocksDBException {
+        batch.delete(store.scenarios, key);
+        deleteTagRows(store, batch, key, tagsOf(value, serializer));
+    }
+
+    private static void deleteTagRows(Store store, WriteBatch batch, byte[] key, List<String> tags)
+            throws RocksDBException {
+        if (tags == null)
+            return;
+        for (String tag : tags)
+            batch.delete(store.tags, tagIndexKey(tagPrefix(tag), key));
+    }
+
+    private List<String> tagsOf(byte[] value, Serializer serializer) {
+        Scenario recordedScenario = decode(value, serializer, Long.MIN_VALUE);
+        if (recordedScenario == null || recordedScenario.getMetadata() == null)
+            return null;
+        return recordedScenario.getMetadata().getTags();
+    }
+
     @Override
     public void deleteByTags(List<String> tags, RecordingConfig config) {
         Serializer serializer = config.getSerializer();
-        List<byte[]> tagsToDelete = tags.stream().map(tag -> tag.getBytes()).collect(Collectors.toList());
-        final List<ColumnFamilyHandle> columnFamilyHandleList = new ArrayList<>();
+        CallTrace trace = CallTrace.current();
+        long time = trace.start();
 
-        try (DBOptions options = new DBOptions().setCreateIfMissing(true).setCreateMissingColumnFamilies(true);
-             RocksDB db = RocksDB.open(options, config.getRecordingPath(), cfDescriptors, columnFamilyHandleList)) {
-            HashSet<String> scenariosToDelete = new HashSet<>();
-            try {
-                for(byte[] tagToDelete : tagsToDelete){
-                    byte[] uniqueScenarioIds = db.get(columnFamilyHandleList.get(1), tagToDelete);
-                    if(Objects.nonNull(uniqueScenarioIds)) {
-                        HashSet<String> scenarioIds = serializer.deserialize(new String(uniqueScenarioIds), HashSet.class);
-                        scenariosToDelete.addAll(scenarioIds);
-                    }
-                    db.delete(columnFamilyHandleList.get(1), tagToDelete);
+        try {
+            Store store = getStore(config);
+            try (WriteBatch batch = new WriteBatch()) {
+                for (String tag : tags) {
+                    deleteTagIndex(store, batch, serializer, tag);
+                    deleteLegacyTagIndex(store, batch, serializer, tag);
                 }
+                store.db.write(store.writeOptions, batch);
+            }
+        } catch (RocksDBException e) {
+            LOG.error("Error occurred while deleting the data for tags:" + tags, e);
+        } finally {
+            trace.lap(CallTrace.Stage.IO, time);
+        }
+    }
+
+    /**
+     * Delete the recordings indexed under the tag, along with the index rows of all their other tags.
+     */
+    private void deleteTagIndex(Store store, WriteBatch batch, Serializer serializer, String tag)
+            throws RocksDBException {
+        byte[] prefix = tagPrefix(tag);
+        try (RocksIterator iterator = store.db.newIterator(store.tags)) {
+            for (iterator.seek(prefix); iterator.isValid(); iterator.next()) {
+                byte[] indexKey = iterator.key();
+                if (!startsWith(indexKey, prefix))
+                    break;
 
-                for(String scenarioToDelete : scenariosToDelete){
-                    db.delete(columnFamilyHandleList.get(0), scenarioToDelete.getBytes());
+                byte[] key = Arrays.copyOfRange(indexKey, prefix.length, indexKey.length);
+                byte[] value = store.db.get(store.scenarios, key);
+                if (value != null)
+                    deleteRecording(store, batch, key, value, serializer);
+                batch.delete(store.tags, indexKey);
+                if (batch.count() >= MAX_BATCH_SIZE) {
+                    store.db.write(store.writeOptions, batch);
+                    batch.clear();
                 }
-            } finally {
-                for (ColumnFamilyHandle columnFamilyHandle : columnFamilyHandleList) {
-                    columnFamilyHandle.close();
+            }
+        }
+    }
+
+    /**
+     * Delete the recordings that have expired by now, along with their rows in the tag index. The space is
+     * reclaimed by the database during compaction. Recordings without the expiry header (recorded by earlier
+     * versions) are kept until they are deleted, or dropped after the retention period when one is given.
+     *
+     * @param config
+     *      Configuration identifying the recordings
+     * @return
+     *      number of expired recordings deleted
+     */
+    public int purgeExpired(RecordingConfig config) {
+        long currentTime = System.currentTimeMillis();
+        int purged = 0;
+        try {
+            Store store = getStore(config);
+            try (WriteBatch batch = new WriteBatch();
+                 RocksIterator iterator = store.db.newIterator(store.scenarios)) {
+                for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+                    byte[] value = iterator.value();
+                    if (hasHeader(value) && expiryOf(value) < currentTime) {
+                        deleteRecording(store, batch, iterator.key(), value, config.getSerializer());
+                        purged++;
+                        if (batch.count() >= MAX_BATCH_SIZE) {
+                            store.db.write(store.writeOptions, batch);
+                            batch.clear();
+                        }
+                    }
                 }
+                store.db.write(store.writeOptions, batch);
             }
         } catch (RocksDBException e) {
-            LOG.error("Error occurred while deleting the data for tags:" + tags, e);
+            LOG.error("Error occurred while purging the expired data.", e);
+        }
+        return purged;
+    }
+
+    @Override
+    public void forEachUniqueId(RecordingConfig config, Consumer<String> action) {
+        try {
+            Store store = getStore(config);
+            try (RocksIterator iterator = store.db.newIterator(store.scenarios)) {
+                for (iterator.seekToFirst(); iterator.isValid(); iterator.next())
+                    action.accept(new String(iterator.key(), StandardCharsets.UTF_8));
+            }
+        } catch (RocksDBException e) {
+            throw new IllegalStateException("Recordings couldn't be enumerated.", e);
+        }
+    }
+
+    /**
+     * Earlier versions stored all the scenario ids of a tag as a single serialized set keyed by the tag.
+     */
+    private void deleteLegacyTagIndex(Store store, WriteBatch batch, Serializer serializer, String tag)
+            throws RocksDBException {
+        byte[] tagKey = tag.getBytes(StandardCharsets.UTF_8);
+        byte[] uniqueScenarioIds = store.db.get(store.tags, tagKey);
+        if (uniqueScenarioIds == null)
+            return;
+
+        HashSet<String> scenarioIds = serializer.deserialize(uniqueScenarioIds, HashSet.class);
+        if (scenarioIds != null) {
+            for (String scenarioId : scenarioIds)
+                batch.delete(store.scenarios, scenarioId.getBytes(StandardCharsets.UTF_8));
+        }
+        batch.delete(store.tags, tagKey);
+    }
+
+    /**
+     * The scenario is serialized right after the header, without building the serialized string.
+     */
+    private static byte[] serializeWithHeader(Scenario scenario, Serializer serializer) throws IOException {
+        long expiry = NO_EXPIRY;
+        if (scenario.getMetadata() != null && scenario.getMetadata().getExpiryTimeInMillis() != null)
+            expiry = scenario.getMetadata().getExpiryTimeInMillis();
+
+        ByteArrayOutputStream value = new ByteArrayOutputStream(1024);
+        value.write(VALUE_HEADER_FORMAT);
+        for (int i = Long.SIZE - 8; i >= 0; i -= 8)
+            value.write((int) (expiry >>> i));
+        serializer.serialize(scenario, value);
+        return value.toByteArray();
+    }
+
+    private static boolean hasHeader(byte[] value) {
+        return value.length >= VALUE_HEADER_LENGTH && value[0] == VALUE_HEADER_FORMAT;
+    }
+
+    private static long expiryOf(byte[] value) {
+        long expiry = 0;
+        for (int i = 1; i <= Long.BYTES; i++)
+            expiry = (expiry << 8) | (value[i] & 0xff);
+        return expiry;
+    }
+
+    /**
+     * Index entries of a tag share the prefix {@code tag\0}, followed by the unique id of the scenario.
+     */
+    private static byte[] tagPrefix(String tag) {
+        byte[] tagBytes = tag.getBytes(StandardCharsets.UTF_8);
+        return Arrays.copyOf(tagBytes, tagBytes.length + 1);
+    }
+
+    private static byte[] tagIndexKey(byte[] prefix, byte[] key) {
+        byte[] indexKey = Arrays.copyOf(prefix, prefix.length + key.length);
+        System.arraycopy(key, 0, indexKey, prefix.length, key.length);
+        return indexKey;
+    }
+
+    private static boolean startsWith(byte[] bytes, byte[] prefix) {
+        if (bytes.length < prefix.length)
+            return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[i] != prefix[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Release the databases opened by this player. A database is closed once all the players using it
+     * have been closed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (OPEN_STORES) {
+            for (Store store : stores.values())
+                store.release();
+            stores.clear();
+        }
+    }
+
+    private Store getStore(RecordingConfig config) throws RocksDBException {
+        String path = config.getRecordingPath();
+        Store store = stores.get(path);
+        if (store != null)
+            return store;
+
+        synchronized (OPEN_STORES) {
+            if (closed)
+                throw new IllegalStateException("Record player is already closed.");
+
+            store = stores.get(path);
+            if (store == null) {
+                String location = new File(path).getAbsolutePath();
+                store = OPEN_STORES.get(location);
+                if (store == null) {
+                    store = Store.open(location, retentionSeconds);
+                    OPEN_STORES.put(location, store);
+                }
+                store.references++;
+                stores.put(path, store);
+            }
+            return store;
+        }
+    }
+
+    /**
+     * Database opened for a recording path along with its column family handles.
+     * Reference counting is guarded by {@link #OPEN_STORES}.
+     */
+    private static class Store {
+
+        private final String location;
+
+        private final RocksDB db;
+
+        private final ColumnFamilyHandle scenarios;
+
+        private final ColumnFamilyHandle tags;
+
+        private final List<ColumnFamilyHandle> handles;
+
+        private final WriteOptions writeOptions = new WriteOptions();
+
+        // Options are kept alive (and closed) along with the database
+        private final DBOptions options;
+
+        private final List<ColumnFamilyDescriptor> cfDescriptors;
+
+        private int references;
+
+        private Store(String location, RocksDB db, List<ColumnFamilyHandle> handles, DBOptions options,
+                      List<ColumnFamilyDescriptor> cfDescriptors) {
+            this.location = location;
+            this.db = db;
+            this.handles = handles;
+            this.options = options;
+            this.cfDescriptors = cfDescriptors;
+            this.scenarios = handles.get(0);
+            this.tags = handles.get(1);
+        }
+
+        static Store open(String location, int retentionSeconds) throws RocksDBException {
+            NativeLibrary.load();
+
+            List<ColumnFamilyDescriptor> cfDescriptors = Arrays.asList(
+                    new ColumnFamilyDescriptor(RocksDB.DEFAULT_COLUMN_FAMILY),
+                    new ColumnFamilyDescriptor(TAGS_COLUMN_FAMILY.getBytes(StandardCharsets.UTF_8))
+            );
+            List<Integer> ttlValues = Arrays.asList(retentionSeconds, retentionSeconds);
+            List<ColumnFamilyHandle> columnFamilyHandleList = new ArrayList<>();
+
+            DBOptions options = new DBOptions().setCreateIfMissing(true).setCreateMissingColumnFamilies(true);
+            try {
+                TtlDB db = TtlDB.open(options, location, cfDescriptors, columnFamilyHandleList, ttlValues, false);
+                LOG.info("Recording database opened. Path=" + location);
+                return new Store(location, db, columnFamilyHandleList, options, cfDescriptors);
+            } catch (RocksDBException | RuntimeException e) {
+                closeOptions(options, cfDescriptors);
+                throw e;
+            }
+        }
+
+        void release() {
+            if (--references > 0)
+                return;
+
+            OPEN_STORES.remove(location);
+            for (ColumnFamilyHandle columnFamilyHandle : handles) {
+                columnFamilyHandle.close();
+            }
+            db.close();
+            writeOptions.close();
+            closeOptions(options, cfDescriptors);
+            LOG.info("Recording database closed. Path=" + location);
+        }
+
+        private static void closeOptions(DBOptions options, List<ColumnFamilyDescriptor> cfDescriptors) {
+            for (ColumnFamilyDescriptor cfDescriptor : cfDescriptors) {
+                cfDescriptor.columnFamilyOptions().close();
+            }
+            options.close();
+        }
+    }
+
+    /**
+     * Loads the RocksDB native library on first use rather than on construction of the player.
+     */
+    private static class NativeLibrary {
+
+        static {
+            RocksDB.loadLibrary();
+        }
+
+        static void load() {
+            // class initialization loads the library
         }
     }
 }
@@ -0,0 +1,150 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.player;
+
+import com.compass.vinyl.utils.Utilities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * On-disk index of the recordings of each tag, kept in the {@code .tags} folder of a recording path. Each tag
+ * has an append-only log (named by the hash of the tag) holding the paths of the recordings, relative to the
+ * recording path, one per line.
+ *
+ * Entries are only added. A recording that was deleted or recorded again without the tag stays in the log
+ * until the tag is invalidated, so the caller verifies the entries against the recordings. Logs are locked
+ * while being written or drained, both within the process and across processes.
+ */
+class FileTagIndex {
+
+    private static final String INDEX_FOLDER = ".tags";
+
+    private static final String LOG_EXTENSION = ".tag";
+
+    // Present once the index covers all the recordings of the recording path
+    private static final String COMPLETE_MARKER = "complete";
+
+    private static final Object[] LOCKS = new Object[64];
+
+    static {
+        for (int i = 0; i < LOCKS.length; i++)
+            LOCKS[i] = new Object();
+    }
+
+    private final Path root;
+
+    private final Path folder;
+
+    FileTagIndex(Path root) {
+        this.root = root.toAbsolutePath();
+        this.folder = root.resolve(INDEX_FOLDER);
+    }
+
+    /**
+     * @return whether the index has entries for all the recordings, which isn't the case for the recordings
+     *      made before the index was introduced.
+     */
+    boolean isComplete() {
+        return Files.exists(folder.resolve(COMPLETE_MARKER));
+    }
+
+    void markComplete() throws IOException {
+        Files.createDirectories(folder);
+        if (!isComplete())
+            Files.createFile(folder.resolve(COMPLETE_MARKER));
+    }
+
+    void add(Collection<String> tags, Path recording) throws IOException {
+        byte[] entry = (root.relativize(recording.toAbsolutePath()).toString() + '\n').getBytes(StandardCharsets.UTF_8);
+        Files.createDirectories(folder);
+        for (String tag : tags) {
+            Path log = logOf(tag);
+            synchronized (lockOf(log)) {
+                try (FileChannel channel = FileChannel.open(log, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    FileLock lock = channel.lock();
+                    try {
+                        ByteBuffer buffer = ByteBuffer.wrap(entry);
+                        while (buffer.hasRemaining())
+                            channel.write(buffer);
+                    } finally {
+                        lock.release();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove all the entries of the tag, once the action has been applied to each of them. The log is locked
+     * until then, and left as is when the action fails, so an entry is never lost before it has been handled.
+     *
+     * @param tag
+     *      Tag whose entries are drained
+     * @param action
+     *      Applied to the paths of the recordings that had the tag, some of which might no longer exist or
+     *      have the tag
+     */
+    void drain(String tag, RecordingAction action) throws IOException {
+        Path log = logOf(tag);
+        synchronized (lockOf(log)) {
+            FileChannel channel;
+            try {
+                channel = FileChannel.open(log, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } catch (NoSuchFileException e) {
+                return;
+            }
+
+            try {
+                FileLock lock = channel.lock();
+                try {
+                    ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+                    while (buffer.hasRemaining()) {
+                        if (channel.read(buffer) < 0)
+                            break;
+                    }
+
+                    Set<Path> recordings = new LinkedHashSet<>();
+                    for (String entry : new String(buffer.array(), StandardCharsets.UTF_8).split("\n")) {
+                        if (!entry.isEmpty())
+                            recordings.add(root.resolve(entry));
+                    }
+                    for (Path recording : recordings)
+                        action.accept(recording);
+                    channel.truncate(0);
+                } finally {
+                    lock.release();
+                }
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Action applied to a recording drained from the index.
+     */
+    interface RecordingAction {
+
+        void accept(Path recording) throws IOException;
+    }
+
+    private Path logOf(String tag) {
+        return folder.resolve(Utilities.md5(tag) + LOG_EXTENSION);
+    }
+
+    private static Object lockOf(Path log) {
+        return LOCKS[(log.toAbsolutePath().hashCode() & Integer.MAX_VALUE) % LOCKS.length];
+    }
+}
@@ -5,25 +5,64 @@ package com.compass.vinyl.player;
 import com.compass.vinyl.RecordingConfig;
 import com.compass.vinyl.Scenario;
 import com.compass.vinyl.ScenarioMetadata;
+import com.compass.vinyl.metrics.CallTrace;
 import com.compass.vinyl.serializer.Serializer;
 import com.compass.vinyl.utils.Utilities;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.charset.Charset;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.nio.file.attribute.UserDefinedFileAttributeView;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * This record player uses local file system as the storage mechanism with each scenario being
  * hashed out and stored as files. The organization of the data is by creating folder for each of
  * the source and method specified in scenario.
+ * Batch playback reads the files in parallel on a bounded pool of threads owned by the player.
+ *
+ * A recording is replaced by writing a new file and moving it in place, so a recording that is being read
+ * (possibly memory mapped, as per the {@link ReadMode}) is never truncated underneath the reader.
+ *
+ * When memory mapped, the mappings of the recordings played back are kept and reused as long as the file is
+ * the same (identity, size and modification time), so a playback costs a stat call instead of mapping the
+ * file. Recording or deleting a scenario through the player drops its mapping, and a recording replaced by
+ * any other writer is mapped again on its next playback. Small recordings are read rather than mapped.
+ *
+ * The recordings of each tag are indexed on disk as they are recorded, so deleting by tags only visits the
+ * recordings having the tags. Recording paths populated before the index was introduced are indexed by
+ * walking all the recordings on the first delete by tags.
+ *
+ * When the writes are synced, each recorded file is synced before being moved in place, and the folders of
+ * the recordings are synced once for all the scenarios recorded together.
  */
 public class LocalFileSystemRecordPlayer implements RecordPlayer {
 
@@ -37,36 +76,146 @@ public class LocalFileSystemRecordPlayer implements RecordPlayer {
 
     private static final int MAX_SOURCE_LENGTH = 255;
 
+    private static final int DEFAULT_READ_THREADS = Math.min(8, Runtime.getRuntime().availableProcessors());
+
+    // Below this size a recording is read, as mapping it costs more than reading it
+    private static final int MIN_MAPPED_SIZE = 16 * 1024;
+
+    // Upper bound on the mappings kept, a mapping is released once it is no longer referenced
+    private static final int MAX_MAPPINGS = 1024;
+
+    private final int readThreads;
+
+    private final ReadMode readMode;
+
+    private final boolean syncWrites;
+
+    private volatile ExecutorService readExecutor;
+
+    // Mappings of the recordings played back, keyed by the path of the recording
+    private final Map<Path, Mapping> mappings = new ConcurrentHashMap<>();
+
+    // Guarded by this
+    private boolean closed;
+
+    public LocalFileSystemRecordPlayer() {
+        this(DEFAULT_READ_THREADS);
+    }
+
+    /**
+     * @param readThreads
+     *      Maximum number of files read in parallel during a batch playback
+     */
+    public LocalFileSystemRecordPlayer(int readThreads) {
+        this(readThreads, ReadMode.BUFFERED);
+    }
+
+    /**
+     * @param readThreads
+     *      Maximum number of files read in parallel during a batch playback
+     * @param readMode
+     *      How the recorded files are read during a playback
+     */
+    public LocalFileSystemRecordPlayer(int readThreads, ReadMode readMode) {
+        this(readThreads, readMode, false);
+    }
+
+    /**
+     * @param readThreads
+     *      Maximum number of files read in parallel during a batch playback
+     * @param readMode
+     *      How the recorded files are read during a playback
+     * @param syncWrites
+     *      Whether a recording is synced to the storage device before the record call returns
+     */
+    public LocalFileSystemRecordPlayer(int readThreads, ReadMode readMode, boolean syncWrites) {
+        if (readThreads < 1)
+            throw new IllegalArgumentException("At least one read thread is required.");
+        this.readThreads = readThreads;
+        this.readMode = readMode;
+        this.syncWrites = syncWrites;
+    }
+
     @Override
     public boolean record(Scenario scenario, RecordingConfig config) {
+        return recordAll(Collections.singletonList(scenario), config);
+    }
+
+    @Override
+    public boolean recordAll(Collection<Scenario> scenarios, RecordingConfig config) {
+        boolean status = true;
+        Set<Path> folders = new HashSet<>();
+        for (Scenario scenario : scenarios) {
+            status &= write(scenario, config, folders);
+        }
+        if (syncWrites) {
+            for (Path folder : folders)
+                syncFolder(folder);
+        }
+        return status;
+    }
+
+    private boolean write(Scenario scenario, RecordingConfig config, Set<Path> folders) {
         String filePath = getFilePath(scenario, config);
 
         Serializer serializer = config.getSerializer();
-        String serializedData = serializer.serialize(scenario);
 
-        String uniqueId = scenario.getUniqueId(serializer);
+        String uniqueId = scenario.getUniqueId(config);
 
+        CallTrace trace = CallTrace.current();
+        long time = trace.start();
         File file = new File(filePath);
 
         if (!file.exists()) {
+            // the tag index of a new recording path covers all its recordings from the start
+            Path recordingRoot = Paths.get(config.getRecordingPath());
+            boolean newRecordingPath = !Files.exists(recordingRoot);
             boolean created = file.mkdirs();
             if (created)
                 LOG.info("Scenario based folder created. Folder=" + file.getAbsolutePath());
             else
                 LOG.warn("Scenario based folder couldn't be created. Folder=" + file.getAbsolutePath());
+            if (created && newRecordingPath) {
+                try {
+                    new FileTagIndex(recordingRoot).markComplete();
+                } catch (IOException e) {
+                    LOG.warn("Tag index couldn't be marked complete, it's built on first use. Folder="
+                            + recordingRoot.toAbsolutePath(), e);
+                }
+            }
         }
 
         String filepath = file.getAbsoluteFile() + File.separator + uniqueId + VINYL_EXTENSION;
-        try (
-                FileWriter fw = new FileWriter(filepath);
-                BufferedWriter bw = new BufferedWriter(fw)
-        ) {
-            bw.write(serializedData);
-            if (scenario.getMetadata() != null)
+        Path tempPath = null;
+        try {
+            tempPath = Files.createTempFile(file.toPath(), uniqueId, ".tmp");
+            // serialized straight into the file, without building the serialized string
+            try (FileOutputStream fos = new FileOutputStream(tempPath.toFile())) {
+                time = trace.lap(CallTrace.Stage.IO, time);
+                serializer.serialize(scenario, fos);
+                time = trace.lap(CallTrace.Stage.SERIALIZE, time);
+                if (syncWrites)
+                    fos.getFD().sync();
+            }
+            Files.move(tempPath, Paths.get(filepath), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            mappings.remove(Paths.get(filePath, uniqueId + VINYL_EXTENSION));
+            folders.add(file.getAbsoluteFile().toPath());
+            if (scenario.getMetadata() == null) {
+                // metadata of an earlier recording would still carry its tags
+                Files.deleteIfExists(Paths.get(filepath + META_SUFFIX));
+            } else {
                 storeMetadataForFile(Paths.get(filepath + META_SUFFIX), scenario.getMetadata(), serializer);
+                if (scenario.getMetadata().getTags() != null && !scenario.getMetadata().getTags().isEmpty())
+                    new FileTagIndex(Paths.get(config.getRecordingPath()))
+                            .add(scenario.getMetadata().getTags(), Paths.get(filepath));
+            }
         } catch (IOException e) {
             LOG.error("Error occurred while writing the data.", e);
+            deleteQuietly(tempPath);
             return false;
+        } finally {
+            trace.lap(CallTrace.Stage.IO, time);
         }
 
         return true;
@@ -81,10 +230,15 @@ public class LocalFileSystemRecordPlayer implements RecordPlayer {
                 UserDefinedFileAttributeView view = Files
                         .getFileAttributeView(pathHandle, UserDefinedFileAttributeView.class);
                 view.write(ATTR_TAG,
-                        Charset.defaultCharset().encode(String.join(",", tags)));
+                        StandardCharsets.UTF_8.encode(String.join(",", tags)));
             } else {
-                Files.write(pathHandle, serializer.serialize(metadata).getBytes(), StandardOpenOption.CREATE,
-                        StandardOpenOption.TRUNCATE_EXISTING);
+                byte[] serializedMetadata = serializer.serializeToBytes(metadata);
+                if (syncWrites)
+                    Files.write(pathHandle, serializedMetadata, StandardOpenOption.CREATE,
+                            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE, StandardOpenOption.DSYNC);
+                else
+                    Files.write(pathHandle, serializedMetadata, StandardOpenOption.CREATE,
+                            StandardOpenOption.TRUNCATE_EXISTING);
             }
         } catch (IOException e) {
             LOG.error("Error occurred while writing the metadata.", e);
@@ -94,8 +248,7 @@ public class LocalFileSystemRecordPlayer implements RecordPlayer {
     private ScenarioMetadata retrieveMetadataForFile(Path pathHandle, Serializer serializer) {
         try {
             if (Files.exists(pathHandle)) {
-                String metadata = new String(Files.readAllBytes(pathHandle));
-                return serializer.deserialize(metadata, ScenarioMetadata.class);
+                return serializer.deserialize(Files.readAllBytes(pathHandle), ScenarioMetadata.class);
             }
         } catch (IOException | SecurityException e) {
             LOG.error("Error occurred while reading the metadata.", e);
@@ -108,39 +261,201 @@ public class LocalFileSystemRecordPlayer implements RecordPlayer {
 
         // Step-1: Get/Seek the serialized data based on the scenario
         String filePath = getFilePath(scenario, config);
-        String uniqueId = scenario.getUniqueId(config.getSerializer());
+        String uniqueId = scenario.getUniqueId(config);
 
-        File file = new File(filePath + File.separator + uniqueId + VINYL_EXTENSION);
-        String serializedData = null;
+        Path path = Paths.get(filePath, uniqueId + VINYL_EXTENSION);
 
-        // Step-2: If file exists get the recorded data
-        if (file.exists()) {
-            try {
-                serializedData = new String(Files.readAllBytes(Paths.get(file.getAbsolutePath())));
-            } catch (IOException e) {
-                LOG.error("Error occurred while retrieving the data.", e);
-                return null;
+        // Step-2: If file exists get the recorded data and deserialize it using the configured serializer
+        CallTrace trace = CallTrace.current();
+        long time = trace.start();
+        try {
+            Scenario recordedScenario;
+            if (readMode == ReadMode.MEMORY_MAPPED) {
+                ByteBuffer serializedData = map(path);
+                time = trace.lap(CallTrace.Stage.IO, time);
+                recordedScenario = config.getSerializer().deserialize(serializedData, Scenario.class);
+            }
+            else {
+                byte[] serializedData = Files.readAllBytes(path);
+                time = trace.lap(CallTrace.Stage.IO, time);
+                recordedScenario = config.getSerializer().deserialize(serializedData, Scenario.class);
             }
+            trace.lap(CallTrace.Stage.DESERIALIZE, time);
+            return recordedScenario;
+        } catch (NoSuchFileException e) {
+            trace.lap(CallTrace.Stage.IO, time);
+            return null;
+        } catch (IOException e) {
+            LOG.error("Error occurred while retrieving the data.", e);
+            return null;
+        }
+    }
+
+    /**
+     * The mapping stays valid after the channel is closed, and the file is never modified in place, hence the
+     * mapping is reused until the file at the path is replaced. Each caller gets its own view of the mapping.
+     */
+    private ByteBuffer map(Path path) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        Mapping mapping = mappings.get(path);
+        if (mapping != null && mapping.isOf(attributes))
+            return mapping.buffer.duplicate();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < MIN_MAPPED_SIZE) {
+                mappings.remove(path);
+                ByteBuffer buffer = ByteBuffer.allocate((int) size);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) < 0)
+                        break;
+                }
+                buffer.flip();
+                return buffer;
+            }
+
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (mappings.size() >= MAX_MAPPINGS) {
+                Iterator<Path> paths = mappings.keySet().iterator();
+                if (paths.hasNext()) {
+                    paths.next();
+                    paths.remove();
+                }
+            }
+            mappings.put(path, new Mapping(attributes, buffer));
+            return buffer.duplicate();
+        }
+    }
+
+    /**
+     * Mapping of a recording along with the attributes identifying the file mapped.
+     */
+    private static class Mapping {
+
+        private final Object fileKey;
+
+        private final long size;
+
+        private final FileTime lastModifiedTime;
+
+        private final ByteBuffer buffer;
+
+        Mapping(BasicFileAttributes attributes, ByteBuffer buffer) {
+            this.fileKey = attributes.fileKey();
+            this.size = attributes.size();
+            this.lastModifiedTime = attributes.lastModifiedTime();
+            this.buffer = buffer;
+        }
+
+        boolean isOf(BasicFileAttributes attributes) {
+            return Objects.equals(fileKey, attributes.fileKey()) && size == attributes.size()
+                    && lastModifiedTime.equals(attributes.lastModifiedTime());
+        }
+    }
+
+    /**
+     * Sync the entries of the folder, making the files moved into it durable. Not every platform allows
+     * syncing a folder, hence a failure is only logged.
+     */
+    private static void syncFolder(Path folder) {
+        try (FileChannel channel = FileChannel.open(folder, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            LOG.debug("Folder couldn't be synced. Folder=" + folder, e);
         }
+    }
 
-        // Step-2: Deserialize the data using the configured serializer
-        if (serializedData != null)
-            return config.getSerializer().deserialize(serializedData, Scenario.class);
-        return null;
+    private static void deleteQuietly(Path path) {
+        if (path == null)
+            return;
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            LOG.warn("Temporary file couldn't be deleted. File path is:" + path, e);
+        }
+    }
+
+    @Override
+    public List<Scenario> playbackAll(Collection<Scenario> scenarios, RecordingConfig config) {
+        if (scenarios.size() <= 1 || readThreads == 1)
+            return RecordPlayer.super.playbackAll(scenarios, config);
+
+        ExecutorService executor = getReadExecutor();
+        List<CompletableFuture<Scenario>> playbacks = new ArrayList<>(scenarios.size());
+        try {
+            for (Scenario scenario : scenarios)
+                playbacks.add(CompletableFuture.supplyAsync(() -> playback(scenario, config), executor));
+        } catch (RejectedExecutionException e) {
+            // closed while the batch was being submitted
+            throw new IllegalStateException("Record player is already closed.", e);
+        }
+
+        List<Scenario> recordedScenarios = new ArrayList<>(scenarios.size());
+        try {
+            for (CompletableFuture<Scenario> playback : playbacks)
+                recordedScenarios.add(playback.join());
+        } catch (CompletionException e) {
+            // surface the failure of a playback as it would be without the batch
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+        return recordedScenarios;
+    }
+
+    /**
+     * Stop the threads reading the batches, the batch playbacks then fail with an {@link IllegalStateException}.
+     */
+    @Override
+    public void close() {
+        ExecutorService executor;
+        synchronized (this) {
+            closed = true;
+            executor = readExecutor;
+            readExecutor = null;
+        }
+        mappings.clear();
+        if (executor != null)
+            executor.shutdown();
+    }
+
+    private ExecutorService getReadExecutor() {
+        ExecutorService executor = readExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                if (closed)
+                    throw new IllegalStateException("Record player is already closed.");
+                executor = readExecutor;
+                if (executor == null) {
+                    AtomicInteger threadCount = new AtomicInteger();
+                    ThreadPoolExecutor pool = new ThreadPoolExecutor(readThreads, readThreads,
+                            30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                                Thread thread = new Thread(runnable, "vinyl-file-reader-" + threadCount.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                            });
+                    pool.allowCoreThreadTimeOut(true);
+                    readExecutor = executor = pool;
+                }
+            }
+        }
+        return executor;
     }
 
     @Override
     public void delete(Scenario scenario, RecordingConfig config) {
         // Step-1: Seek the recorded data based on the scenario
         String filePath = getFilePath(scenario, config);
-        String uniqueId = scenario.getUniqueId(config.getSerializer());
+        String uniqueId = scenario.getUniqueId(config);
 
         String recordingPath = filePath + File.separator + uniqueId + VINYL_EXTENSION;
         File file = new File(recordingPath);
 
-        // Step-2: If exists delete the file
+        // Step-2: If exists delete the file along with its metadata, which leaves its tag index entries stale
         if (file.exists()) {
+            mappings.remove(Paths.get(recordingPath));
             try {
+                Files.deleteIfExists(Paths.get(recordingPath + META_SUFFIX));
                 boolean status = file.delete();
                 if (!status)
                     LOG.warn("File not deleted. File path is:" + recordingPath);
@@ -152,35 +467,84 @@ public class LocalFileSystemRecordPlayer implements RecordPlayer {
 
     @Override
     public void deleteByTags(List<String> tags, RecordingConfig config) {
-        String path = config.getRecordingPath();
-        List<Path> filesToDelete = new ArrayList<>();
+        FileTagIndex tagIndex = new FileTagIndex(Paths.get(config.getRecordingPath()));
+        CallTrace trace = CallTrace.current();
+        long time = trace.start();
 
         try {
-            Files.find(Paths.get(path),
-                    10,
-                    (filePath, fileAttr) -> fileAttr.isRegularFile())
-                    .forEach(it -> {
-                        if (it.toString().endsWith(META_SUFFIX)) {
-                            ScenarioMetadata metadata = retrieveMetadataForFile(it, config.getSerializer());
-                            if (metadata != null && metadata.getTags() != null) {
-                                List<String> tagList = new ArrayList<>(metadata.getTags());
-                                tagList.retainAll(tags);
-                                if (!tagList.isEmpty()) {
-                                    filesToDelete.add(it);
-                                    filesToDelete.add(Paths.get(it.toString().replace(META_SUFFIX, "")));
-                                }
-                            }
-                        }
-                    });
-
-            for (Path file : filesToDelete) {
-                if (Files.exists(file))
-                    Files.delete(file);
+            if (!tagIndex.isComplete())
+                rebuildTagIndex(tagIndex, config);
+
+            for (String tag : tags) {
+                tagIndex.drain(tag, file -> {
+                    // the index might still have the recordings deleted or recorded again without the tag
+                    Path metaFile = Paths.get(file.toString() + META_SUFFIX);
+                    if (!Files.exists(metaFile))
+                        return;
+                    ScenarioMetadata metadata = retrieveMetadataForFile(metaFile, config.getSerializer());
+                    if (metadata == null) {
+                        LOG.warn("Metadata couldn't be read, the recording is skipped. File=" + metaFile);
+                        return;
+                    }
+                    if (metadata.getTags() != null && metadata.getTags().contains(tag)) {
+                        Files.deleteIfExists(metaFile);
+                        Files.deleteIfExists(file);
+                    }
+                });
             }
         } catch (IOException e) {
             LOG.error("Error occurred while deleting the data for tags:" + tags, e);
+        } finally {
+            // the index holds absolute paths, which might not be the paths the recordings are mapped by
+            mappings.clear();
+            trace.lap(CallTrace.Stage.IO, time);
         }
+    }
 
+    @Override
+    public void forEachUniqueId(RecordingConfig config, Consumer<String> action) {
+        Path path = Paths.get(config.getRecordingPath());
+        if (!Files.exists(path))
+            return;
+
+        try (Stream<Path> files = Files.find(path, 10,
+                (filePath, fileAttr) -> fileAttr.isRegularFile() && filePath.toString().endsWith(VINYL_EXTENSION))) {
+            files.forEach(file -> {
+                String name = file.getFileName().toString();
+                action.accept(name.substring(0, name.length() - VINYL_EXTENSION.length()));
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Index the tags of all the existing recordings.
+     */
+    private void rebuildTagIndex(FileTagIndex tagIndex, RecordingConfig config) throws IOException {
+        Path path = Paths.get(config.getRecordingPath());
+        if (!Files.exists(path))
+            return;
+
+        LOG.info("Building the tag index of the recordings. Folder=" + path.toAbsolutePath());
+        List<Path> metaFiles = new ArrayList<>();
+        try (Stream<Path> files = Files.find(path, 10,
+                (filePath, fileAttr) -> fileAttr.isRegularFile() && filePath.toString().endsWith(META_SUFFIX))) {
+            files.forEach(metaFiles::add);
+        }
+
+        for (Path metaFile : metaFiles) {
+            ScenarioMetadata metadata = retrieveMetadataForFile(metaFile, config.getSerializer());
+            if (metadata == null) {
+                LOG.warn("Metadata couldn't be read, the recording isn't indexed. File=" + metaFile);
+                continue;
+            }
+            if (metadata.getTags() != null && !metadata.getTags().isEmpty()) {
+                String file = metaFile.toString();
+                tagIndex.add(metadata.getTags(), Paths.get(file.substring(0, file.length() - META_SUFFIX.length())));
+            }
+        }
+        tagIndex.markComplete();
     }
 
     private String getFilePath(Scenario scenario, RecordingConfig config) {
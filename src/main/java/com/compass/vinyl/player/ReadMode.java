@@ -0,0 +1,21 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.player;
+
+/**
+ * How a record player reads the recordings from the file system.
+ */
+public enum ReadMode {
+
+    /**
+     * Recordings are read into the heap with read calls.
+     */
+    BUFFERED,
+
+    /**
+     * Recordings are memory mapped and deserialized straight from the mapping, so a recording in the page
+     * cache is played back without a read call or a copy of its bytes into the heap. The mappings are reused
+     * across playbacks, and recordings too small to be worth mapping are read as buffered.
+     */
+    MEMORY_MAPPED
+}
@@ -4,13 +4,18 @@ package com.compass.vinyl.player;
 
 import com.compass.vinyl.RecordingConfig;
 import com.compass.vinyl.Scenario;
+import com.compass.vinyl.ScenarioMetadata;
+import com.compass.vinyl.metrics.CallTrace;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Interface for different types of storing and retrieving scenario data
  */
-public interface RecordPlayer {
+public interface RecordPlayer extends AutoCloseable {
 
     /**
      * Record the scenario with a status indicating success of the operation.
@@ -38,6 +43,92 @@ public interface RecordPlayer {
      */
     Scenario playback(Scenario scenario, RecordingConfig config);
 
+    /**
+     * Playback the scenario only if the recording hasn't expired (as per {@link ScenarioMetadata}) at the
+     * given time. Players that store the expiry apart from the serialized scenario can override this to
+     * reject an expired recording without deserializing it.
+     *
+     * @param scenario
+     *      Scenario to be played back. This contains all details expect the output data.
+     * @param config
+     *      Configuration to be used while recording the scenario including the source storage
+     * @param currentTimeInMillis
+     *      Time against which the expiry of the recording is checked
+     * @return
+     *      Scenario that was recorded for this inputs, null if it is missing or expired
+     */
+    default Scenario playbackIfNotExpired(Scenario scenario, RecordingConfig config, long currentTimeInMillis) {
+        return playbackIfNotExpired(scenario, config, currentTimeInMillis, () -> {});
+    }
+
+    /**
+     * Playback the scenario only if the recording hasn't expired, as in
+     * {@link #playbackIfNotExpired(Scenario, RecordingConfig, long)}, telling an expired recording apart from a
+     * missing one. Players that reject expired recordings themselves override this one.
+     *
+     * @param scenario
+     *      Scenario to be played back. This contains all details expect the output data.
+     * @param config
+     *      Configuration to be used while recording the scenario including the source storage
+     * @param currentTimeInMillis
+     *      Time against which the expiry of the recording is checked
+     * @param onExpired
+     *      Run when the recording was found but had expired
+     * @return
+     *      Scenario that was recorded for this inputs, null if it is missing or expired
+     */
+    default Scenario playbackIfNotExpired(Scenario scenario, RecordingConfig config, long currentTimeInMillis,
+                                          Runnable onExpired) {
+        Scenario recordedScenario = playback(scenario, config);
+        CallTrace trace = CallTrace.current();
+        long time = trace.start();
+        boolean expired = recordedScenario != null && recordedScenario.getMetadata() != null
+                && recordedScenario.getMetadata().isExpired(currentTimeInMillis);
+        trace.lap(CallTrace.Stage.EXPIRY, time);
+        if (expired)
+            onExpired.run();
+        return expired ? null : recordedScenario;
+    }
+
+    /**
+     * Record all the scenarios with a status indicating success of the operation. Players can override this
+     * to amortize the cost of storage access across the scenarios.
+     *
+     * @param scenarios
+     *      Scenarios to be recorded by the player
+     * @param config
+     *      Configuration to be used while recording the scenarios including the source storage
+     *
+     * @return
+     *      status of recording all the scenarios, false if any of them failed
+     */
+    default boolean recordAll(Collection<Scenario> scenarios, RecordingConfig config) {
+        boolean status = true;
+        for (Scenario scenario : scenarios) {
+            status &= record(scenario, config);
+        }
+        return status;
+    }
+
+    /**
+     * Playback all the scenarios. Players can override this to amortize the cost of storage access
+     * across the scenarios.
+     *
+     * @param scenarios
+     *      Scenarios to be played back.
+     * @param config
+     *      Configuration to be used while recording the scenario including the source storage
+     * @return
+     *      Recorded scenarios in the iteration order of the given scenarios, with null for the ones not recorded
+     */
+    default List<Scenario> playbackAll(Collection<Scenario> scenarios, RecordingConfig config) {
+        List<Scenario> recordedScenarios = new ArrayList<>(scenarios.size());
+        for (Scenario scenario : scenarios) {
+            recordedScenarios.add(playback(scenario, config));
+        }
+        return recordedScenarios;
+    }
+
     /**
      * Delete the specific scenario
      *
@@ -58,4 +149,26 @@ public interface RecordPlayer {
      */
     void deleteByTags(List<String> tags, RecordingConfig config);
 
+    /**
+     * Visit the unique ids of all the recorded scenarios, which lets decorators (like
+     * {@link BloomFilterRecordPlayer}) rebuild their state from the storage.
+     *
+     * @param config
+     *      Configuration identifying the recordings
+     * @param action
+     *      Invoked with the unique id of each recorded scenario
+     * @throws UnsupportedOperationException
+     *      if the player can't enumerate its recordings
+     */
+    default void forEachUniqueId(RecordingConfig config, Consumer<String> action) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " can't enumerate the recordings.");
+    }
+
+    /**
+     * Release the resources (open handles, threads) held by the player. The player shouldn't be used
+     * after it is closed. Players that don't hold any resources needn't override this.
+     */
+    @Override
+    default void close() {
+    }
 }
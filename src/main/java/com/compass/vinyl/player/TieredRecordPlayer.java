@@ -0,0 +1,688 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.player;
+
+import com.compass.vinyl.Data;
+import com.compass.vinyl.RecordingConfig;
+import com.compass.vinyl.Scenario;
+import com.compass.vinyl.ScenarioMetadata;
+import com.compass.vinyl.utils.FrequencySketch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * This record player keeps the recently used scenarios in memory, over another player which holds all the
+ * recordings. A scenario played back from memory is returned as it was recorded (or played back from the
+ * underlying player), without reaching the storage or deserializing it again. Scenarios played back from the
+ * underlying player are promoted to memory.
+ *
+ * The memory held is bounded by the total weight of the scenarios, an estimate of their size in memory unless
+ * another {@link Weigher} is given. When the bound is exceeded, the least recently used scenario is evicted, unless
+ * it has been used more often of late than the scenario being added, in which case the latter isn't kept.
+ * The usage is estimated by a {@link FrequencySketch}, so a burst of scenarios used once doesn't flush the
+ * scenarios used over and over.
+ *
+ * Recordings are written through to the underlying player, or written back once evicted (and on
+ * {@link #flush()} and close), see {@link WriteMode}. An evicted scenario is written back by the call that
+ * evicted it once the locks are released, and is played back from memory until then. Deletes apply to both tiers. Hit ratios of each tier
+ * are available through {@link #getMemoryTierStats()} and {@link #getPlayerTierStats()}.
+ */
+public class TieredRecordPlayer implements RecordPlayer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RecordPlayer.class);
+
+    private static final long DEFAULT_MAXIMUM_WEIGHT = 64 * 1024 * 1024L;
+
+    // Weight assumed of a scenario to size the frequency sketch
+    private static final long EXPECTED_WEIGHT = 1024;
+
+    private static final int STRIPES = 64;
+
+    // Rough memory held by an object apart from its fields, in bytes
+    private static final int OBJECT_OVERHEAD = 32;
+
+    /**
+     * When the recordings reach the underlying player.
+     */
+    public enum WriteMode {
+
+        /**
+         * Record to the underlying player on the caller's thread, then keep the scenario in memory.
+         */
+        WRITE_THROUGH,
+
+        /**
+         * Keep the scenario in memory only, it is recorded to the underlying player when evicted, flushed or
+         * on close. The status of a record call is then always successful, the failure of the write is only
+         * logged. Recordings not yet written are lost if the process exits without closing the player.
+         */
+        WRITE_BACK
+    }
+
+    /**
+     * Weight of a scenario held in memory, in bytes.
+     */
+    public interface Weigher {
+
+        /**
+         * @return weight of the scenario, negative if it can't be weighed (in which case it isn't held)
+         */
+        long weigh(Scenario scenario, RecordingConfig config);
+    }
+
+    /**
+     * Weighs a scenario by its size when serialized with the serializer of the configuration.
+     */
+    public static final Weigher SERIALIZED_SIZE = (scenario, config) -> {
+        byte[] serializedData = config.getSerializer().serializeToBytes(scenario);
+        return serializedData == null ? -1 : serializedData.length;
+    };
+
+    /**
+     * Weighs a scenario by an estimate of its size in memory, without serializing it. A value that hasn't been
+     * decoded (as when played back) is weighed by the length of its serialized form, and a text by its length.
+     * Only the values of other types are serialized to be weighed.
+     */
+    public static final Weigher ESTIMATED_SIZE = TieredRecordPlayer::estimateSize;
+
+    private final RecordPlayer player;
+
+    private final long maximumWeight;
+
+    private final WriteMode writeMode;
+
+    private final Weigher weigher;
+
+    private final FrequencySketch sketch;
+
+    // Scenarios held in memory, keyed by recording path and unique id
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    // Held while changing the scenarios in memory
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    // Scenarios evicted but not written back yet, still held in entries
+    private final Map<String, Entry> evicted = new ConcurrentHashMap<>();
+
+    // Scenarios from the least to the most recently used, guarded by the eviction lock
+    private final LinkedHashMap<String, Entry> order = new LinkedHashMap<>(16, 0.75f, true);
+
+    // Guarded by the eviction lock
+    private long weight;
+
+    // Changed by each write of the scenarios of a stripe, so a promotion doesn't override a newer write
+    private final AtomicLongArray versions = new AtomicLongArray(STRIPES);
+
+    private final Object[] locks = new Object[STRIPES];
+
+    private final TierStats memoryTierStats = new TierStats();
+
+    private final TierStats playerTierStats = new TierStats();
+
+    public TieredRecordPlayer(RecordPlayer player) {
+        this(player, DEFAULT_MAXIMUM_WEIGHT, WriteMode.WRITE_THROUGH);
+    }
+
+    public TieredRecordPlayer(RecordPlayer player, long maximumWeight, WriteMode writeMode) {
+        this(player, maximumWeight, writeMode, ESTIMATED_SIZE);
+    }
+
+    /**
+     * @param player
+     *      Player holding all the recordings
+     * @param maximumWeight
+     *      Maximum total weight of the scenarios held in memory
+     * @param writeMode
+     *      When the recordings are written to the underlying player
+     * @param weigher
+     *      Weight of a scenario held in memory
+     */
+    public TieredRecordPlayer(RecordPlayer player, long maximumWeight, WriteMode writeMode, Weigher weigher) {
+        if (maximumWeight < 1)
+            throw new IllegalArgumentException("Maximum weight should be positive: " + maximumWeight);
+        this.player = player;
+        this.maximumWeight = maximumWeight;
+        this.writeMode = writeMode;
+        this.weigher = weigher;
+        this.sketch = new FrequencySketch(Math.max(1, maximumWeight / EXPECTED_WEIGHT));
+        for (int i = 0; i < STRIPES; i++)
+            locks[i] = new Object();
+    }
+
+    @Override
+    public boolean record(Scenario scenario, RecordingConfig config) {
+        String key = keyOf(scenario, config);
+        sketch.increment(key);
+        Entry entry = newEntry(scenario, config, writeMode == WriteMode.WRITE_BACK);
+
+        if (writeMode == WriteMode.WRITE_BACK && entry != null) {
+            Map<String, Entry> victims;
+            synchronized (lockOf(key)) {
+                versions.incrementAndGet(stripeOf(key));
+                victims = cache(key, entry);
+            }
+            writeBack(victims);
+            return true;
+        }
+
+        long version = invalidate(key);
+        boolean status = player.record(scenario, config);
+        if (entry != null)
+            admit(key, entry, version, status);
+        return status;
+    }
+
+    @Override
+    public boolean recordAll(Collection<Scenario> scenarios, RecordingConfig config) {
+        if (writeMode == WriteMode.WRITE_BACK) {
+            boolean status = true;
+            for (Scenario scenario : scenarios)
+                status &= record(scenario, config);
+            return status;
+        }
+
+        List<String> keys = new ArrayList<>(scenarios.size());
+        List<Entry> newEntries = new ArrayList<>(scenarios.size());
+        long[] recordVersions = new long[scenarios.size()];
+        for (Scenario scenario : scenarios) {
+            String key = keyOf(scenario, config);
+            sketch.increment(key);
+            invalidate(key);
+            keys.add(key);
+            newEntries.add(newEntry(scenario, config, false));
+        }
+        // taken once all are invalidated, as scenarios of the batch may share a stripe
+        for (int i = 0; i < keys.size(); i++)
+            recordVersions[i] = versions.get(stripeOf(keys.get(i)));
+
+        boolean status = player.recordAll(scenarios, config);
+        // each scenario held bumps the version of its stripe, which the next ones of the stripe expect
+        int[] admitted = new int[STRIPES];
+        for (int i = 0; i < keys.size(); i++) {
+            int stripe = stripeOf(keys.get(i));
+            if (newEntries.get(i) != null
+                    && admit(keys.get(i), newEntries.get(i), recordVersions[i] + admitted[stripe], status))
+                admitted[stripe]++;
+        }
+        return status;
+    }
+
+    @Override
+    public Scenario playback(Scenario scenario, RecordingConfig config) {
+        String key = keyOf(scenario, config);
+        Entry entry = lookup(key);
+        if (entry != null)
+            return entry.scenario;
+
+        long version = versions.get(stripeOf(key));
+        Scenario recordedScenario = player.playback(scenario, config);
+        playerTierStats.record(recordedScenario != null);
+        promote(key, recordedScenario, config, version);
+        return recordedScenario;
+    }
+
+    @Override
+    public Scenario playbackIfNotExpired(Scenario scenario, RecordingConfig config, long currentTimeInMillis,
+                                         Runnable onExpired) {
+        String key = keyOf(scenario, config);
+        Entry entry = lookup(key);
+        if (entry != null) {
+            if (entry.scenario.getMetadata() != null && entry.scenario.getMetadata().isExpired(currentTimeInMillis)) {
+                onExpired.run();
+                return null;
+            }
+            return entry.scenario;
+        }
+
+        long version = versions.get(stripeOf(key));
+        Scenario recordedScenario = player.playbackIfNotExpired(scenario, config, currentTimeInMillis, onExpired);
+        playerTierStats.record(recordedScenario != null);
+        promote(key, recordedScenario, config, version);
+        return recordedScenario;
+    }
+
+    @Override
+    public List<Scenario> playbackAll(Collection<Scenario> scenarios, RecordingConfig config) {
+        List<Scenario> recordedScenarios = new ArrayList<>(scenarios.size());
+        List<Integer> positions = new ArrayList<>();
+        List<Scenario> toPlayback = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        List<Long> playbackVersions = new ArrayList<>();
+        for (Scenario scenario : scenarios) {
+            String key = keyOf(scenario, config);
+            Entry entry = lookup(key);
+            if (entry == null) {
+                positions.add(recordedScenarios.size());
+                toPlayback.add(scenario);
+                keys.add(key);
+                playbackVersions.add(versions.get(stripeOf(key)));
+            }
+            recordedScenarios.add(entry != null ? entry.scenario : null);
+        }
+
+        if (!toPlayback.isEmpty()) {
+            List<Scenario> playedBack = player.playbackAll(toPlayback, config);
+            for (int i = 0; i < positions.size(); i++) {
+                Scenario recordedScenario = playedBack.get(i);
+                playerTierStats.record(recordedScenario != null);
+                promote(keys.get(i), recordedScenario, config, playbackVersions.get(i));
+                recordedScenarios.set(positions.get(i), recordedScenario);
+            }
+        }
+        return recordedScenarios;
+    }
+
+    @Override
+    public void delete(Scenario scenario, RecordingConfig config) {
+        String key = keyOf(scenario, config);
+        invalidate(key);
+        player.delete(scenario, config);
+        // drop the promotions of the recording played back while it was being deleted
+        invalidate(key);
+    }
+
+    @Override
+    public void deleteByTags(List<String> tags, RecordingConfig config) {
+        invalidateByTags(tags, config);
+        player.deleteByTags(tags, config);
+        invalidateByTags(tags, config);
+    }
+
+    /**
+     * The recordings are visited once the ones held in memory are written back.
+     */
+    @Override
+    public void forEachUniqueId(RecordingConfig config, Consumer<String> action) {
+        flush();
+        player.forEachUniqueId(config, action);
+    }
+
+    /**
+     * Write the recordings held in memory that weren't written to the underlying player yet.
+     */
+    public void flush() {
+        if (writeMode != WriteMode.WRITE_BACK)
+            return;
+
+        evictionLock.lock();
+        try {
+            Map<RecordingConfig, List<Entry>> dirtyEntries = new IdentityHashMap<>();
+            for (Entry entry : order.values()) {
+                if (entry.dirty)
+                    dirtyEntries.computeIfAbsent(entry.config, config -> new ArrayList<>()).add(entry);
+            }
+
+            for (Map.Entry<RecordingConfig, List<Entry>> group : dirtyEntries.entrySet()) {
+                List<Scenario> scenarios = new ArrayList<>(group.getValue().size());
+                for (Entry entry : group.getValue())
+                    scenarios.add(entry.scenario);
+                if (!player.recordAll(scenarios, group.getKey())) {
+                    LOG.error("Writing back the scenarios held in memory failed. Count=" + scenarios.size());
+                    continue;
+                }
+                for (Entry entry : group.getValue())
+                    entry.dirty = false;
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+        // the ones evicted by calls still in progress
+        writeBack(new HashMap<>(evicted));
+    }
+
+    /**
+     * Write back the recordings held in memory and close the underlying player.
+     */
+    @Override
+    public void close() {
+        flush();
+        player.close();
+    }
+
+    /**
+     * @return playbacks served from memory
+     */
+    public TierStats getMemoryTierStats() {
+        return memoryTierStats;
+    }
+
+    /**
+     * @return playbacks that reached the underlying player, after missing the memory
+     */
+    public TierStats getPlayerTierStats() {
+        return playerTierStats;
+    }
+
+    /**
+     * @return total weight of the scenarios held in memory
+     */
+    public long getWeight() {
+        evictionLock.lock();
+        try {
+            return weight;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private Entry lookup(String key) {
+        sketch.increment(key);
+        Entry entry = entries.get(key);
+        memoryTierStats.record(entry != null);
+        // the usage order is only updated when the lock is free, an entry skipped now is moved on a later use
+        if (entry != null && evictionLock.tryLock()) {
+            try {
+                order.get(key);
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+        return entry;
+    }
+
+    private Entry newEntry(Scenario scenario, RecordingConfig config, boolean dirty) {
+        long scenarioWeight;
+        try {
+            scenarioWeight = weigher.weigh(scenario, config);
+        } catch (RuntimeException e) {
+            LOG.warn("Scenario couldn't be weighed, it isn't held in memory.", e);
+            return null;
+        }
+        if (scenarioWeight < 0 || scenarioWeight > maximumWeight)
+            return null;
+        return new Entry(scenario, config, scenarioWeight, dirty);
+    }
+
+    /**
+     * Hold the scenario played back from the underlying player in memory, unless the scenario was written
+     * since the playback.
+     */
+    private void promote(String key, Scenario recordedScenario, RecordingConfig config, long version) {
+        if (recordedScenario == null)
+            return;
+        Entry entry = newEntry(recordedScenario, config, false);
+        if (entry == null)
+            return;
+        Map<String, Entry> victims = Collections.emptyMap();
+        synchronized (lockOf(key)) {
+            if (versions.get(stripeOf(key)) == version)
+                victims = cache(key, entry);
+        }
+        writeBack(victims);
+    }
+
+    /**
+     * Hold the recorded scenario in memory, unless another write of the stripe overlapped the recording, in
+     * which case the underlying player might hold either of the writes and the scenario is left to be
+     * promoted on the next playback. The version of the stripe is bumped when the scenario is held, so a
+     * playback that read the previous recording before the write can't promote it over this one.
+     *
+     * @return whether the scenario is held in memory
+     */
+    private boolean admit(String key, Entry entry, long version, boolean recorded) {
+        Map<String, Entry> victims;
+        synchronized (lockOf(key)) {
+            if (!recorded || versions.get(stripeOf(key)) != version) {
+                invalidate(key);
+                return false;
+            }
+            versions.incrementAndGet(stripeOf(key));
+            victims = cache(key, entry);
+        }
+        writeBack(victims);
+        return true;
+    }
+
+    /**
+     * @return version of the stripe after the invalidation
+     */
+    private long invalidate(String key) {
+        synchronized (lockOf(key)) {
+            long version = versions.incrementAndGet(stripeOf(key));
+            evictionLock.lock();
+            try {
+                Entry entry = order.remove(key);
+                if (entry != null)
+                    weight -= entry.weight;
+                // along with a scenario evicted but not written back yet
+                entries.remove(key);
+                evicted.remove(key);
+            } finally {
+                evictionLock.unlock();
+            }
+            return version;
+        }
+    }
+
+    private void invalidateByTags(List<String> tags, RecordingConfig config) {
+        for (int i = 0; i < STRIPES; i++)
+            versions.incrementAndGet(i);
+
+        evictionLock.lock();
+        try {
+            Iterator<Map.Entry<String, Entry>> iterator = order.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Entry> next = iterator.next();
+                Entry entry = next.getValue();
+                if (!entry.config.getRecordingPath().equals(config.getRecordingPath()) || !hasAnyTag(entry, tags))
+                    continue;
+                iterator.remove();
+                entries.remove(next.getKey(), entry);
+                weight -= entry.weight;
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+
+        // a write back in progress is waited for, so the underlying player deletes what it wrote
+        for (Map.Entry<String, Entry> victim : evicted.entrySet()) {
+            Entry entry = victim.getValue();
+            if (!entry.config.getRecordingPath().equals(config.getRecordingPath()) || !hasAnyTag(entry, tags))
+                continue;
+            synchronized (lockOf(victim.getKey())) {
+                entries.remove(victim.getKey(), entry);
+                evicted.remove(victim.getKey(), entry);
+            }
+        }
+    }
+
+    private static boolean hasAnyTag(Entry entry, List<String> tags) {
+        if (tags.isEmpty())
+            return true;
+        if (entry.scenario.getMetadata() == null || entry.scenario.getMetadata().getTags() == null)
+            return false;
+        for (String tag : tags) {
+            if (entry.scenario.getMetadata().getTags().contains(tag))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the evicted scenarios to be written back by the caller, see {@link #writeBack(Map)}
+     */
+    private Map<String, Entry> cache(String key, Entry entry) {
+        evictionLock.lock();
+        try {
+            Entry previous = order.put(key, entry);
+            entries.put(key, entry);
+            weight += entry.weight - (previous != null ? previous.weight : 0);
+            return evict(key);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Evict the least recently used scenarios until the weight is within the bound. The scenario just added
+     * is evicted instead when it has been used less often than the victim. The evicted scenarios not written
+     * to the underlying player yet are kept for playback until written back.
+     *
+     * @return the evicted scenarios to be written back
+     */
+    private Map<String, Entry> evict(String candidate) {
+        Map<String, Entry> victims = Collections.emptyMap();
+        while (weight > maximumWeight) {
+            String victim = order.keySet().iterator().next();
+            if (candidate != null && !victim.equals(candidate)
+                    && sketch.frequency(candidate) <= sketch.frequency(victim))
+                victim = candidate;
+            if (victim.equals(candidate))
+                candidate = null;
+
+            Entry entry = order.remove(victim);
+            weight -= entry.weight;
+            if (entry.dirty) {
+                if (victims.isEmpty())
+                    victims = new LinkedHashMap<>();
+                victims.put(victim, entry);
+                evicted.put(victim, entry);
+            } else {
+                entries.remove(victim, entry);
+            }
+        }
+        return victims;
+    }
+
+    /**
+     * Write back the evicted scenarios and drop them from memory, skipping the ones recorded again or deleted
+     * in the meantime. Called without holding any lock. Each scenario is written under the lock of its stripe,
+     * so a later write or delete of the scenario waits for it.
+     */
+    private void writeBack(Map<String, Entry> victims) {
+        for (Map.Entry<String, Entry> victim : victims.entrySet()) {
+            String key = victim.getKey();
+            Entry entry = victim.getValue();
+            synchronized (lockOf(key)) {
+                if (entries.get(key) == entry) {
+                    if (!player.record(entry.scenario, entry.config))
+                        LOG.error("Writing back the evicted scenario failed. Source=" + entry.scenario.getSource()
+                                + ", method=" + entry.scenario.getMethod());
+                    entries.remove(key, entry);
+                }
+                evicted.remove(key, entry);
+            }
+        }
+    }
+
+    private static long estimateSize(Scenario scenario, RecordingConfig config) {
+        long size = OBJECT_OVERHEAD + sizeOf(scenario.getSource()) + sizeOf(scenario.getMethod());
+        if (scenario.getInputs() != null) {
+            for (Data input : scenario.getInputs()) {
+                long inputSize = sizeOf(input, config);
+                if (inputSize < 0)
+                    return -1;
+                size += inputSize;
+            }
+        }
+        long outputSize = sizeOf(scenario.getOutput(), config);
+        if (outputSize < 0)
+            return -1;
+        size += outputSize;
+
+        ScenarioMetadata metadata = scenario.getMetadata();
+        if (metadata != null) {
+            size += OBJECT_OVERHEAD;
+            if (metadata.getTags() != null) {
+                for (String tag : metadata.getTags())
+                    size += sizeOf(tag);
+            }
+        }
+        return size;
+    }
+
+    private static long sizeOf(Data data, RecordingConfig config) {
+        if (data == null)
+            return 0;
+        long size = OBJECT_OVERHEAD + sizeOf(data.getName()) + sizeOf(data.getTypeInfo());
+        int encodedLength = data.getEncodedLength();
+        if (encodedLength >= 0)
+            return size + encodedLength;
+
+        Object value = data.getValue();
+        if (value == null || value instanceof Number || value instanceof Boolean || value instanceof Character)
+            return size + OBJECT_OVERHEAD;
+        if (value instanceof CharSequence)
+            return size + sizeOf((CharSequence) value);
+        if (value instanceof byte[])
+            return size + OBJECT_OVERHEAD + ((byte[]) value).length;
+        byte[] serializedValue = config.getSerializer().serializeToBytes(value);
+        return serializedValue == null ? -1 : size + serializedValue.length;
+    }
+
+    private static long sizeOf(CharSequence text) {
+        return text == null ? 0 : OBJECT_OVERHEAD + 2L * text.length();
+    }
+
+    private Object lockOf(String key) {
+        return locks[stripeOf(key)];
+    }
+
+    private static int stripeOf(String key) {
+        return (key.hashCode() & Integer.MAX_VALUE) % STRIPES;
+    }
+
+    private static String keyOf(Scenario scenario, RecordingConfig config) {
+        return config.getRecordingPath() + '\0' + scenario.getUniqueId(config);
+    }
+
+    private static class Entry {
+
+        final Scenario scenario;
+
+        final RecordingConfig config;
+
+        final long weight;
+
+        // Set until the scenario is written to the underlying player, guarded by the eviction lock
+        boolean dirty;
+
+        Entry(Scenario scenario, RecordingConfig config, long weight, boolean dirty) {
+            this.scenario = scenario;
+            this.config = config;
+            this.weight = weight;
+            this.dirty = dirty;
+        }
+    }
+
+    /**
+     * Hits and misses of the playbacks reaching a tier.
+     */
+    public static class TierStats {
+
+        private final LongAdder hits = new LongAdder();
+
+        private final LongAdder misses = new LongAdder();
+
+        void record(boolean hit) {
+            if (hit)
+                hits.increment();
+            else
+                misses.increment();
+        }
+
+        public long getHits() {
+            return hits.sum();
+        }
+
+        public long getMisses() {
+            return misses.sum();
+        }
+
+        /**
+         * @return share of the playbacks that were hits, 0 when there were none
+         */
+        public double getHitRatio() {
+            long hitCount = hits.sum();
+            long total = hitCount + misses.sum();
+            return total == 0 ? 0 : (double) hitCount / total;
+        }
+    }
+}
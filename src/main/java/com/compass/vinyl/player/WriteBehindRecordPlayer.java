@@ -0,0 +1,441 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.player;
+
+import com.compass.vinyl.RecordingConfig;
+import com.compass.vinyl.Scenario;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This record player takes the writes off the caller's thread. Recordings and deletes are queued and written
+ * to the underlying player by a single writer thread, which groups the queued recordings into one
+ * {@link RecordPlayer#recordAll(Collection, RecordingConfig)} call per configuration. Only the latest of the
+ * queued recordings of a scenario is written.
+ *
+ * A playback sees the queued writes, so a scenario can be played back as soon as it is recorded. The status
+ * of a record call is the status of queueing the recording, the failure of the write itself is only logged.
+ * When the queue is full the {@link OverflowPolicy} applies. Closing the player writes all the queued
+ * recordings before closing the underlying player, writes and flushes then fail with an
+ * {@link IllegalStateException}.
+ */
+public class WriteBehindRecordPlayer implements RecordPlayer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RecordPlayer.class);
+
+    private static final int DEFAULT_QUEUE_CAPACITY = 10_000;
+
+    private static final int DEFAULT_MAX_GROUP_SIZE = 500;
+
+    private static final long FLUSH_TIMEOUT_IN_MILLIS = 60 * 1000;
+
+    // Queued on close, the writer thread stops once it is written
+    private static final Write STOP = new Write(new CountDownLatch(1));
+
+    /**
+     * What a record (or delete) does when the queue is full.
+     */
+    public enum OverflowPolicy {
+
+        /**
+         * Wait for the queue to have space.
+         */
+        BLOCK,
+
+        /**
+         * Drop the recording, failing the record call.
+         */
+        DROP,
+
+        /**
+         * Write the recording on the caller's thread.
+         */
+        CALLER_RUNS
+    }
+
+    private final RecordPlayer player;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final int maxGroupSize;
+
+    private final BlockingQueue<Write> queue;
+
+    // Latest queued write of each scenario, keyed by recording path and unique id
+    private final Map<String, Write> pending = new ConcurrentHashMap<>();
+
+    // Held while writing to the underlying player, so writes of a scenario land in the order they were made
+    private final Object writeLock = new Object();
+
+    private final Thread writer;
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    // Read-held while queueing, write-held while closing, so nothing is queued behind the stop of the writer
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+    public WriteBehindRecordPlayer(RecordPlayer player) {
+        this(player, DEFAULT_QUEUE_CAPACITY, DEFAULT_MAX_GROUP_SIZE, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * @param player
+     *      Player the recordings are written to
+     * @param queueCapacity
+     *      Maximum number of writes waiting to be written
+     * @param maxGroupSize
+     *      Maximum number of writes handled by the writer thread at once
+     * @param overflowPolicy
+     *      What a record does when the queue is full
+     */
+    public WriteBehindRecordPlayer(RecordPlayer player, int queueCapacity, int maxGroupSize,
+                                   OverflowPolicy overflowPolicy) {
+        if (queueCapacity < 1 || maxGroupSize < 1)
+            throw new IllegalArgumentException("Queue capacity and group size should be positive.");
+        this.player = player;
+        this.overflowPolicy = overflowPolicy;
+        this.maxGroupSize = maxGroupSize;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        writer = new Thread(this::writeQueued, "vinyl-write-behind");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public boolean record(Scenario scenario, RecordingConfig config) {
+        return enqueue(new Write(Write.Type.RECORD, scenario, config, keyOf(scenario, config)));
+    }
+
+    @Override
+    public Scenario playback(Scenario scenario, RecordingConfig config) {
+        Write write = pending.get(keyOf(scenario, config));
+        if (write != null)
+            return write.type == Write.Type.RECORD ? write.scenario : null;
+        return player.playback(scenario, config);
+    }
+
+    @Override
+    public Scenario playbackIfNotExpired(Scenario scenario, RecordingConfig config, long currentTimeInMillis,
+                                         Runnable onExpired) {
+        Write write = pending.get(keyOf(scenario, config));
+        if (write == null)
+            return player.playbackIfNotExpired(scenario, config, currentTimeInMillis, onExpired);
+        if (write.type == Write.Type.DELETE)
+            return null;
+        if (write.scenario.getMetadata() != null && write.scenario.getMetadata().isExpired(currentTimeInMillis)) {
+            onExpired.run();
+            return null;
+        }
+        return write.scenario;
+    }
+
+    @Override
+    public List<Scenario> playbackAll(Collection<Scenario> scenarios, RecordingConfig config) {
+        List<Scenario> recordedScenarios = new ArrayList<>(scenarios.size());
+        List<Integer> unresolved = new ArrayList<>();
+        List<Scenario> toPlayback = new ArrayList<>();
+        for (Scenario scenario : scenarios) {
+            Write write = pending.get(keyOf(scenario, config));
+            if (write == null) {
+                unresolved.add(recordedScenarios.size());
+                toPlayback.add(scenario);
+            }
+            recordedScenarios.add(write != null && write.type == Write.Type.RECORD ? write.scenario : null);
+        }
+
+        if (!toPlayback.isEmpty()) {
+            List<Scenario> playedBack = player.playbackAll(toPlayback, config);
+            for (int i = 0; i < unresolved.size(); i++)
+                recordedScenarios.set(unresolved.get(i), playedBack.get(i));
+        }
+        return recordedScenarios;
+    }
+
+    @Override
+    public void delete(Scenario scenario, RecordingConfig config) {
+        enqueue(new Write(Write.Type.DELETE, scenario, config, keyOf(scenario, config)));
+    }
+
+    /**
+     * Write the queued recordings before deleting the scenarios matching the tags.
+     */
+    @Override
+    public void deleteByTags(List<String> tags, RecordingConfig config) {
+        if (!flush())
+            LOG.warn("Queued writes weren't written in time, deleting the scenarios by tags anyway. Tags=" + tags);
+        synchronized (writeLock) {
+            player.deleteByTags(tags, config);
+        }
+    }
+
+    /**
+     * Wait for the writes queued so far to be written to the underlying player, for up to a minute.
+     *
+     * @return whether the writes were written in time
+     */
+    public boolean flush() {
+        CountDownLatch written = new CountDownLatch(1);
+        closeLock.readLock().lock();
+        try {
+            if (closed.get())
+                throw new IllegalStateException("Record player is already closed.");
+            queue.put(new Write(written));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            closeLock.readLock().unlock();
+        }
+
+        try {
+            return written.await(FLUSH_TIMEOUT_IN_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Write all the queued recordings and close the underlying player.
+     */
+    @Override
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            if (!closed.compareAndSet(false, true))
+                return;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+
+        try {
+            queue.put(STOP);
+            writer.join();
+            failUnwritten();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        player.close();
+    }
+
+    /**
+     * Release the writes left in the queue once the writer thread stopped, none are expected as nothing is
+     * queued once closed.
+     */
+    private void failUnwritten() {
+        List<Write> unwritten = new ArrayList<>();
+        queue.drainTo(unwritten);
+        for (Write write : unwritten) {
+            if (write.written != null) {
+                write.written.countDown();
+            } else {
+                pending.remove(write.key, write);
+                LOG.error("Write queued after the record player was closed is dropped. Source="
+                        + write.scenario.getSource() + ", method=" + write.scenario.getMethod());
+            }
+        }
+    }
+
+    private boolean enqueue(Write write) {
+        closeLock.readLock().lock();
+        try {
+            if (closed.get())
+                throw new IllegalStateException("Record player is already closed.");
+
+            // published to the playbacks before being queued, so the writer thread finds it pending
+            Write previous = pending.put(write.key, write);
+            if (overflowPolicy != OverflowPolicy.BLOCK) {
+                if (queue.offer(write)) {
+                    write.queued = true;
+                    return true;
+                }
+                if (overflowPolicy == OverflowPolicy.CALLER_RUNS)
+                    return writeOnCaller(write);
+
+                LOG.warn("Write queue is full, dropping the write of the scenario. Source="
+                        + write.scenario.getSource() + ", method=" + write.scenario.getMethod());
+                unpublish(write, previous);
+                return false;
+            }
+
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    // the writer thread keeps taking from the queue until closed, which waits for this put
+                    queue.put(write);
+                    write.queued = true;
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+            return true;
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Withdraw a write that couldn't be queued, making the previous write of the scenario pending again unless
+     * it was written in the meantime. The previous write isn't skipped as superseded by a write never queued.
+     */
+    private void unpublish(Write write, Write previous) {
+        if (previous == null) {
+            pending.remove(write.key, write);
+            return;
+        }
+        // the writer thread marks a write handled before dropping it from the pending writes
+        if (pending.replace(write.key, write, previous) && previous.handled)
+            pending.remove(previous.key, previous);
+    }
+
+    /**
+     * Write on the caller's thread. The queued writes of the scenario are superseded by this write, hence
+     * skipped by the writer thread.
+     */
+    private boolean writeOnCaller(Write write) {
+        synchronized (writeLock) {
+            pending.put(write.key, write);
+            try {
+                if (write.type == Write.Type.DELETE) {
+                    player.delete(write.scenario, write.config);
+                    return true;
+                }
+                return player.record(write.scenario, write.config);
+            } finally {
+                write.handled = true;
+                pending.remove(write.key, write);
+            }
+        }
+    }
+
+    private void writeQueued() {
+        List<Write> group = new ArrayList<>(maxGroupSize);
+        boolean stopped = false;
+        while (!stopped) {
+            Write first;
+            try {
+                first = queue.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+
+            synchronized (writeLock) {
+                group.add(first);
+                queue.drainTo(group, maxGroupSize - 1);
+                stopped = group.contains(STOP);
+                try {
+                    write(group);
+                } catch (RuntimeException e) {
+                    LOG.error("Error occurred while writing the queued scenarios.", e);
+                } finally {
+                    for (Write write : group) {
+                        write.handled = true;
+                        if (write.written != null)
+                            write.written.countDown();
+                        else
+                            pending.remove(write.key, write);
+                    }
+                    group.clear();
+                }
+            }
+        }
+    }
+
+    private void write(List<Write> group) {
+        RecordingConfig batchConfig = null;
+        List<Scenario> batch = new ArrayList<>();
+        for (Write write : group) {
+            if (write.written != null || isSuperseded(write))
+                continue;
+
+            if (write.type == Write.Type.RECORD && (batchConfig == null || batchConfig == write.config)) {
+                batchConfig = write.config;
+                batch.add(write.scenario);
+                continue;
+            }
+
+            recordBatch(batch, batchConfig);
+            batchConfig = null;
+            if (write.type == Write.Type.RECORD) {
+                batchConfig = write.config;
+                batch.add(write.scenario);
+            } else {
+                player.delete(write.scenario, write.config);
+            }
+        }
+        recordBatch(batch, batchConfig);
+    }
+
+    /**
+     * A write is superseded by a later write of the scenario, which stays pending until written, once the
+     * later write is queued. A later write that might yet be dropped doesn't supersede it.
+     */
+    private boolean isSuperseded(Write write) {
+        Write current = pending.get(write.key);
+        return current != write && (current == null || current.queued);
+    }
+
+    private void recordBatch(List<Scenario> batch, RecordingConfig config) {
+        if (batch.isEmpty())
+            return;
+        if (!player.recordAll(batch, config))
+            LOG.error("Recording of the queued scenarios failed. Count=" + batch.size());
+        batch.clear();
+    }
+
+    private static String keyOf(Scenario scenario, RecordingConfig config) {
+        return config.getRecordingPath() + '\0' + scenario.getUniqueId(config);
+    }
+
+    private static class Write {
+
+        enum Type { RECORD, DELETE }
+
+        final Type type;
+
+        final Scenario scenario;
+
+        final RecordingConfig config;
+
+        final String key;
+
+        // Set for a marker write, counted down once the writes queued before it are written
+        final CountDownLatch written;
+
+        // Set once the write is in the queue
+        volatile boolean queued;
+
+        // Set once the write has been written, or skipped by the writer thread
+        volatile boolean handled;
+
+        Write(Type type, Scenario scenario, RecordingConfig config, String key) {
+            this.type = type;
+            this.scenario = scenario;
+            this.config = config;
+            this.key = key;
+            this.written = null;
+        }
+
+        Write(CountDownLatch written) {
+            this.type = null;
+            this.scenario = null;
+            this.config = null;
+            this.key = null;
+            this.written = written;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.serializer;
+
+import com.compass.vinyl.Scenario;
+import com.compass.vinyl.ScenarioMetadata;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+
+/**
+ * Serializes the scenarios in <a href="https://github.com/FasterXML/smile-format-specification">Smile</a>,
+ * the binary counterpart of JSON, with the same mapper configuration as the {@link JSONSerializer}. Property
+ * names and short string values (such as the class names written for the polymorphic values) are written
+ * once per recording and referenced afterwards, which keeps the recordings compact and quick to parse.
+ *
+ * Binary data starts with the Smile header, so the format of a recording is detected when reading it: data
+ * without the header is read as JSON. Recording paths populated with the {@link JSONSerializer} can hence be
+ * switched to this serializer, the existing recordings are played back and replaced by binary ones as they
+ * are recorded again. The unique ids are derived from the JSON representation, so they don't change with
+ * the switch.
+ *
+ * The string based methods produce and read JSON, since binary data can't be held in a string.
+ */
+public class BinarySerializer implements Serializer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Serializer.class);
+
+    // Smile header ":)\n", followed by a byte of version and flags
+    private static final byte[] HEADER = {':', ')', '\n'};
+
+    private static final BinarySerializer INSTANCE = new BinarySerializer();
+
+    private final Codecs codecs;
+
+    private BinarySerializer() {
+        SmileFactory factory = SmileFactory.builder()
+                .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+                .build();
+        ObjectMapper mapper = JSONSerializer.configure(new ObjectMapper(factory));
+        codecs = new Codecs(mapper, Scenario.class, ScenarioMetadata.class, HashSet.class);
+    }
+
+    public static BinarySerializer getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public String serialize(Object data) {
+        return JSONSerializer.getInstance().serialize(data);
+    }
+
+    @Override
+    public void serialize(Object data, OutputStream out) throws IOException {
+        codecs.writer(data).writeValue(out, data);
+    }
+
+    @Override
+    public byte[] serializeToBytes(Object data) {
+        byte[] serializedData = null;
+        try {
+            serializedData = codecs.writer(data).writeValueAsBytes(data);
+        } catch (IOException e) {
+            LOG.error("Error occurred while serializing the data.", e);
+        }
+        return serializedData;
+    }
+
+    @Override
+    public <T> T deserialize(String serializedData, Class<T> type) {
+        return JSONSerializer.getInstance().deserialize(serializedData, type);
+    }
+
+    @Override
+    public <T> T deserialize(byte[] serializedData, Class<T> type) {
+        if (!hasHeader(ByteBuffer.wrap(serializedData)))
+            return JSONSerializer.getInstance().deserialize(serializedData, type);
+
+        T data = null;
+        try {
+            data = codecs.reader(type).readValue(serializedData);
+        } catch (IOException e) {
+            LOG.error("Error occurred while deserializing the data.", e);
+        }
+        return data;
+    }
+
+    @Override
+    public <T> T deserialize(ByteBuffer serializedData, Class<T> type) {
+        if (!hasHeader(serializedData))
+            return JSONSerializer.getInstance().deserialize(serializedData, type);
+
+        T data = null;
+        try {
+            if (serializedData.hasArray())
+                data = codecs.reader(type).readValue(serializedData.array(),
+                        serializedData.arrayOffset() + serializedData.position(), serializedData.remaining());
+            else
+                data = codecs.reader(type).readValue(new ByteBufferBackedInputStream(serializedData.duplicate()));
+        } catch (IOException e) {
+            LOG.error("Error occurred while deserializing the data.", e);
+        }
+        return data;
+    }
+
+    /**
+     * The stream is buffered to detect the format, hence it may be read past the serialized data.
+     */
+    @Override
+    public <T> T deserialize(InputStream in, Class<T> type) throws IOException {
+        if (!in.markSupported())
+            in = new BufferedInputStream(in);
+
+        in.mark(HEADER.length);
+        byte[] header = new byte[HEADER.length];
+        int read = 0;
+        while (read < header.length) {
+            int count = in.read(header, read, header.length - read);
+            if (count < 0)
+                break;
+            read += count;
+        }
+        in.reset();
+
+        if (read < header.length || !hasHeader(ByteBuffer.wrap(header)))
+            return JSONSerializer.getInstance().deserialize(in, type);
+
+        return codecs.reader(type).readValue(in);
+    }
+
+    /**
+     * Unique ids are derived from the JSON representation, the same as with the {@link JSONSerializer}.
+     */
+    @Override
+    public Serializer getKeySerializer() {
+        return JSONSerializer.getInstance();
+    }
+
+    private static boolean hasHeader(ByteBuffer serializedData) {
+        if (serializedData.remaining() < HEADER.length)
+            return false;
+        for (int i = 0; i < HEADER.length; i++) {
+            if (serializedData.get(serializedData.position() + i) != HEADER[i])
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,57 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.serializer;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Readers and writers of a mapper, built once per type. A reader or writer built for a type resolves its
+ * (de)serializer up front, sparing the lookup on every call. Streams are left open by both.
+ */
+final class Codecs {
+
+    private final ObjectMapper mapper;
+
+    private final ObjectWriter untypedWriter;
+
+    private final Map<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+
+    private final Map<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+
+    /**
+     * @param types
+     *      Types the readers and writers are built for right away
+     */
+    Codecs(ObjectMapper mapper, Class<?>... types) {
+        this.mapper = mapper;
+        this.untypedWriter = mapper.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        for (Class<?> type : types) {
+            reader(type);
+            writers.computeIfAbsent(type, this::buildWriter);
+        }
+    }
+
+    ObjectReader reader(Class<?> type) {
+        return readers.computeIfAbsent(type, t -> mapper.readerFor(t).without(JsonParser.Feature.AUTO_CLOSE_SOURCE));
+    }
+
+    /**
+     * @return writer for the runtime type of the value
+     */
+    ObjectWriter writer(Object value) {
+        if (value == null)
+            return untypedWriter;
+        return writers.computeIfAbsent(value.getClass(), this::buildWriter);
+    }
+
+    private ObjectWriter buildWriter(Class<?> type) {
+        return mapper.writerFor(type).without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+}
@@ -0,0 +1,321 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.serializer;
+
+import com.compass.vinyl.Data;
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Deserializes {@link Data} leaving the value in its serialized form, to be decoded on first access.
+ *
+ * When the JSON being read is given as the {@link Source} attribute, the value is kept as the bytes it spans,
+ * which the parser skips over without decoding. Otherwise the tokens of the value are buffered, sparing the
+ * binding of the value to objects.
+ */
+class DataDeserializer extends StdDeserializer<Data> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Serializer.class);
+
+    private final ObjectMapper mapper;
+
+    private volatile ObjectReader valueReader;
+
+    DataDeserializer(ObjectMapper mapper) {
+        super(Data.class);
+        this.mapper = mapper;
+    }
+
+    @Override
+    public Data deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        Source source = (Source) ctxt.getAttribute(Source.class);
+        String typeInfo = null;
+        String name = null;
+        Data.EncodedValue value = null;
+
+        JsonToken token = p.currentToken();
+        if (token == JsonToken.START_OBJECT)
+            token = p.nextToken();
+        while (token == JsonToken.FIELD_NAME) {
+            String field = p.getCurrentName();
+            p.nextToken();
+            if ("value".equals(field)) {
+                long start = p.getTokenLocation().getByteOffset();
+                if (source != null && start >= 0) {
+                    p.skipChildren();
+                    token = p.nextToken();
+                    value = source.slice(start, endOf(p.getTokenLocation()), this);
+                    continue;
+                }
+                value = new BufferedValue(ctxt.bufferAsCopyOfValue(p), this);
+            } else if ("typeInfo".equals(field)) {
+                typeInfo = p.getValueAsString();
+            } else if ("name".equals(field)) {
+                name = p.getValueAsString();
+            } else {
+                p.skipChildren();
+            }
+            token = p.nextToken();
+        }
+        return Data.ofEncoded(name, typeInfo, value);
+    }
+
+    private static long endOf(JsonLocation nextToken) throws IOException {
+        long end = nextToken.getByteOffset();
+        if (end < 0)
+            throw new IOException("Location of the value couldn't be determined.");
+        return end;
+    }
+
+    /**
+     * Created on first use, once the configuration of the mapper is complete.
+     */
+    private ObjectReader valueReader() {
+        ObjectReader reader = valueReader;
+        if (reader == null)
+            valueReader = reader = mapper.readerFor(Object.class);
+        return reader;
+    }
+
+    /**
+     * JSON being deserialized, either an array or a buffer which isn't backed by an array.
+     */
+    static final class Source {
+
+        private final byte[] bytes;
+
+        private final int offset;
+
+        private final ByteBuffer buffer;
+
+        Source(byte[] bytes, int offset) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.buffer = null;
+        }
+
+        Source(ByteBuffer buffer) {
+            this.bytes = null;
+            this.offset = 0;
+            this.buffer = buffer.duplicate();
+        }
+
+        /**
+         * @param end
+         *      Offset of the token following the value
+         */
+        RawValue slice(long start, long end, DataDeserializer deserializer) {
+            int from = (int) start;
+            int to = (int) end;
+            if (bytes != null) {
+                from += offset;
+                to += offset;
+                while (to > from && isSeparator(bytes[to - 1]))
+                    to--;
+                return new RawValue(bytes, from, to, deserializer);
+            }
+
+            // the buffer might be a mapping, which isn't kept beyond the deserialization
+            byte[] copy = new byte[to - from];
+            ByteBuffer value = buffer.duplicate();
+            value.position(buffer.position() + from);
+            value.get(copy);
+            to = copy.length;
+            while (to > 0 && isSeparator(copy[to - 1]))
+                to--;
+            return new RawValue(copy, 0, to, deserializer);
+        }
+
+        private static boolean isSeparator(byte b) {
+            return b == ',' || b == ' ' || b == '\n' || b == '\r' || b == '\t';
+        }
+    }
+
+    /**
+     * Value kept as the JSON bytes it spans.
+     */
+    private static final class RawValue implements Data.EncodedValue {
+
+        private final byte[] bytes;
+
+        private final int from;
+
+        private final int to;
+
+        private final DataDeserializer deserializer;
+
+        RawValue(byte[] bytes, int from, int to, DataDeserializer deserializer) {
+            this.bytes = bytes;
+            this.from = from;
+            this.to = to;
+            this.deserializer = deserializer;
+        }
+
+        @Override
+        public Object decode() {
+            Object value = null;
+            try {
+                value = deserializer.valueReader().readValue(bytes, from, to - from);
+            } catch (IOException e) {
+                LOG.error("Error occurred while deserializing the value.", e);
+            }
+            return value;
+        }
+
+        @Override
+        public byte[] stringBytes() {
+            if (to - from < 2 || bytes[from] != '"' || bytes[to - 1] != '"')
+                return null;
+            return unescape(bytes, from + 1, to - 1);
+        }
+
+        @Override
+        public int length() {
+            return to - from;
+        }
+    }
+
+    /**
+     * Value kept as the tokens it was parsed into.
+     */
+    private static final class BufferedValue implements Data.EncodedValue {
+
+        private final TokenBuffer tokens;
+
+        private final DataDeserializer deserializer;
+
+        BufferedValue(TokenBuffer tokens, DataDeserializer deserializer) {
+            this.tokens = tokens;
+            this.deserializer = deserializer;
+        }
+
+        @Override
+        public Object decode() {
+            Object value = null;
+            try (JsonParser parser = tokens.asParser()) {
+                value = deserializer.valueReader().readValue(parser);
+            } catch (IOException e) {
+                LOG.error("Error occurred while deserializing the value.", e);
+            }
+            return value;
+        }
+
+        @Override
+        public byte[] stringBytes() {
+            try (JsonParser parser = tokens.asParser()) {
+                if (parser.nextToken() == JsonToken.VALUE_STRING)
+                    return parser.getText().getBytes(StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                LOG.error("Error occurred while deserializing the value.", e);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Decode the contents of a JSON string straight into UTF-8. Characters other than the escaped ones are
+     * already UTF-8, an unpaired surrogate is replaced as the string encoder would.
+     *
+     * @return UTF-8 bytes of the string, null if the string is malformed
+     */
+    static byte[] unescape(byte[] bytes, int from, int to) {
+        int escape = from;
+        while (escape < to && bytes[escape] != '\\')
+            escape++;
+        if (escape == to)
+            return Arrays.copyOfRange(bytes, from, to);
+
+        // an escape sequence never decodes to more bytes than it spans
+        byte[] text = new byte[to - from];
+        int length = escape - from;
+        System.arraycopy(bytes, from, text, 0, length);
+        int i = escape;
+        while (i < to) {
+            byte b = bytes[i++];
+            if (b != '\\') {
+                text[length++] = b;
+                continue;
+            }
+            if (i == to)
+                return null;
+
+            switch (bytes[i++]) {
+                case '"': text[length++] = '"'; break;
+                case '\\': text[length++] = '\\'; break;
+                case '/': text[length++] = '/'; break;
+                case 'b': text[length++] = '\b'; break;
+                case 'f': text[length++] = '\f'; break;
+                case 'n': text[length++] = '\n'; break;
+                case 'r': text[length++] = '\r'; break;
+                case 't': text[length++] = '\t'; break;
+                case 'u': {
+                    int unit = hex(bytes, i, to);
+                    if (unit < 0)
+                        return null;
+                    i += 4;
+                    int codePoint = unit;
+                    if (Character.isHighSurrogate((char) unit) && i + 6 <= to
+                            && bytes[i] == '\\' && bytes[i + 1] == 'u') {
+                        int low = hex(bytes, i + 2, to);
+                        if (low >= 0 && Character.isLowSurrogate((char) low)) {
+                            codePoint = Character.toCodePoint((char) unit, (char) low);
+                            i += 6;
+                        }
+                    }
+                    if (codePoint <= 0xffff && Character.isSurrogate((char) codePoint))
+                        codePoint = '?';
+                    length = encode(codePoint, text, length);
+                    break;
+                }
+                default:
+                    return null;
+            }
+        }
+        return Arrays.copyOf(text, length);
+    }
+
+    private static int hex(byte[] bytes, int from, int to) {
+        if (from + 4 > to)
+            return -1;
+        int value = 0;
+        for (int i = from; i < from + 4; i++) {
+            int digit = Character.digit(bytes[i], 16);
+            if (digit < 0)
+                return -1;
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    private static int encode(int codePoint, byte[] text, int length) {
+        if (codePoint < 0x80) {
+            text[length++] = (byte) codePoint;
+        } else if (codePoint < 0x800) {
+            text[length++] = (byte) (0xc0 | (codePoint >> 6));
+            text[length++] = (byte) (0x80 | (codePoint & 0x3f));
+        } else if (codePoint < 0x10000) {
+            text[length++] = (byte) (0xe0 | (codePoint >> 12));
+            text[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+            text[length++] = (byte) (0x80 | (codePoint & 0x3f));
+        } else {
+            text[length++] = (byte) (0xf0 | (codePoint >> 18));
+            text[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+            text[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+            text[length++] = (byte) (0x80 | (codePoint & 0x3f));
+        }
+        return length;
+    }
+}
@@ -2,24 +2,57 @@
 
 package com.compass.vinyl.serializer;
 
+import com.compass.vinyl.Data;
+import com.compass.vinyl.Scenario;
+import com.compass.vinyl.ScenarioMetadata;
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.Module;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.jsontype.BasicPolymorphicTypeValidator;
 import com.fasterxml.jackson.databind.jsontype.PolymorphicTypeValidator;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
 import com.fasterxml.jackson.module.kotlin.KotlinModule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+
+/**
+ * Serializes the scenarios as JSON. Readers and writers are built once per type, those of the scenarios,
+ * their metadata and tag sets up front.
+ *
+ * The {@link #getTunedInstance() tuned instance} additionally generates the accessors of the serialized
+ * classes as bytecode when <a href="https://github.com/FasterXML/jackson-modules-base">Afterburner</a> is on
+ * the classpath. Both instances produce the same JSON.
+ */
 public class JSONSerializer implements Serializer {
 
+    private static final Logger LOG = LoggerFactory.getLogger(Serializer.class);
+
+    private static final String AFTERBURNER_MODULE = "com.fasterxml.jackson.module.afterburner.AfterburnerModule";
+
     private final ObjectMapper mapper;
 
-    private static JSONSerializer serializer;
+    private final Codecs codecs;
 
-    private JSONSerializer() {
-        mapper = new ObjectMapper();
+    private JSONSerializer(boolean tuned) {
+        mapper = configure(new ObjectMapper());
+        if (tuned)
+            registerAfterburner(mapper);
+        codecs = new Codecs(mapper, Scenario.class, ScenarioMetadata.class, HashSet.class);
+    }
 
+    /**
+     * Configuration of the mapper, shared with the {@link BinarySerializer} so both serialize the same way.
+     */
+    static ObjectMapper configure(ObjectMapper mapper) {
         PolymorphicTypeValidator typeValidator = BasicPolymorphicTypeValidator.builder()
                 .allowIfBaseType(Object.class)
                 .build();
@@ -29,24 +62,53 @@ public class JSONSerializer implements Serializer {
         mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
 
         mapper.registerModule(new KotlinModule());
+        mapper.registerModule(new SimpleModule().addDeserializer(Data.class, new DataDeserializer(mapper)));
+        return mapper;
     }
 
     public static JSONSerializer getInstance() {
-        if (serializer == null)
-            synchronized (JSONSerializer.class) {
-                if (serializer == null)
-                    serializer = new JSONSerializer();
-            }
-        return serializer;
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * @return serializer generating the accessors of the serialized classes as bytecode, which is the same as
+     *      {@link #getInstance()} when Afterburner isn't on the classpath
+     */
+    public static JSONSerializer getTunedInstance() {
+        return TunedHolder.INSTANCE;
+    }
+
+    private static void registerAfterburner(ObjectMapper mapper) {
+        try {
+            mapper.registerModule((Module) Class.forName(AFTERBURNER_MODULE).getDeclaredConstructor().newInstance());
+        } catch (ReflectiveOperationException | LinkageError e) {
+            LOG.warn("Afterburner isn't available, the tuned serializer uses reflection.", e);
+        }
     }
 
     @Override
     public String serialize(Object data) {
         String serializedData = null;
         try {
-            serializedData = mapper.writeValueAsString(data);
-        } catch (JsonProcessingException e) {
-            e.printStackTrace();
+            serializedData = codecs.writer(data).writeValueAsString(data);
+        } catch (IOException e) {
+            LOG.error("Error occurred while serializing the data.", e);
+        }
+        return serializedData;
+    }
+
+    @Override
+    public void serialize(Object data, OutputStream out) throws IOException {
+        codecs.writer(data).writeValue(out, data);
+    }
+
+    @Override
+    public byte[] serializeToBytes(Object data) {
+        byte[] serializedData = null;
+        try {
+            serializedData = codecs.writer(data).writeValueAsBytes(data);
+        } catch (IOException e) {
+            LOG.error("Error occurred while serializing the data.", e);
         }
         return serializedData;
     }
@@ -55,10 +117,57 @@ public class JSONSerializer implements Serializer {
     public <T> T deserialize(String serializedData, Class<T> type) {
         T data = null;
         try {
-            data = mapper.readValue(serializedData, type);
-        } catch (JsonProcessingException e) {
-            e.printStackTrace();
+            data = codecs.reader(type).readValue(serializedData);
+        } catch (IOException e) {
+            LOG.error("Error occurred while deserializing the data.", e);
+        }
+        return data;
+    }
+
+    @Override
+    public <T> T deserialize(byte[] serializedData, Class<T> type) {
+        T data = null;
+        try {
+            data = codecs.reader(type)
+                    .withAttribute(DataDeserializer.Source.class, new DataDeserializer.Source(serializedData, 0))
+                    .readValue(serializedData);
+        } catch (IOException e) {
+            LOG.error("Error occurred while deserializing the data.", e);
         }
         return data;
     }
+
+    @Override
+    public <T> T deserialize(ByteBuffer serializedData, Class<T> type) {
+        T data = null;
+        try {
+            if (serializedData.hasArray()) {
+                byte[] array = serializedData.array();
+                int offset = serializedData.arrayOffset() + serializedData.position();
+                data = codecs.reader(type)
+                        .withAttribute(DataDeserializer.Source.class, new DataDeserializer.Source(array, offset))
+                        .readValue(array, offset, serializedData.remaining());
+            } else {
+                data = codecs.reader(type)
+                        .withAttribute(DataDeserializer.Source.class, new DataDeserializer.Source(serializedData))
+                        .readValue(new ByteBufferBackedInputStream(serializedData.duplicate()));
+            }
+        } catch (IOException e) {
+            LOG.error("Error occurred while deserializing the data.", e);
+        }
+        return data;
+    }
+
+    @Override
+    public <T> T deserialize(InputStream in, Class<T> type) throws IOException {
+        return codecs.reader(type).readValue(in);
+    }
+
+    private static class Holder {
+        static final JSONSerializer INSTANCE = new JSONSerializer(false);
+    }
+
+    private static class TunedHolder {
+        static final JSONSerializer INSTANCE = new JSONSerializer(true);
+    }
 }
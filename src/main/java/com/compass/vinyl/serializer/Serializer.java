@@ -2,10 +2,71 @@
 
 package com.compass.vinyl.serializer;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serializes the scenarios (and their metadata) for the record players. Serialized data is always UTF-8 when
+ * handled as bytes.
+ *
+ * Only the string based methods have to be implemented, the byte and stream based methods fall back to them.
+ * Serializers that can read and write bytes directly should override those as well, so the players don't
+ * build an intermediate string for every recording.
+ */
 public interface Serializer {
 
-    // Non-Streaming Apis (TODO: use steaming api)
     String serialize(Object object);
 
     <T> T deserialize(String serializedData, Class<T> type);
+
+    /**
+     * Serialize the object as UTF-8 into the stream, which is left open.
+     */
+    default void serialize(Object object, OutputStream out) throws IOException {
+        out.write(serializeToBytes(object));
+    }
+
+    /**
+     * @return the object serialized as UTF-8
+     */
+    default byte[] serializeToBytes(Object object) {
+        return serialize(object).getBytes(StandardCharsets.UTF_8);
+    }
+
+    default <T> T deserialize(byte[] serializedData, Class<T> type) {
+        return deserialize(new String(serializedData, StandardCharsets.UTF_8), type);
+    }
+
+    /**
+     * Deserialize the UTF-8 encoded data between the position and the limit of the buffer. The position of
+     * the buffer is left unchanged.
+     */
+    default <T> T deserialize(ByteBuffer serializedData, Class<T> type) {
+        return deserialize(StandardCharsets.UTF_8.decode(serializedData.duplicate()).toString(), type);
+    }
+
+    /**
+     * Deserialize the UTF-8 encoded data read from the stream, which is left open.
+     */
+    default <T> T deserialize(InputStream in, Class<T> type) throws IOException {
+        ByteArrayOutputStream serializedData = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1)
+            serializedData.write(buffer, 0, read);
+        return deserialize(serializedData.toByteArray(), type);
+    }
+
+    /**
+     * @return serializer the unique ids of the scenarios are derived with. Serializers storing a different
+     *      representation of the same data can return the serializer of the original representation, so the
+     *      existing recordings keep their ids.
+     */
+    default Serializer getKeySerializer() {
+        return this;
+    }
 }
@@ -0,0 +1,122 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.utils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread safe Bloom filter of strings. A negative answer is definite, a positive answer is wrong with about
+ * the false positive probability the filter was sized for, as long as no more than the expected number of
+ * strings are added.
+ */
+public class BloomFilter {
+
+    private final AtomicLongArray words;
+
+    private final long bitCount;
+
+    private final int hashCount;
+
+    private final long capacity;
+
+    private BloomFilter(AtomicLongArray words, int hashCount, long capacity) {
+        this.words = words;
+        this.bitCount = (long) words.length() * Long.SIZE;
+        this.hashCount = hashCount;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param expectedInsertions
+     *      Number of strings the filter is sized for
+     * @param falsePositiveProbability
+     *      Probability of a string not added being reported as added, once the expected strings are added
+     */
+    public static BloomFilter create(long expectedInsertions, double falsePositiveProbability) {
+        if (expectedInsertions < 1)
+            throw new IllegalArgumentException("Expected insertions should be positive: " + expectedInsertions);
+        if (falsePositiveProbability <= 0 || falsePositiveProbability >= 1)
+            throw new IllegalArgumentException("False positive probability should be in (0, 1): "
+                    + falsePositiveProbability);
+
+        double ln2 = Math.log(2);
+        long bits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveProbability) / (ln2 * ln2));
+        int wordCount = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (bits + Long.SIZE - 1) / Long.SIZE));
+        int hashCount = Math.max(1, (int) Math.round((double) wordCount * Long.SIZE / expectedInsertions * ln2));
+        return new BloomFilter(new AtomicLongArray(wordCount), hashCount, expectedInsertions);
+    }
+
+    public void put(String value) {
+        long hash = hash(value);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            long bit = ((hash1 + (long) i * hash2) & Long.MAX_VALUE) % bitCount;
+            int index = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long word = words.get(index);
+            while ((word & mask) == 0 && !words.compareAndSet(index, word, word | mask))
+                word = words.get(index);
+        }
+    }
+
+    public boolean mightContain(String value) {
+        long hash = hash(value);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            long bit = ((hash1 + (long) i * hash2) & Long.MAX_VALUE) % bitCount;
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return number of strings the filter was sized for
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeLong(capacity);
+        out.writeInt(hashCount);
+        out.writeInt(words.length());
+        for (int i = 0; i < words.length(); i++)
+            out.writeLong(words.get(i));
+    }
+
+    public static BloomFilter readFrom(DataInputStream in) throws IOException {
+        long capacity = in.readLong();
+        int hashCount = in.readInt();
+        int wordCount = in.readInt();
+        if (capacity < 1 || hashCount < 1 || wordCount < 1)
+            throw new IOException("Invalid Bloom filter.");
+
+        AtomicLongArray words = new AtomicLongArray(wordCount);
+        for (int i = 0; i < wordCount; i++)
+            words.set(i, in.readLong());
+        return new BloomFilter(words, hashCount, capacity);
+    }
+
+    /**
+     * 64 bit FNV-1a over the characters, finished with the MurmurHash3 mixer to spread the bits.
+     */
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
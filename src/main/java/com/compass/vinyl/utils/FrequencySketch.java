@@ -0,0 +1,108 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.utils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread safe estimate of how often strings were seen recently, as a count-min sketch of 4 bit counters. The
+ * estimate of a string is never below its count, and may be above it when strings share counters. Once the
+ * sketch has counted about ten times as many strings as it is sized for, all the counters are halved, so the
+ * estimates follow the recent usage.
+ */
+public class FrequencySketch {
+
+    public static final int MAX_FREQUENCY = 15;
+
+    private static final int DEPTH = 4;
+
+    // Clears the bit each counter shifts in from its neighbour when halved
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+    // 16 counters of 4 bits each
+    private final AtomicLongArray table;
+
+    private final int tableMask;
+
+    private final int sampleSize;
+
+    private final AtomicInteger additions = new AtomicInteger();
+
+    /**
+     * @param expectedEntries
+     *      Number of distinct strings the sketch is sized for
+     */
+    public FrequencySketch(long expectedEntries) {
+        if (expectedEntries < 1)
+            throw new IllegalArgumentException("Expected entries should be positive: " + expectedEntries);
+        int length = Integer.highestOneBit((int) Math.min(Math.max(expectedEntries, 16), 1 << 26) - 1) << 1;
+        this.table = new AtomicLongArray(length);
+        this.tableMask = length - 1;
+        this.sampleSize = 10 * length;
+    }
+
+    /**
+     * @return estimated number of times the string was seen recently, at most {@link #MAX_FREQUENCY}
+     */
+    public int frequency(String value) {
+        int hash = spread(value.hashCode());
+        int frequency = MAX_FREQUENCY;
+        for (int i = 0; i < DEPTH; i++) {
+            int shift = offsetOf(hash, i) << 2;
+            frequency = Math.min(frequency, (int) ((table.get(indexOf(hash, i)) >>> shift) & 0xf));
+        }
+        return frequency;
+    }
+
+    public void increment(String value) {
+        int hash = spread(value.hashCode());
+        boolean added = false;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = indexOf(hash, i);
+            int shift = offsetOf(hash, i) << 2;
+            long word = table.get(index);
+            while (((word >>> shift) & 0xf) < MAX_FREQUENCY) {
+                if (table.compareAndSet(index, word, word + (1L << shift))) {
+                    added = true;
+                    break;
+                }
+                word = table.get(index);
+            }
+        }
+
+        if (added && additions.incrementAndGet() >= sampleSize)
+            reset();
+    }
+
+    private synchronized void reset() {
+        if (additions.get() < sampleSize)
+            return;
+        for (int i = 0; i < table.length(); i++) {
+            long word = table.get(i);
+            while (!table.compareAndSet(i, word, (word >>> 1) & RESET_MASK))
+                word = table.get(i);
+        }
+        additions.set(additions.get() / 2);
+    }
+
+    private int indexOf(int hash, int i) {
+        long index = (hash + SEEDS[i]) * SEEDS[i];
+        index += index >>> 32;
+        return (int) index & tableMask;
+    }
+
+    private static int offsetOf(int hash, int i) {
+        return (hash >>> (i << 3)) & 0xf;
+    }
+
+    private static int spread(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x45d9f3b;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
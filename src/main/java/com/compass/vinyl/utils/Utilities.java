@@ -13,20 +13,30 @@ public class Utilities {
 
     private static final Logger LOG = LoggerFactory.getLogger(Utilities.class);
 
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     public static String md5(String message) {
         String digest = null;
         try {
             MessageDigest md = MessageDigest.getInstance("MD5");
             byte[] hash = md.digest(message.getBytes("UTF-8"));
-
-            StringBuilder sb = new StringBuilder(2*hash.length);
-            for (byte b: hash)
-                sb.append(String.format("%02x", b&0xff));
-            digest = sb.toString();
+            digest = toHex(hash);
         } catch (UnsupportedEncodingException | NoSuchAlgorithmException ex) {
             LOG.error("Exception occurred while hashing.", ex);
         }
         return digest;
     }
+
+    /**
+     * @return lower case hex representation of the bytes
+     */
+    public static String toHex(byte[] bytes) {
+        char[] hex = new char[2 * bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
 }
 
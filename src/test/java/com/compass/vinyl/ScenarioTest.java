@@ -0,0 +1,75 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl;
+
+import com.compass.vinyl.key.Murmur3KeyStrategy;
+import com.compass.vinyl.serializer.JSONSerializer;
+import com.compass.vinyl.serializer.Serializer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ScenarioTest {
+
+    @Test
+    public void uniqueIdComputedOnce() {
+        CountingSerializer serializer = new CountingSerializer();
+        RecordingConfig config = new RecordingConfig(serializer, "/tmp/vinyl", Murmur3KeyStrategy.getInstance());
+        Scenario scenario = new Scenario("source", "method", Collections.singletonList(new Data("input", "value")));
+
+        String uniqueId = scenario.getUniqueId(config);
+        Assertions.assertEquals(uniqueId, scenario.getUniqueId(config));
+        Assertions.assertEquals(1, serializer.serializations.get());
+
+        // the identity follows the scenario once the output is known
+        Scenario recorded = scenario.withOutput(new Data("output", "value"));
+        Assertions.assertEquals(uniqueId, recorded.getUniqueId(config));
+        Assertions.assertEquals(1, serializer.serializations.get());
+        Assertions.assertEquals("value", recorded.getOutput().getValue());
+
+        // another strategy is computed apart from the identity
+        Assertions.assertNotEquals(uniqueId, scenario.getUniqueId(serializer));
+        Assertions.assertEquals(uniqueId, scenario.getUniqueId(config));
+    }
+
+    @Test
+    public void equalityByIdentity() {
+        Scenario scenario = new Scenario("source", "method",
+                Arrays.asList(new Data("first", "1"), new Data("second", 2)), new Data("output", "a"));
+        Scenario sameInputs = new Scenario("source", "method",
+                Arrays.asList(new Data("first", "1"), new Data("second", 2)), new Data("output", "b"));
+        Scenario otherInputs = new Scenario("source", "method",
+                Arrays.asList(new Data("first", "1"), new Data("second", 3)), new Data("output", "a"));
+
+        Assertions.assertEquals(scenario, sameInputs);
+        Assertions.assertEquals(scenario.hashCode(), sameInputs.hashCode());
+        Assertions.assertNotEquals(scenario, otherInputs);
+    }
+
+    private static class CountingSerializer implements Serializer {
+
+        final AtomicInteger serializations = new AtomicInteger();
+
+        @Override
+        public String serialize(Object object) {
+            serializations.incrementAndGet();
+            return JSONSerializer.getInstance().serialize(object);
+        }
+
+        @Override
+        public void serialize(Object object, OutputStream out) throws IOException {
+            serializations.incrementAndGet();
+            JSONSerializer.getInstance().serialize(object, out);
+        }
+
+        @Override
+        public <T> T deserialize(String serializedData, Class<T> type) {
+            return JSONSerializer.getInstance().deserialize(serializedData, type);
+        }
+    }
+}
@@ -117,4 +117,99 @@ class VinylInterceptorTest {
                     expected.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void responsesAdmittedPerStatusClass() throws Exception {
+        Vinyl cache = new Vinyl.Builder()
+                .usingMode(Mode.CACHE)
+                .withPlayer(player)
+                .usingRecordingConfig(new RecordingConfig(JSONSerializer.getInstance(),
+                        Files.createTempDirectory("vinyl-negative-").toString()))
+                .create();
+        VinylInterceptor.OkHttpInterceptor interceptor = new VinylInterceptor.OkHttpInterceptor(cache);
+        interceptor.setAdmission(5, VinylInterceptor.OkHttpInterceptor.Admission.NEGATIVE);
+        interceptor.setAdmission(4, VinylInterceptor.OkHttpInterceptor.Admission.PASS);
+        interceptor.setFailureAdmission(VinylInterceptor.OkHttpInterceptor.Admission.NEGATIVE);
+        interceptor.setNegativeTimeToLive(60_000);
+        OkHttpClient cacheClient = new OkHttpClient.Builder().addInterceptor(interceptor).build();
+
+        MockWebServer server = new MockWebServer();
+        server.enqueue(new MockResponse().setResponseCode(503).setBody("unavailable"));
+        server.enqueue(new MockResponse().setResponseCode(404).setBody("missing"));
+        server.enqueue(new MockResponse().setResponseCode(404).setBody("missing"));
+        server.start();
+
+        // the server error is answered from memory the second time
+        Request failing = new Request.Builder().url(server.url("/v1/service/failing")).build();
+        for (int i = 0; i < 2; i++) {
+            try (Response response = cacheClient.newCall(failing).execute()) {
+                assertEquals(503, response.code());
+                assertEquals("unavailable", response.body().string());
+            }
+        }
+        assertEquals(1, server.getRequestCount());
+
+        // the missing one goes to the server each time, and isn't recorded
+        Request missing = new Request.Builder().url(server.url("/v1/service/missing")).build();
+        for (int i = 0; i < 2; i++) {
+            try (Response response = cacheClient.newCall(missing).execute()) {
+                assertEquals(404, response.code());
+            }
+        }
+        assertEquals(3, server.getRequestCount());
+        assertNull(cache.playback(new Scenario("/v1/service/missing", "GET",
+                Arrays.asList(new Data("header", ""), new Data("requestBody", "")))));
+
+        // the server can't be reached any more, which is remembered as well
+        HttpUrl unreachable = server.url("/v1/service/unreachable");
+        server.shutdown();
+        Request unreachableRequest = new Request.Builder().url(unreachable).build();
+        assertThrows(IOException.class, () -> cacheClient.newCall(unreachableRequest).execute());
+        IOException knownFailure = assertThrows(IOException.class,
+                () -> cacheClient.newCall(unreachableRequest).execute());
+        assertTrue(knownFailure.getMessage().startsWith("Call known to fail"), knownFailure.getMessage());
+        assertThrows(IllegalArgumentException.class,
+                () -> interceptor.setFailureAdmission(VinylInterceptor.OkHttpInterceptor.Admission.RECORD));
+        cache.close();
+    }
+
+    @Test
+    public void staleResponseRefreshedThroughTheService() throws Exception {
+        Vinyl cache = new Vinyl.Builder()
+                .usingMode(Mode.CACHE)
+                .withPlayer(player)
+                .usingRecordingConfig(new RecordingConfig(JSONSerializer.getInstance(),
+                        Files.createTempDirectory("vinyl-refresh-").toString()))
+                .create();
+        VinylInterceptor.OkHttpInterceptor interceptor = new VinylInterceptor.OkHttpInterceptor(cache);
+        interceptor.setTimeToLive(100, 60_000);
+        OkHttpClient cacheClient = new OkHttpClient.Builder().addInterceptor(interceptor).build();
+
+        MockWebServer server = new MockWebServer();
+        server.enqueue(new MockResponse().setBody("stale"));
+        server.enqueue(new MockResponse().setBody("fresh"));
+        server.start();
+        Request request = new Request.Builder().url(server.url("/v1/service/refreshed")).build();
+
+        try (Response response = cacheClient.newCall(request).execute()) {
+            assertEquals("stale", response.body().string());
+        }
+        Thread.sleep(150);
+        // the stale response is served while the refresh calls the service
+        try (Response response = cacheClient.newCall(request).execute()) {
+            assertEquals("stale", response.body().string());
+        }
+
+        String body = null;
+        for (int i = 0; i < 50 && !"fresh".equals(body); i++) {
+            Thread.sleep(20);
+            try (Response response = cacheClient.newCall(request).execute()) {
+                body = response.body().string();
+            }
+        }
+        assertEquals("fresh", body);
+        assertEquals(2, server.getRequestCount());
+        server.shutdown();
+        cache.close();
+    }
+}
@@ -0,0 +1,71 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.key;
+
+import com.compass.vinyl.Data;
+import com.compass.vinyl.Scenario;
+import com.compass.vinyl.serializer.JSONSerializer;
+import com.compass.vinyl.serializer.Serializer;
+import com.compass.vinyl.serializer.models.Bird;
+import com.compass.vinyl.utils.Utilities;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class KeyStrategyTest {
+
+    private final Serializer serializer = JSONSerializer.getInstance();
+
+    @Test
+    public void md5MatchesEarlierUniqueIds() {
+        Scenario scenario = new Scenario("source", "method",
+                Arrays.asList(new Data("birds", Arrays.asList(new Bird("Parrot"), new Bird("Peacock"))),
+                        new Data("text", "ünïcödé")),
+                new Data("output", "output"));
+
+        String earlierId = Utilities.md5(serializer.serialize(
+                new Scenario(scenario.getSource(), scenario.getMethod(), scenario.getInputs())));
+        Assertions.assertEquals(earlierId, Md5KeyStrategy.getInstance().uniqueId(scenario, serializer));
+        Assertions.assertEquals(earlierId, scenario.getUniqueId(serializer));
+    }
+
+    @Test
+    public void murmur3MatchesReferenceHash() {
+        byte[] bytes = "The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.UTF_8);
+
+        Murmur3KeyStrategy.Murmur3OutputStream whole = new Murmur3KeyStrategy.Murmur3OutputStream();
+        whole.write(bytes, 0, bytes.length);
+        Assertions.assertEquals("e34bbc7bbc071b6c7a433ca9c49a9347", whole.toHex());
+
+        // written in pieces not aligned with the blocks
+        Murmur3KeyStrategy.Murmur3OutputStream pieces = new Murmur3KeyStrategy.Murmur3OutputStream();
+        pieces.write(bytes[0]);
+        pieces.write(bytes, 1, 6);
+        pieces.write(bytes, 7, 20);
+        pieces.write(bytes, 27, bytes.length - 27);
+        Assertions.assertEquals(whole.toHex(), pieces.toHex());
+
+        Assertions.assertEquals("00000000000000000000000000000000", new Murmur3KeyStrategy.Murmur3OutputStream().toHex());
+    }
+
+    @Test
+    public void murmur3IdentifiesInputs() {
+        KeyStrategy strategy = Murmur3KeyStrategy.getInstance();
+        Scenario scenario = new Scenario("source", "method",
+                Collections.singletonList(new Data("input", "value")), new Data("output", "first"));
+        Scenario sameInputs = new Scenario("source", "method",
+                Collections.singletonList(new Data("input", "value")), new Data("output", "second"));
+
+        String uniqueId = strategy.uniqueId(scenario, serializer);
+        Assertions.assertEquals(32, uniqueId.length());
+        Assertions.assertEquals(uniqueId, strategy.uniqueId(sameInputs, serializer));
+
+        Assertions.assertNotEquals(uniqueId, strategy.uniqueId(new Scenario("source", "method",
+                Collections.singletonList(new Data("input", "other"))), serializer));
+        Assertions.assertNotEquals(uniqueId, strategy.uniqueId(new Scenario("sourcem", "ethod",
+                Collections.singletonList(new Data("input", "value"))), serializer));
+    }
+}
@@ -0,0 +1,90 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.metrics;
+
+import com.compass.vinyl.*;
+import com.compass.vinyl.player.LocalFileSystemRecordPlayer;
+import com.compass.vinyl.serializer.JSONSerializer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.util.Collections;
+
+public class VinylProfilerTest {
+
+    @Test
+    public void stagesOfEachCallProfiled() throws Exception {
+        VinylProfiler profiler = new VinylProfiler(0, 1000);
+        Vinyl vinyl = new Vinyl.Builder()
+                .usingMode(Mode.CACHE)
+                .withPlayer(new LocalFileSystemRecordPlayer())
+                .usingRecordingConfig(new RecordingConfig(JSONSerializer.getInstance(),
+                        Files.createTempDirectory("vinyl-profiler-").toString()))
+                .usingProfiler(profiler)
+                .create();
+
+        Scenario scenario = scenario("recorded").withOutput(new Data("output", "recorded"));
+        ScenarioMetadata metadata = new ScenarioMetadata();
+        metadata.setTags(Collections.singletonList("profiled"));
+        scenario.setMetadata(metadata);
+        vinyl.record(scenario);
+        Assertions.assertNotNull(vinyl.playback(scenario("recorded")));
+        Assertions.assertNull(vinyl.playback(scenario("missing")));
+        vinyl.clear(Collections.singletonList("profiled"));
+
+        Assertions.assertEquals(2, profiler.getLatency(CallTrace.Operation.PLAYBACK).getCount());
+        Assertions.assertEquals(1, profiler.getLatency(CallTrace.Operation.RECORD).getCount());
+        Assertions.assertEquals(1, profiler.getLatency(CallTrace.Operation.DELETE_BY_TAGS).getCount());
+
+        Assertions.assertEquals(2, stageCount(profiler, CallTrace.Operation.PLAYBACK, CallTrace.Stage.KEY));
+        Assertions.assertEquals(2, stageCount(profiler, CallTrace.Operation.PLAYBACK, CallTrace.Stage.IO));
+        Assertions.assertEquals(2, stageCount(profiler, CallTrace.Operation.PLAYBACK, CallTrace.Stage.EXPIRY));
+        // only the recorded scenario is deserialized
+        Assertions.assertEquals(1, stageCount(profiler, CallTrace.Operation.PLAYBACK, CallTrace.Stage.DESERIALIZE));
+        Assertions.assertEquals(0, stageCount(profiler, CallTrace.Operation.PLAYBACK, CallTrace.Stage.SERIALIZE));
+        Assertions.assertEquals(1, stageCount(profiler, CallTrace.Operation.RECORD, CallTrace.Stage.SERIALIZE));
+        Assertions.assertEquals(1, stageCount(profiler, CallTrace.Operation.RECORD, CallTrace.Stage.IO));
+        Assertions.assertEquals(1, stageCount(profiler, CallTrace.Operation.DELETE_BY_TAGS, CallTrace.Stage.IO));
+        Assertions.assertEquals(0, stageCount(profiler, CallTrace.Operation.DELETE_BY_TAGS, CallTrace.Stage.KEY));
+
+        Assertions.assertEquals(4, profiler.getSlowCalls());
+        Assertions.assertTrue(profiler.summaryOf(CallTrace.Operation.PLAYBACK)
+                .startsWith("Vinyl playback calls=2 total="));
+        Assertions.assertFalse(CallTrace.current().isEnabled(), "Trace left on the thread after the call.");
+    }
+
+    @Test
+    public void nestedCallsTracedOnTheirOwn() {
+        CallTrace disabled = CallTrace.current();
+        Assertions.assertFalse(disabled.isEnabled());
+        Assertions.assertEquals(42, disabled.lap(CallTrace.Stage.IO, 42));
+
+        CallTrace outer = CallTrace.begin(CallTrace.Operation.PLAYBACK, "source", "get");
+        long time = outer.lap(CallTrace.Stage.KEY, outer.start());
+        CallTrace inner = CallTrace.begin(CallTrace.Operation.RECORD, "source", "get");
+        Assertions.assertSame(inner, CallTrace.current());
+        inner.lap(CallTrace.Stage.SERIALIZE, inner.start());
+        inner.end();
+        Assertions.assertSame(outer, CallTrace.current());
+        outer.lap(CallTrace.Stage.IO, time);
+        outer.end();
+        Assertions.assertSame(disabled, CallTrace.current());
+
+        Assertions.assertFalse(outer.isTimed(CallTrace.Stage.SERIALIZE), "Stage of the nested call attributed.");
+        Assertions.assertTrue(outer.isTimed(CallTrace.Stage.OTHER));
+        long stages = 0;
+        for (CallTrace.Stage stage : CallTrace.Stage.values())
+            stages += outer.getStageDurationInNanos(stage);
+        Assertions.assertEquals(outer.getDurationInNanos(), stages);
+        Assertions.assertTrue(outer.toString().startsWith("playback source=source method=get total="));
+    }
+
+    private static long stageCount(VinylProfiler profiler, CallTrace.Operation operation, CallTrace.Stage stage) {
+        return profiler.getStageLatency(operation, stage).getCount();
+    }
+
+    private static Scenario scenario(String input) {
+        return new Scenario("service", "get", Collections.singletonList(new Data("input", input)));
+    }
+}
@@ -0,0 +1,155 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.metrics;
+
+import com.compass.vinyl.*;
+import com.compass.vinyl.player.DatabaseRecordPlayer;
+import com.compass.vinyl.player.LocalFileSystemRecordPlayer;
+import com.compass.vinyl.serializer.JSONSerializer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class VinylStatsTest {
+
+    @Test
+    public void histogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 1000; i++)
+            histogram.record(i * 1000);
+
+        Assertions.assertEquals(1000, histogram.getCount());
+        Assertions.assertEquals(1_000_000, histogram.getMaxInNanos());
+        Assertions.assertEquals(500_500, histogram.getMeanInNanos(), 0.001);
+        long p50 = histogram.getPercentileInNanos(50);
+        long p99 = histogram.getPercentileInNanos(99);
+        Assertions.assertTrue(p50 >= 500_000 && p50 <= 500_000 * 1.07, "p50=" + p50);
+        Assertions.assertTrue(p99 >= 990_000 && p99 <= 1_000_000, "p99=" + p99);
+        Assertions.assertEquals(0, new LatencyHistogram().getPercentileInNanos(99));
+
+        for (long value : new long[]{0, 1, 15, 16, 17, 31, 32, 33, 1000, 123_456_789, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.indexOf(value);
+            Assertions.assertTrue(LatencyHistogram.upperBoundOf(index) >= value, "Bucket below " + value);
+            Assertions.assertTrue(index == 0 || LatencyHistogram.upperBoundOf(index - 1) < value,
+                    "Bucket above " + value);
+        }
+    }
+
+    @Test
+    public void callsCountedPerEndpoint() throws Exception {
+        VinylStats stats = new VinylStats();
+        Vinyl vinyl = new Vinyl.Builder()
+                .usingMode(Mode.CACHE)
+                .withPlayer(new LocalFileSystemRecordPlayer())
+                .usingRecordingConfig(new RecordingConfig(JSONSerializer.getInstance(),
+                        Files.createTempDirectory("vinyl-metrics-").toString()))
+                .usingMetrics(stats)
+                .create();
+
+        vinyl.playbackOrCompute(scenario("service", "first"), () -> new Data("output", "first"));
+        vinyl.playback(scenario("service", "first"));
+        vinyl.playback(scenario("service", "first"));
+
+        Scenario expired = scenario("service", "expired").withOutput(new Data("output", "expired"));
+        ScenarioMetadata metadata = new ScenarioMetadata();
+        metadata.setExpiryTimeInMillis(System.currentTimeMillis() - 1000);
+        expired.setMetadata(metadata);
+        vinyl.record(expired);
+        vinyl.playbackAll(Arrays.asList(scenario("service", "expired"), scenario("other", "first")));
+
+        EndpointStats endpoint = stats.getEndpoint("service", "get");
+        Assertions.assertEquals(2, endpoint.getHits());
+        Assertions.assertEquals(1, endpoint.getMisses());
+        Assertions.assertEquals(1, endpoint.getExpirations());
+        Assertions.assertEquals(2, endpoint.getRecordings());
+        Assertions.assertEquals(0, endpoint.getRecordFailures());
+        Assertions.assertEquals(1, endpoint.getComputeLatency().getCount());
+        Assertions.assertEquals(0.5, endpoint.getHitRatio(), 0.001);
+        Assertions.assertEquals(1, stats.getEndpoint("other", "get").getMisses());
+        Assertions.assertTrue(Slf4jReporter.summaryOf(endpoint).contains("hits=2 stale=0 misses=1 expired=1"));
+    }
+
+    @Test
+    public void computedMissCountedOnce() throws Exception {
+        VinylStats stats = new VinylStats();
+        VinylProfiler profiler = new VinylProfiler();
+        Vinyl vinyl = new Vinyl.Builder()
+                .usingMode(Mode.CACHE)
+                .withPlayer(new LocalFileSystemRecordPlayer())
+                .usingRecordingConfig(new RecordingConfig(JSONSerializer.getInstance(),
+                        Files.createTempDirectory("vinyl-metrics-miss-").toString()))
+                .usingMetrics(stats)
+                .usingProfiler(profiler)
+                .create();
+
+        for (int i = 0; i < 3; i++)
+            vinyl.playbackOrCompute(scenario("service", "computed" + i), () -> new Data("output", "computed"));
+
+        EndpointStats endpoint = stats.getEndpoint("service", "get");
+        Assertions.assertEquals(3, endpoint.getMisses(), "Computed miss not counted once.");
+        Assertions.assertEquals(0, endpoint.getHits());
+        Assertions.assertEquals(3, endpoint.getComputeLatency().getCount());
+        Assertions.assertEquals(3, profiler.getLatency(CallTrace.Operation.PLAYBACK).getCount());
+    }
+
+    @Test
+    public void expiredPlaybackCounted() throws Exception {
+        VinylStats stats = new VinylStats();
+        try (DatabaseRecordPlayer player = new DatabaseRecordPlayer()) {
+            Vinyl vinyl = new Vinyl.Builder()
+                    .usingMode(Mode.CACHE)
+                    .withPlayer(player)
+                    .usingRecordingConfig(new RecordingConfig(JSONSerializer.getInstance(),
+                            Files.createTempDirectory("vinyl-metrics-expired-").toString()))
+                    .usingMetrics(stats)
+                    .create();
+
+            Scenario expired = scenario("service", "expired").withOutput(new Data("output", "expired"));
+            ScenarioMetadata metadata = new ScenarioMetadata();
+            metadata.setExpiryTimeInMillis(System.currentTimeMillis() - 1000);
+            expired.setMetadata(metadata);
+            vinyl.record(expired);
+
+            // rejected by the player itself, without deserializing the recording
+            Assertions.assertNull(vinyl.playback(scenario("service", "expired")));
+            vinyl.playback(scenario("service", "missing"));
+        }
+
+        EndpointStats endpoint = stats.getEndpoint("service", "get");
+        Assertions.assertEquals(1, endpoint.getExpirations(), "Expired playback not counted.");
+        Assertions.assertEquals(1, endpoint.getMisses());
+    }
+
+    @Test
+    public void endpointsBoundedAndExportedOverJmx() throws Exception {
+        VinylStats stats = new VinylStats(2);
+        stats.onPlayback("first", "get", VinylMetrics.Outcome.HIT, 1000);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try (JmxExporter exporter = new JmxExporter(stats, server, "test")) {
+            stats.onPlayback("second", "get", VinylMetrics.Outcome.MISS, 1000);
+            stats.onPlayback("third", "get", VinylMetrics.Outcome.MISS, 1000);
+
+            Assertions.assertNull(stats.getEndpoint("third", "get"), "Endpoints beyond the bound kept.");
+            Assertions.assertEquals(1, stats.getEndpoint(VinylStats.OTHER, VinylStats.OTHER).getMisses());
+
+            ObjectName first = exporter.objectNameOf("first", "get");
+            Assertions.assertEquals(1L, server.getAttribute(first, "Hits"));
+            Assertions.assertEquals(1L, server.getAttribute(exporter.objectNameOf("second", "get"), "Misses"));
+            Assertions.assertTrue(server.isRegistered(exporter.objectNameOf(VinylStats.OTHER, VinylStats.OTHER)));
+
+            exporter.close();
+            Assertions.assertFalse(server.isRegistered(first), "Endpoint not unregistered on close.");
+        }
+    }
+
+    private static Scenario scenario(String source, String input) {
+        return new Scenario(source, "get", Collections.singletonList(new Data("input", input)));
+    }
+}
@@ -0,0 +1,57 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.player;
+
+import com.compass.vinyl.Data;
+import com.compass.vinyl.RecordingConfig;
+import com.compass.vinyl.Scenario;
+import com.compass.vinyl.serializer.BinarySerializer;
+import com.compass.vinyl.serializer.JSONSerializer;
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+
+public class BinaryFileSystemRecordPlayerTest extends RecordPlayerTest {
+
+    private static String recordingPath;
+
+    @BeforeAll
+    public static void setup() {
+        try {
+            Path temp = Files.createTempDirectory("vinyl-binary-");
+            recordingPath = temp.toAbsolutePath().toString();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        RecordingConfig config = new RecordingConfig(BinarySerializer.getInstance(), recordingPath);
+        setup(new LocalFileSystemRecordPlayer(), config);
+    }
+
+    @Test
+    public void playbackJsonRecording() throws IOException {
+        String path = Files.createTempDirectory("vinyl-binary-migration-").toAbsolutePath().toString();
+        RecordingConfig jsonConfig = new RecordingConfig(JSONSerializer.getInstance(), path);
+        RecordingConfig binaryConfig = new RecordingConfig(BinarySerializer.getInstance(), path);
+        LocalFileSystemRecordPlayer player = new LocalFileSystemRecordPlayer();
+
+        Scenario scenario = new Scenario("source", "method",
+                Collections.singletonList(new Data("input", "input")), new Data("output", "json"));
+        Assertions.assertTrue(player.record(scenario, jsonConfig));
+        Assertions.assertEquals(scenario.getUniqueId(jsonConfig), scenario.getUniqueId(binaryConfig),
+                "Unique id depends on the serializer.");
+
+        // recorded as JSON, played back and recorded again as binary
+        Assertions.assertEquals("json", player.playback(scenario, binaryConfig).getOutput().getValue());
+        Assertions.assertTrue(player.record(new Scenario("source", "method",
+                Collections.singletonList(new Data("input", "input")), new Data("output", "binary")), binaryConfig));
+        Assertions.assertEquals("binary", player.playback(scenario, binaryConfig).getOutput().getValue());
+
+        Path recording = Paths.get(path, "source", "method", scenario.getUniqueId(binaryConfig) + ".vinyl");
+        Assertions.assertEquals(':', Files.readAllBytes(recording)[0], "Recording isn't binary.");
+    }
+}
@@ -0,0 +1,156 @@
+package com.compass.vinyl.player;
+
+import com.compass.vinyl.Data;
+import com.compass.vinyl.RecordingConfig;
+import com.compass.vinyl.Scenario;
+import com.compass.vinyl.serializer.JSONSerializer;
+import com.compass.vinyl.serializer.Serializer;
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BloomFilterRecordPlayerTest extends RecordPlayerTest {
+
+    private static String recordingPath;
+
+    @BeforeAll
+    public static void setup() {
+        try {
+            Path temp = Files.createTempDirectory("vinyl-bloom-");
+            recordingPath = temp.toAbsolutePath().toString();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        Serializer serializer = JSONSerializer.getInstance();
+        RecordingConfig config = new RecordingConfig(serializer, recordingPath);
+        setup(new BloomFilterRecordPlayer(new LocalFileSystemRecordPlayer()), config);
+    }
+
+    @Test
+    public void missesDontReachThePlayer() throws IOException {
+        RecordingConfig config = new RecordingConfig(JSONSerializer.getInstance(),
+                Files.createTempDirectory("vinyl-bloom-miss-").toString());
+        CountingPlayer delegate = new CountingPlayer(new LocalFileSystemRecordPlayer());
+
+        // sized small to have the filter grow
+        try (BloomFilterRecordPlayer player = new BloomFilterRecordPlayer(delegate, 10, 0.001)) {
+            for (int i = 0; i < 100; i++)
+                Assertions.assertTrue(player.record(scenario("recorded" + i), config), "Recording failed.");
+            for (int i = 0; i < 100; i++)
+                Assertions.assertNotNull(player.playback(scenario("recorded" + i), config), "Scenario not played back.");
+
+            delegate.playbacks.set(0);
+            for (int i = 0; i < 1000; i++)
+                Assertions.assertNull(player.playback(scenario("missing" + i), config), "Missing scenario played back.");
+            Assertions.assertTrue(delegate.playbacks.get() < 50, "Misses reached the player: " + delegate.playbacks);
+        }
+    }
+
+    @Test
+    public void filterRestoredAcrossPlayers() throws IOException {
+        Path path = Files.createTempDirectory("vinyl-bloom-restore-");
+        RecordingConfig config = new RecordingConfig(JSONSerializer.getInstance(), path.toString());
+
+        // recorded without the filter, found by rebuilding it
+        try (LocalFileSystemRecordPlayer plain = new LocalFileSystemRecordPlayer()) {
+            plain.record(scenario("existing"), config);
+        }
+
+        try (BloomFilterRecordPlayer player = new BloomFilterRecordPlayer(new LocalFileSystemRecordPlayer())) {
+            Assertions.assertNotNull(player.playback(scenario("existing"), config), "Existing scenario not found.");
+            player.record(scenario("recorded"), config);
+        }
+        Assertions.assertTrue(Files.exists(path.resolve(".vinyl-bloom")), "Filter snapshot wasn't stored.");
+
+        // a player unable to enumerate the recordings relies on the snapshot
+        CountingPlayer delegate = new CountingPlayer(new LocalFileSystemRecordPlayer()) {
+            @Override
+            public void forEachUniqueId(RecordingConfig config, java.util.function.Consumer<String> action) {
+                throw new UnsupportedOperationException();
+            }
+        };
+        try (BloomFilterRecordPlayer player = new BloomFilterRecordPlayer(delegate)) {
+            Assertions.assertNotNull(player.playback(scenario("existing"), config), "Existing scenario not found.");
+            Assertions.assertNotNull(player.playback(scenario("recorded"), config), "Recorded scenario not found.");
+            Assertions.assertFalse(Files.exists(path.resolve(".vinyl-bloom")), "Snapshot should be removed once read.");
+        }
+    }
+
+    @Test
+    public void filterRebuiltOnceMostlyDeleted() throws IOException {
+        RecordingConfig config = new RecordingConfig(JSONSerializer.getInstance(),
+                Files.createTempDirectory("vinyl-bloom-delete-").toString());
+        CountingPlayer delegate = new CountingPlayer(new LocalFileSystemRecordPlayer());
+
+        try (BloomFilterRecordPlayer player = new BloomFilterRecordPlayer(delegate, 100, 0.001)) {
+            for (int i = 0; i < 100; i++)
+                Assertions.assertTrue(player.record(scenario("recorded" + i), config), "Recording failed.");
+            for (int i = 0; i < 60; i++)
+                player.delete(scenario("recorded" + i), config);
+
+            delegate.playbacks.set(0);
+            for (int i = 0; i < 60; i++)
+                Assertions.assertNull(player.playback(scenario("recorded" + i), config), "Deleted scenario played back.");
+            Assertions.assertTrue(delegate.playbacks.get() < 10, "Deleted scenarios reached the player: "
+                    + delegate.playbacks);
+            for (int i = 60; i < 100; i++)
+                Assertions.assertNotNull(player.playback(scenario("recorded" + i), config), "Scenario not played back.");
+
+            player.record(scenario("recorded0"), config);
+            Assertions.assertNotNull(player.playback(scenario("recorded0"), config), "Scenario not played back.");
+        }
+    }
+
+    private static Scenario scenario(String input) {
+        return new Scenario("source", "method",
+                Collections.singletonList(new Data("input", input)), new Data("output", input));
+    }
+
+    private static class CountingPlayer implements RecordPlayer {
+
+        final AtomicInteger playbacks = new AtomicInteger();
+
+        final RecordPlayer player;
+
+        CountingPlayer(RecordPlayer player) {
+            this.player = player;
+        }
+
+        @Override
+        public boolean record(Scenario scenario, RecordingConfig config) {
+            return player.record(scenario, config);
+        }
+
+        @Override
+        public Scenario playback(Scenario scenario, RecordingConfig config) {
+            playbacks.incrementAndGet();
+            return player.playback(scenario, config);
+        }
+
+        @Override
+        public void delete(Scenario scenario, RecordingConfig config) {
+            player.delete(scenario, config);
+        }
+
+        @Override
+        public void deleteByTags(List<String> tags, RecordingConfig config) {
+            player.deleteByTags(tags, config);
+        }
+
+        @Override
+        public void forEachUniqueId(RecordingConfig config, java.util.function.Consumer<String> action) {
+            player.forEachUniqueId(config, action);
+        }
+
+        @Override
+        public void close() {
+            player.close();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.compass.vinyl.player;
+
+import com.compass.vinyl.Data;
+import com.compass.vinyl.RecordingConfig;
+import com.compass.vinyl.Scenario;
+import com.compass.vinyl.ScenarioMetadata;
+import com.compass.vinyl.serializer.JSONSerializer;
+import com.compass.vinyl.serializer.Serializer;
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class CassetteRecordPlayerTest extends RecordPlayerTest {
+
+    private static String recordingPath;
+
+    @BeforeAll
+    public static void setup() {
+        try {
+            Path temp = Files.createTempDirectory("vinyl-cassette-");
+            recordingPath = temp.toAbsolutePath().toString();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        Serializer serializer = JSONSerializer.getInstance();
+        RecordingConfig config = new RecordingConfig(serializer, recordingPath);
+        setup(new CassetteRecordPlayer(), config);
+    }
+
+    @Test
+    public void recordingsSurviveReopen() throws IOException {
+        String path = Files.createTempDirectory("vinyl-cassette-reopen-").toAbsolutePath().toString();
+        RecordingConfig config = new RecordingConfig(JSONSerializer.getInstance(), path);
+        Scenario first = taggedScenario("first", "tag");
+        Scenario second = taggedScenario("second", "tag");
+
+        try (CassetteRecordPlayer player = new CassetteRecordPlayer(256)) {
+            Assertions.assertTrue(player.recordAll(Arrays.asList(first, second), config), "Recording failed.");
+            player.delete(first, config);
+        }
+
+        try (CassetteRecordPlayer player = new CassetteRecordPlayer(256)) {
+            Assertions.assertNull(player.playback(first, config), "Deleted scenario was played back.");
+            Assertions.assertEquals("second", player.playback(second, config).getOutput().getValue());
+        }
+    }
+
+    @Test
+    public void interruptedReaderFailsAlone() throws Exception {
+        String path = Files.createTempDirectory("vinyl-cassette-interrupt-").toAbsolutePath().toString();
+        RecordingConfig config = new RecordingConfig(JSONSerializer.getInstance(), path);
+        Scenario recorded = taggedScenario("recorded", "tag");
+
+        try (CassetteRecordPlayer player = new CassetteRecordPlayer(1024 * 1024, ReadMode.BUFFERED)) {
+            Assertions.assertTrue(player.record(recorded, config), "Recording failed.");
+
+            Scenario[] playedBack = new Scenario[1];
+            Thread reader = new Thread(() -> {
+                Thread.currentThread().interrupt();
+                playedBack[0] = player.playback(recorded, config);
+            });
+            reader.start();
+            reader.join(5000);
+            Assertions.assertFalse(reader.isAlive(), "Interrupted reader kept retrying.");
+            Assertions.assertNull(playedBack[0], "Interrupted reader should fail.");
+
+            // neither the other readers nor the writer are affected
+            Assertions.assertEquals("recorded", player.playback(recorded, config).getOutput().getValue());
+            Assertions.assertTrue(player.record(taggedScenario("after", "tag"), config), "Recording failed.");
+            Assertions.assertEquals("after",
+                    player.playback(taggedScenario("after", "tag"), config).getOutput().getValue());
+        }
+    }
+
+    @Test
+    public void compactionKeepsLiveRecordings() throws IOException {
+        Path path = Files.createTempDirectory("vinyl-cassette-compact-");
+        RecordingConfig config = new RecordingConfig(JSONSerializer.getInstance(), path.toString());
+
+        List<Scenario> scenarios = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+            scenarios.add(taggedScenario("input" + i, i % 2 == 0 ? "even" : "odd"));
+
+        try (CassetteRecordPlayer player = new CassetteRecordPlayer(1024)) {
+            player.recordAll(scenarios, config);
+            player.recordAll(scenarios, config);
+            player.deleteByTags(Collections.singletonList("odd"), config);
+            long sizeBefore = segmentBytes(path);
+
+            Assertions.assertTrue(player.compact(config), "Compaction failed.");
+            Assertions.assertTrue(segmentBytes(path) < sizeBefore, "Compaction should reclaim space.");
+
+            for (int i = 0; i < scenarios.size(); i++) {
+                Scenario recorded = player.playback(scenarios.get(i), config);
+                if (i % 2 == 0)
+                    Assertions.assertEquals("input" + i, recorded.getOutput().getValue());
+                else
+                    Assertions.assertNull(recorded, "Deleted scenario was played back.");
+            }
+
+            // tags are retained by the compacted recordings
+            player.deleteByTags(Collections.singletonList("even"), config);
+            for (Scenario scenario : scenarios)
+                Assertions.assertNull(player.playback(scenario, config), "Tagged scenario should have been deleted.");
+        }
+    }
+
+    @Test
+    public void incompleteRecordingIgnoredOnReopen() throws IOException {
+        Path path = Files.createTempDirectory("vinyl-cassette-torn-");
+        RecordingConfig config = new RecordingConfig(JSONSerializer.getInstance(), path.toString());
+        Scenario first = taggedScenario("first", "tag");
+        Scenario second = taggedScenario("second", "tag");
+
+        try (CassetteRecordPlayer player = new CassetteRecordPlayer()) {
+            player.record(first, config);
+            player.record(second, config);
+        }
+
+        // simulate a crash in the middle of appending the second recording
+        Path segment = segments(path).get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 10);
+        }
+
+        try (CassetteRecordPlayer player = new CassetteRecordPlayer()) {
+            Assertions.assertEquals("first", player.playback(first, config).getOutput().getValue());
+            Assertions.assertNull(player.playback(second, config), "Incomplete recording was played back.");
+
+            Assertions.assertTrue(player.record(second, config), "Recording after the incomplete one failed.");
+        }
+
+        try (CassetteRecordPlayer player = new CassetteRecordPlayer()) {
+            Assertions.assertEquals("second", player.playback(second, config).getOutput().getValue());
+        }
+    }
+
+    private static Scenario taggedScenario(String input, String tag) {
+        Scenario scenario = new Scenario("source", "method",
+                Collections.singletonList(new Data("input", input)), new Data("output", input));
+        scenario.setMetadata(new ScenarioMetadata(Arrays.asList(tag)));
+        return scenario;
+    }
+
+    private static List<Path> segments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.seg")) {
+            for (Path segment : stream)
+                segments.add(segment);
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static long segmentBytes(Path directory) throws IOException {
+        long size = 0;
+        for (Path segment : segments(directory))
+            size += Files.size(segment);
+        return size;
+    }
+}
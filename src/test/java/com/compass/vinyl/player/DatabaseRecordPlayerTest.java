@@ -1,6 +1,9 @@
 package com.compass.vinyl.player;
 
+import com.compass.vinyl.Data;
 import com.compass.vinyl.RecordingConfig;
+import com.compass.vinyl.Scenario;
+import com.compass.vinyl.ScenarioMetadata;
 import com.compass.vinyl.serializer.JSONSerializer;
 import com.compass.vinyl.serializer.Serializer;
 import org.junit.jupiter.api.*;
@@ -8,6 +11,14 @@ import org.junit.jupiter.api.*;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DatabaseRecordPlayerTest extends RecordPlayerTest {
 
@@ -26,4 +37,155 @@ public class DatabaseRecordPlayerTest extends RecordPlayerTest {
         RecordingConfig config = new RecordingConfig(serializer, recordingPath);
         setup(new DatabaseRecordPlayer(), config);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void sharedDatabaseAcrossPlayers() throws IOException {
+        String path = Files.createTempDirectory("vinyl-db-shared-").toAbsolutePath().toString();
+        RecordingConfig config = new RecordingConfig(JSONSerializer.getInstance(), path);
+        Scenario scenario = new Scenario("source", "method",
+                Collections.singletonList(new Data("input", "input1")), new Data("output", "output1"));
+
+        DatabaseRecordPlayer first = new DatabaseRecordPlayer();
+        DatabaseRecordPlayer second = new DatabaseRecordPlayer();
+        Assertions.assertTrue(first.record(scenario, config), "Recording of the scenario failed.");
+        Assertions.assertEquals("output1", second.playback(scenario, config).getOutput().getValue());
+
+        // the database stays open for the player still using it
+        first.close();
+        Assertions.assertEquals("output1", second.playback(scenario, config).getOutput().getValue());
+        second.close();
+
+        // and can be opened again once released by all the players
+        try (DatabaseRecordPlayer third = new DatabaseRecordPlayer()) {
+            Assertions.assertEquals("output1", third.playback(scenario, config).getOutput().getValue());
+        }
+    }
+
+    @Test
+    public void deleteByTagsWithConcurrentRecords() throws Exception {
+        String path = Files.createTempDirectory("vinyl-db-tags-").toAbsolutePath().toString();
+        RecordingConfig config = new RecordingConfig(JSONSerializer.getInstance(), path);
+
+        try (DatabaseRecordPlayer player = new DatabaseRecordPlayer()) {
+            List<Scenario> tagged = new ArrayList<>();
+            for (int i = 0; i < 50; i++)
+                tagged.add(taggedScenario("input" + i, "tag"));
+            Scenario otherTag = taggedScenario("other", "tag1");
+
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            try {
+                List<Future<Boolean>> results = new ArrayList<>();
+                for (Scenario scenario : tagged)
+                    results.add(executor.submit(() -> player.record(scenario, config)));
+                for (Future<Boolean> result : results)
+                    Assertions.assertTrue(result.get(), "Recording of the scenario failed.");
+            } finally {
+                executor.shutdown();
+            }
+            player.record(otherTag, config);
+
+            player.deleteByTags(Collections.singletonList("tag"), config);
+            for (Scenario scenario : tagged)
+                Assertions.assertNull(player.playback(scenario, config), "Tagged scenario should have been deleted.");
+            Assertions.assertNotNull(player.playback(otherTag, config), "Scenario with other tag shouldn't be deleted.");
+        }
+    }
+
+    @Test
+    public void bloomFilterBuiltFromDatabase() throws IOException {
+        String path = Files.createTempDirectory("vinyl-db-bloom-").toAbsolutePath().toString();
+        RecordingConfig config = new RecordingConfig(JSONSerializer.getInstance(), path);
+        Scenario recorded = taggedScenario("recorded", "tag");
+
+        try (DatabaseRecordPlayer player = new DatabaseRecordPlayer()) {
+            player.record(recorded, config);
+        }
+
+        try (BloomFilterRecordPlayer player = new BloomFilterRecordPlayer(new DatabaseRecordPlayer())) {
+            Assertions.assertNotNull(player.playback(recorded, config), "Recorded scenario not found.");
+            Assertions.assertNull(player.playback(taggedScenario("missing", "tag"), config));
+        }
+    }
+
+    private static Scenario taggedScenario(String input, String tag) {
+        Scenario scenario = new Scenario("source", "method",
+                Collections.singletonList(new Data("input", input)), new Data("output", input));
+        scenario.setMetadata(new ScenarioMetadata(Arrays.asList(tag)));
+        return scenario;
+    }
+
+    @Test
+    public void tagRowsFollowTheRecording() throws IOException {
+        String path = Files.createTempDirectory("vinyl-db-tags-").toAbsolutePath().toString();
+        RecordingConfig config = new RecordingConfig(JSONSerializer.getInstance(), path);
+
+        try (DatabaseRecordPlayer player = new DatabaseRecordPlayer()) {
+            Scenario scenario = taggedScenario("scenario", "a");
+            scenario.getMetadata().setTags(Arrays.asList("a", "b"));
+            player.record(scenario, config);
+            player.deleteByTags(Collections.singletonList("a"), config);
+            Assertions.assertNull(player.playback(scenario, config), "Tagged scenario should have been deleted.");
+
+            // the rows of its other tags went with it
+            Scenario recordedAgain = taggedScenario("scenario", "c");
+            player.record(recordedAgain, config);
+            player.deleteByTags(Collections.singletonList("b"), config);
+            Assertions.assertNotNull(player.playback(recordedAgain, config), "Scenario no longer has the tag.");
+
+            // recording over the scenario drops the rows of its earlier tags
+            player.record(taggedScenario("scenario", "d"), config);
+            player.deleteByTags(Collections.singletonList("c"), config);
+            Assertions.assertNotNull(player.playback(recordedAgain, config), "Scenario no longer has the tag.");
+            player.deleteByTags(Collections.singletonList("d"), config);
+            Assertions.assertNull(player.playback(recordedAgain, config), "Tagged scenario should have been deleted.");
+        }
+    }
+
+    @Test
+    public void expiredScenarioRejectedWithoutDeserializing() throws IOException {
+        String path = Files.createTempDirectory("vinyl-db-expiry-").toAbsolutePath().toString();
+        AtomicInteger deserialized = new AtomicInteger();
+        Serializer countingSerializer = new Serializer() {
+            @Override
+            public String serialize(Object object) {
+                return JSONSerializer.getInstance().serialize(object);
+            }
+
+            @Override
+            public <T> T deserialize(String serializedData, Class<T> type) {
+                deserialized.incrementAndGet();
+                return JSONSerializer.getInstance().deserialize(serializedData, type);
+            }
+        };
+        RecordingConfig config = new RecordingConfig(countingSerializer, path);
+
+        Scenario expired = taggedScenario("expired", "tag");
+        expired.getMetadata().setExpiryTimeInMillis(System.currentTimeMillis() - 1000);
+        Scenario live = taggedScenario("live", "tag");
+        live.getMetadata().setExpiryTimeInMillis(System.currentTimeMillis() + 60 * 1000);
+
+        try (DatabaseRecordPlayer player = new DatabaseRecordPlayer()) {
+            player.record(expired, config);
+            player.record(live, config);
+
+            long now = System.currentTimeMillis();
+            Assertions.assertNull(player.playbackIfNotExpired(expired, config, now), "Expired scenario was played back.");
+            Assertions.assertEquals(0, deserialized.get(), "Expired scenario shouldn't be deserialized.");
+            Assertions.assertNotNull(player.playbackIfNotExpired(live, config, now), "Scenario hasn't expired.");
+
+            // expiry is ignored by a plain playback
+            Assertions.assertNotNull(player.playback(expired, config), "Expired scenario should be played back.");
+
+            Assertions.assertEquals(1, player.purgeExpired(config));
+            Assertions.assertNull(player.playback(expired, config), "Expired scenario should have been purged.");
+            Assertions.assertNotNull(player.playback(live, config), "Scenario hasn't expired.");
+
+            // the tag index of the purged scenario went with it, so it doesn't delete the scenario recorded again
+            Scenario retagged = taggedScenario("expired", "other");
+            player.record(retagged, config);
+            player.deleteByTags(Collections.singletonList("tag"), config);
+            Assertions.assertNotNull(player.playback(retagged, config), "Scenario no longer has the tag.");
+            Assertions.assertNull(player.playback(live, config), "Tagged scenario should have been deleted.");
+        }
+    }
+}
@@ -2,7 +2,10 @@
 
 package com.compass.vinyl.player;
 
+import com.compass.vinyl.Data;
 import com.compass.vinyl.RecordingConfig;
+import com.compass.vinyl.Scenario;
+import com.compass.vinyl.ScenarioMetadata;
 import com.compass.vinyl.serializer.JSONSerializer;
 import com.compass.vinyl.serializer.Serializer;
 import org.junit.jupiter.api.*;
@@ -10,6 +13,11 @@ import org.junit.jupiter.api.*;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
 
 public class LocalFileSystemRecordPlayerTest extends RecordPlayerTest{
 
@@ -28,4 +36,164 @@ public class LocalFileSystemRecordPlayerTest extends RecordPlayerTest{
         RecordingConfig config = new RecordingConfig(serializer, recordingPath);
         setup(new LocalFileSystemRecordPlayer(), config);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void deleteByTagsSkipsRetaggedScenarios() throws IOException {
+        String path = Files.createTempDirectory("vinyl-tags-").toAbsolutePath().toString();
+        RecordingConfig config = new RecordingConfig(JSONSerializer.getInstance(), path);
+        LocalFileSystemRecordPlayer player = new LocalFileSystemRecordPlayer();
+
+        Scenario retagged = taggedScenario("retagged", "old");
+        Scenario tagged = taggedScenario("tagged", "old");
+        player.record(retagged, config);
+        player.record(tagged, config);
+        player.record(taggedScenario("retagged", "new"), config);
+
+        player.deleteByTags(Collections.singletonList("old"), config);
+        Assertions.assertNull(player.playback(tagged, config), "Tagged scenario should have been deleted.");
+        Assertions.assertNotNull(player.playback(retagged, config), "Scenario no longer has the tag.");
+
+        player.deleteByTags(Collections.singletonList("new"), config);
+        Assertions.assertNull(player.playback(retagged, config), "Tagged scenario should have been deleted.");
+    }
+
+    @Test
+    public void deleteByTagsIndexesExistingRecordings() throws IOException {
+        Path path = Files.createTempDirectory("vinyl-tags-existing-");
+        RecordingConfig config = new RecordingConfig(JSONSerializer.getInstance(), path.toString());
+        LocalFileSystemRecordPlayer player = new LocalFileSystemRecordPlayer();
+
+        Scenario tagged = taggedScenario("tagged", "tag");
+        Scenario otherTag = taggedScenario("other", "tag1");
+        player.record(tagged, config);
+        player.record(otherTag, config);
+
+        // recordings made before the tag index was introduced
+        try (Stream<Path> files = Files.walk(path.resolve(".tags"))) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+
+        player.deleteByTags(Collections.singletonList("tag"), config);
+        Assertions.assertNull(player.playback(tagged, config), "Tagged scenario should have been deleted.");
+        Assertions.assertNotNull(player.playback(otherTag, config), "Scenario with other tag shouldn't be deleted.");
+    }
+
+    @Test
+    public void deleteByTagsSkipsCorruptMetadata() throws IOException {
+        Path path = Files.createTempDirectory("vinyl-tags-corrupt-");
+        RecordingConfig config = new RecordingConfig(JSONSerializer.getInstance(), path.toString());
+        LocalFileSystemRecordPlayer player = new LocalFileSystemRecordPlayer();
+
+        Scenario tagged = taggedScenario("tagged", "tag");
+        Scenario corrupt = taggedScenario("corrupt", "tag");
+        player.record(tagged, config);
+        player.record(corrupt, config);
+        try (Stream<Path> files = Files.walk(path.resolve(".tags"))) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            String corruptId = corrupt.getUniqueId(config);
+            Path metaFile = files.filter(file -> file.getFileName().toString().startsWith(corruptId)
+                    && file.toString().endsWith("_meta")).findFirst().get();
+            Files.write(metaFile, "{not metadata".getBytes());
+        }
+
+        // the corrupt recording is skipped rather than failing the rebuild of the index
+        player.deleteByTags(Collections.singletonList("tag"), config);
+        Assertions.assertNull(player.playback(tagged, config), "Tagged scenario should have been deleted.");
+        Assertions.assertTrue(Files.exists(path.resolve(".tags").resolve("complete")), "Tag index wasn't rebuilt.");
+
+        Scenario recorded = taggedScenario("recorded", "tag");
+        player.record(recorded, config);
+        player.deleteByTags(Collections.singletonList("tag"), config);
+        Assertions.assertNull(player.playback(recorded, config), "Tagged scenario should have been deleted.");
+    }
+
+    @Test
+    public void tagIndexFollowsDeletes() throws IOException {
+        Path path = Files.createTempDirectory("vinyl-tags-delete-").resolve("recordings");
+        RecordingConfig config = new RecordingConfig(JSONSerializer.getInstance(), path.toString());
+        LocalFileSystemRecordPlayer player = new LocalFileSystemRecordPlayer();
+
+        Scenario tagged = taggedScenario("tagged", "tag");
+        player.record(tagged, config);
+        Assertions.assertTrue(Files.exists(path.resolve(".tags").resolve("complete")),
+                "Tag index of a new recording path should be complete.");
+
+        // the metadata goes with the deleted recording, so recording it again without tags keeps it out of the tag
+        player.delete(tagged, config);
+        Scenario untagged = new Scenario("source", "method",
+                Collections.singletonList(new Data("input", "tagged")), new Data("output", "tagged"));
+        player.record(untagged, config);
+        player.deleteByTags(Collections.singletonList("tag"), config);
+        Assertions.assertNotNull(player.playback(untagged, config), "Scenario no longer has the tag.");
+
+        // entries stay in the index until they have been handled
+        Scenario other = taggedScenario("other", "tag");
+        player.record(other, config);
+        FileTagIndex tagIndex = new FileTagIndex(path);
+        Assertions.assertThrows(IOException.class, () -> tagIndex.drain("tag", recording -> {
+            throw new IOException("Recording couldn't be deleted.");
+        }));
+        player.deleteByTags(Collections.singletonList("tag"), config);
+        Assertions.assertNull(player.playback(other, config), "Tagged scenario should have been deleted.");
+    }
+
+    @Test
+    public void mappingsFollowReplacedRecordings() throws IOException {
+        RecordingConfig config = new RecordingConfig(JSONSerializer.getInstance(),
+                Files.createTempDirectory("vinyl-mapped-").toString());
+        LocalFileSystemRecordPlayer player = new LocalFileSystemRecordPlayer(1, ReadMode.MEMORY_MAPPED);
+        LocalFileSystemRecordPlayer otherPlayer = new LocalFileSystemRecordPlayer(1, ReadMode.MEMORY_MAPPED);
+        Scenario scenario = largeScenario('a');
+
+        player.record(scenario, config);
+        Assertions.assertEquals(outputOf(scenario), outputOf(player.playback(scenario, config)));
+        Assertions.assertEquals(outputOf(scenario), outputOf(player.playback(scenario, config)));
+
+        // recorded again through the player, and then by another player with the same size
+        Scenario recordedAgain = largeScenario('b');
+        player.record(recordedAgain, config);
+        Assertions.assertEquals(outputOf(recordedAgain), outputOf(player.playback(scenario, config)));
+        Scenario replaced = largeScenario('c');
+        otherPlayer.record(replaced, config);
+        Assertions.assertEquals(outputOf(replaced), outputOf(player.playback(scenario, config)),
+                "Mapping of the replaced recording was played back.");
+
+        player.delete(scenario, config);
+        Assertions.assertNull(player.playback(scenario, config), "Deleted scenario was played back.");
+    }
+
+    private static Scenario largeScenario(char output) {
+        char[] value = new char[32 * 1024];
+        Arrays.fill(value, output);
+        return new Scenario("source", "method", Collections.singletonList(new Data("input", "large")),
+                new Data("output", new String(value)));
+    }
+
+    private static Object outputOf(Scenario scenario) {
+        return scenario.getOutput().getValue();
+    }
+
+    @Test
+    public void batchPlaybackFailsOnceClosed() throws IOException {
+        RecordingConfig config = new RecordingConfig(JSONSerializer.getInstance(),
+                Files.createTempDirectory("vinyl-closed-").toString());
+        LocalFileSystemRecordPlayer player = new LocalFileSystemRecordPlayer(2);
+        List<Scenario> scenarios = Arrays.asList(taggedScenario("first", "tag"), taggedScenario("second", "tag"));
+        player.recordAll(scenarios, config);
+        Assertions.assertEquals(2, player.playbackAll(scenarios, config).size());
+
+        player.close();
+        IllegalStateException e = Assertions.assertThrows(IllegalStateException.class,
+                () -> player.playbackAll(scenarios, config));
+        Assertions.assertEquals("Record player is already closed.", e.getMessage());
+    }
+
+    private static Scenario taggedScenario(String input, String tag) {
+        Scenario scenario = new Scenario("source", "method",
+                Collections.singletonList(new Data("input", input)), new Data("output", input));
+        scenario.setMetadata(new ScenarioMetadata(Arrays.asList(tag)));
+        return scenario;
+    }
+}
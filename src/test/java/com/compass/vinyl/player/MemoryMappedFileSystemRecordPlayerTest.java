@@ -0,0 +1,52 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.player;
+
+import com.compass.vinyl.Data;
+import com.compass.vinyl.RecordingConfig;
+import com.compass.vinyl.Scenario;
+import com.compass.vinyl.serializer.JSONSerializer;
+import com.compass.vinyl.serializer.Serializer;
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+public class MemoryMappedFileSystemRecordPlayerTest extends RecordPlayerTest {
+
+    private static String recordingPath;
+
+    @BeforeAll
+    public static void setup() {
+        try {
+            Path temp = Files.createTempDirectory("vinyl-mapped-");
+            recordingPath = temp.toAbsolutePath().toString();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        Serializer serializer = JSONSerializer.getInstance();
+        RecordingConfig config = new RecordingConfig(serializer, recordingPath);
+        setup(new LocalFileSystemRecordPlayer(1, ReadMode.MEMORY_MAPPED), config);
+    }
+
+    @Test
+    public void recordAgainAfterPlayback() throws IOException {
+        String path = Files.createTempDirectory("vinyl-mapped-rerecord-").toAbsolutePath().toString();
+        RecordingConfig config = new RecordingConfig(JSONSerializer.getInstance(), path);
+        LocalFileSystemRecordPlayer player = new LocalFileSystemRecordPlayer(1, ReadMode.MEMORY_MAPPED);
+
+        Scenario scenario = new Scenario("source", "method",
+                Collections.singletonList(new Data("input", "input")), new Data("output", "a much longer output"));
+        player.record(scenario, config);
+        Scenario first = player.playback(scenario, config);
+
+        // the recording is replaced with a new file rather than rewritten in place
+        player.record(new Scenario("source", "method",
+                Collections.singletonList(new Data("input", "input")), new Data("output", "short")), config);
+        Assertions.assertEquals("a much longer output", first.getOutput().getValue());
+        Assertions.assertEquals("short", player.playback(scenario, config).getOutput().getValue());
+    }
+}
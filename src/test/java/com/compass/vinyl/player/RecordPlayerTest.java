@@ -107,4 +107,39 @@ public abstract class RecordPlayerTest {
         status = player.record(scenario, config);
         Assertions.assertTrue(status, "Recording of the scenario failed.");
     }
+
+    @Test
+    @Order(5)
+    public void recordAllAndPlaybackAll() {
+        List<Scenario> scenarios = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            scenarios.add(new Scenario("batch", "test",
+                    Arrays.asList(new Data("input", "input" + i)), new Data("output", "output" + i)));
+        }
+        boolean status = player.recordAll(scenarios, config);
+        Assertions.assertTrue(status, "Recording of the scenarios failed.");
+
+        List<Scenario> scenariosToPlayback = new ArrayList<>(scenarios);
+        scenariosToPlayback.add(new Scenario("NA", "NA", null));
+        List<Scenario> recordedScenarios = player.playbackAll(scenariosToPlayback, config);
+
+        Assertions.assertEquals(scenariosToPlayback.size(), recordedScenarios.size());
+        for (int i = 0; i < scenarios.size(); i++) {
+            Assertions.assertEquals("output" + i, recordedScenarios.get(i).getOutput().getValue(),
+                    "Replay of the scenario failed.");
+        }
+        Assertions.assertNull(recordedScenarios.get(scenarios.size()), "Scenario doesn't exist but result is not null.");
+    }
+
+    @Test
+    @Order(6)
+    public void recordNonAscii() {
+        Scenario scenario = new Scenario("unicode", "test",
+                Arrays.asList(new Data("input", "Grüße")), new Data("output", "你好 \uD83D\uDE00"));
+        Assertions.assertTrue(player.record(scenario, config), "Recording of the scenario failed.");
+
+        Scenario recordedScenario = player.playback(scenario, config);
+        Assertions.assertEquals("你好 \uD83D\uDE00", recordedScenario.getOutput().getValue(),
+                "Replay of the scenario failed.");
+    }
 }
@@ -0,0 +1,252 @@
+package com.compass.vinyl.player;
+
+import com.compass.vinyl.Data;
+import com.compass.vinyl.RecordingConfig;
+import com.compass.vinyl.Scenario;
+import com.compass.vinyl.ScenarioMetadata;
+import com.compass.vinyl.serializer.JSONSerializer;
+import com.compass.vinyl.serializer.Serializer;
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TieredRecordPlayerTest extends RecordPlayerTest {
+
+    private static String recordingPath;
+
+    @BeforeAll
+    public static void setup() {
+        try {
+            Path temp = Files.createTempDirectory("vinyl-tiered-");
+            recordingPath = temp.toAbsolutePath().toString();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        Serializer serializer = JSONSerializer.getInstance();
+        RecordingConfig config = new RecordingConfig(serializer, recordingPath);
+        setup(new TieredRecordPlayer(new LocalFileSystemRecordPlayer()), config);
+    }
+
+    @Test
+    public void promotedOnPlaybackAndDeletedFromBothTiers() throws Exception {
+        RecordingConfig config = new RecordingConfig(JSONSerializer.getInstance(),
+                Files.createTempDirectory("vinyl-tiered-promote-").toString());
+        LocalFileSystemRecordPlayer delegate = new LocalFileSystemRecordPlayer();
+        delegate.record(scenario("stored", "tag"), config);
+
+        TieredRecordPlayer player = new TieredRecordPlayer(delegate);
+        Scenario first = player.playback(scenario("stored", null), config);
+        Scenario second = player.playback(scenario("stored", null), config);
+        Assertions.assertEquals("stored", first.getOutput().getValue());
+        Assertions.assertSame(first, second, "Scenario wasn't played back from memory.");
+        Assertions.assertEquals(1, player.getMemoryTierStats().getHits());
+        Assertions.assertEquals(1, player.getMemoryTierStats().getMisses());
+        Assertions.assertEquals(1.0, player.getPlayerTierStats().getHitRatio());
+
+        player.deleteByTags(Collections.singletonList("tag"), config);
+        Assertions.assertNull(player.playback(scenario("stored", null), config), "Deleted scenario played back.");
+        Assertions.assertNull(delegate.playback(scenario("stored", null), config));
+        Assertions.assertEquals(0, player.getWeight());
+
+        player.record(scenario("recorded", null), config);
+        player.delete(scenario("recorded", null), config);
+        Assertions.assertNull(player.playback(scenario("recorded", null), config), "Deleted scenario played back.");
+        Assertions.assertNull(delegate.playback(scenario("recorded", null), config));
+    }
+
+    @Test
+    public void frequentScenariosKeptWithinWeight() throws Exception {
+        RecordingConfig config = new RecordingConfig(JSONSerializer.getInstance(),
+                Files.createTempDirectory("vinyl-tiered-evict-").toString());
+        long scenarioWeight = TieredRecordPlayer.ESTIMATED_SIZE.weigh(scenario("frequent0", null), config);
+        TieredRecordPlayer player = new TieredRecordPlayer(new LocalFileSystemRecordPlayer(), 4 * scenarioWeight,
+                TieredRecordPlayer.WriteMode.WRITE_THROUGH);
+
+        for (int i = 0; i < 4; i++) {
+            player.record(scenario("frequent" + i, null), config);
+            for (int j = 0; j < 5; j++)
+                player.playback(scenario("frequent" + i, null), config);
+        }
+        // scenarios used once don't push out the ones used often
+        for (int i = 0; i < 20; i++)
+            player.record(scenario("scan" + i, null), config);
+
+        Assertions.assertTrue(player.getWeight() <= 4 * scenarioWeight, "Weight exceeds the maximum.");
+        long hits = player.getMemoryTierStats().getHits();
+        for (int i = 0; i < 4; i++)
+            Assertions.assertNotNull(player.playback(scenario("frequent" + i, null), config));
+        Assertions.assertEquals(hits + 4, player.getMemoryTierStats().getHits(), "Frequent scenario evicted.");
+        Assertions.assertEquals("scan7", player.playback(scenario("scan7", null), config).getOutput().getValue());
+    }
+
+    @Test
+    public void writtenBackOnEvictionAndClose() throws Exception {
+        RecordingConfig config = new RecordingConfig(JSONSerializer.getInstance(),
+                Files.createTempDirectory("vinyl-tiered-write-back-").toString());
+        LocalFileSystemRecordPlayer delegate = new LocalFileSystemRecordPlayer();
+        long scenarioWeight = TieredRecordPlayer.ESTIMATED_SIZE.weigh(scenario("first", null), config);
+        TieredRecordPlayer player = new TieredRecordPlayer(delegate, 2 * scenarioWeight,
+                TieredRecordPlayer.WriteMode.WRITE_BACK);
+
+        Assertions.assertTrue(player.record(scenario("first", null), config));
+        Assertions.assertNull(delegate.playback(scenario("first", null), config), "Scenario written through.");
+        Assertions.assertEquals("first", player.playback(scenario("first", null), config).getOutput().getValue());
+
+        player.record(scenario("other", null), config);
+        player.record(scenario("third", null), config);
+        player.record(scenario("fourth", null), config);
+        player.close();
+        for (String input : new String[]{"first", "other", "third", "fourth"})
+            Assertions.assertNotNull(delegate.playback(scenario(input, null), config), "Scenario wasn't written.");
+    }
+
+    @Test
+    public void stalePlaybackNotPromotedOverRecording() throws Exception {
+        RecordingConfig config = new RecordingConfig(JSONSerializer.getInstance(),
+                Files.createTempDirectory("vinyl-tiered-race-").toString());
+        InterleavingPlayer delegate = new InterleavingPlayer();
+        Scenario previous = new Scenario("source", "method",
+                Collections.singletonList(new Data("input", "raced")), new Data("output", "previous"));
+        Scenario recorded = new Scenario("source", "method",
+                Collections.singletonList(new Data("input", "raced")), new Data("output", "recorded"));
+        delegate.player.record(previous, config);
+        TieredRecordPlayer player = new TieredRecordPlayer(delegate);
+
+        // the recording is invalidated, then the playback reads the previous one before the write lands, and
+        // only tries to promote it once the recording is held in memory
+        Thread recording = new Thread(() -> player.record(recorded, config));
+        recording.start();
+        delegate.recording.await();
+        Scenario[] playedBack = new Scenario[1];
+        Thread playback = new Thread(() -> playedBack[0] = player.playback(scenario("raced", null), config));
+        playback.start();
+        recording.join();
+        delegate.recorded.countDown();
+        playback.join();
+
+        Assertions.assertEquals("previous", playedBack[0].getOutput().getValue());
+        Assertions.assertEquals("recorded", player.playback(scenario("raced", null), config).getOutput().getValue(),
+                "Previous recording promoted over the new one.");
+    }
+
+    @Test
+    public void estimatedWithoutSerializing() throws Exception {
+        AtomicInteger serialized = new AtomicInteger();
+        Serializer countingSerializer = new Serializer() {
+            @Override
+            public String serialize(Object object) {
+                serialized.incrementAndGet();
+                return JSONSerializer.getInstance().serialize(object);
+            }
+
+            @Override
+            public <T> T deserialize(String serializedData, Class<T> type) {
+                return JSONSerializer.getInstance().deserialize(serializedData, type);
+            }
+        };
+        RecordingConfig config = new RecordingConfig(countingSerializer,
+                Files.createTempDirectory("vinyl-tiered-weigh-").toString());
+        LocalFileSystemRecordPlayer delegate = new LocalFileSystemRecordPlayer();
+        delegate.record(scenario("weighed", "tag"), config);
+        Scenario playedBack = delegate.playback(scenario("weighed", null), config);
+        serialized.set(0);
+
+        long recordedWeight = TieredRecordPlayer.ESTIMATED_SIZE.weigh(scenario("weighed", "tag"), config);
+        long playedBackWeight = TieredRecordPlayer.ESTIMATED_SIZE.weigh(playedBack, config);
+        Assertions.assertEquals(0, serialized.get(), "Scenario serialized to be weighed.");
+        Assertions.assertTrue(recordedWeight > 0 && playedBackWeight > 0);
+    }
+
+    @Test
+    public void evictedWrittenBackOutsideTheLock() throws Exception {
+        RecordingConfig config = new RecordingConfig(JSONSerializer.getInstance(),
+                Files.createTempDirectory("vinyl-tiered-evict-write-").toString());
+        InterleavingPlayer delegate = new InterleavingPlayer();
+        TieredRecordPlayer player = new TieredRecordPlayer(delegate, 1, TieredRecordPlayer.WriteMode.WRITE_BACK,
+                (scenario, recordingConfig) -> 1);
+
+        // the write back of the scenario evicted by the second recording is held up
+        Thread recording = new Thread(() -> {
+            player.record(scenario("first", null), config);
+            player.record(scenario("second", null), config);
+        });
+        recording.start();
+        delegate.recording.await();
+
+        Assertions.assertEquals(1, (long) CompletableFuture.supplyAsync(player::getWeight).get(5, TimeUnit.SECONDS),
+                "Eviction lock held while writing back.");
+        Assertions.assertEquals("first", player.playback(scenario("first", null), config).getOutput().getValue());
+        Assertions.assertEquals("second", player.playback(scenario("second", null), config).getOutput().getValue());
+        Assertions.assertEquals(0, player.getMemoryTierStats().getMisses(), "Evicted scenario not played back.");
+
+        delegate.playedBack.countDown();
+        recording.join();
+        player.close();
+        Assertions.assertNotNull(delegate.player.playback(scenario("first", null), config));
+        Assertions.assertNotNull(delegate.player.playback(scenario("second", null), config));
+    }
+
+    private static Scenario scenario(String input, String tag) {
+        Scenario scenario = new Scenario("source", "method",
+                Collections.singletonList(new Data("input", input)), new Data("output", input));
+        if (tag != null)
+            scenario.setMetadata(new ScenarioMetadata(Collections.singletonList(tag)));
+        return scenario;
+    }
+
+    /**
+     * Holds up a recording until a playback has read the previous one, and that playback until released.
+     */
+    private static class InterleavingPlayer implements RecordPlayer {
+
+        final CountDownLatch recording = new CountDownLatch(1);
+
+        final CountDownLatch playedBack = new CountDownLatch(1);
+
+        final CountDownLatch recorded = new CountDownLatch(1);
+
+        final LocalFileSystemRecordPlayer player = new LocalFileSystemRecordPlayer();
+
+        @Override
+        public boolean record(Scenario scenario, RecordingConfig config) {
+            recording.countDown();
+            await(playedBack);
+            return player.record(scenario, config);
+        }
+
+        @Override
+        public Scenario playback(Scenario scenario, RecordingConfig config) {
+            Scenario recordedScenario = player.playback(scenario, config);
+            playedBack.countDown();
+            await(recorded);
+            return recordedScenario;
+        }
+
+        @Override
+        public void delete(Scenario scenario, RecordingConfig config) {
+            player.delete(scenario, config);
+        }
+
+        @Override
+        public void deleteByTags(List<String> tags, RecordingConfig config) {
+            player.deleteByTags(tags, config);
+        }
+
+        private static void await(CountDownLatch latch) {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.compass.vinyl.player;
+
+import com.compass.vinyl.Data;
+import com.compass.vinyl.RecordingConfig;
+import com.compass.vinyl.Scenario;
+import com.compass.vinyl.serializer.JSONSerializer;
+import com.compass.vinyl.serializer.Serializer;
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class WriteBehindRecordPlayerTest extends RecordPlayerTest {
+
+    private static String recordingPath;
+
+    @BeforeAll
+    public static void setup() {
+        try {
+            Path temp = Files.createTempDirectory("vinyl-write-behind-");
+            recordingPath = temp.toAbsolutePath().toString();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        Serializer serializer = JSONSerializer.getInstance();
+        RecordingConfig config = new RecordingConfig(serializer, recordingPath);
+        setup(new WriteBehindRecordPlayer(new LocalFileSystemRecordPlayer()), config);
+    }
+
+    @Test
+    public void queuedWritesVisibleAndDrainedOnClose() throws Exception {
+        RecordingConfig config = new RecordingConfig(JSONSerializer.getInstance(),
+                Files.createTempDirectory("vinyl-write-behind-drain-").toString());
+        BlockingPlayer delegate = new BlockingPlayer();
+        WriteBehindRecordPlayer player = new WriteBehindRecordPlayer(delegate);
+
+        Scenario first = scenario("first");
+        Scenario second = scenario("second");
+        Assertions.assertTrue(player.record(first, config), "Recording of the scenario failed.");
+        Assertions.assertTrue(player.record(second, config), "Recording of the scenario failed.");
+        player.delete(first, config);
+
+        // the writer thread is held up, yet the queued writes are played back
+        Assertions.assertNull(player.playback(first, config), "Deleted scenario was played back.");
+        Assertions.assertEquals("second", player.playback(second, config).getOutput().getValue());
+
+        delegate.release.countDown();
+        player.close();
+        Assertions.assertNull(delegate.playback(first, config), "Deleted scenario was written.");
+        Assertions.assertEquals("second", delegate.playback(second, config).getOutput().getValue());
+        Assertions.assertTrue(delegate.closed, "Underlying player should be closed.");
+    }
+
+    @Test
+    public void fullQueueDropsOrRunsOnCaller() throws Exception {
+        RecordingConfig config = new RecordingConfig(JSONSerializer.getInstance(),
+                Files.createTempDirectory("vinyl-write-behind-full-").toString());
+
+        BlockingPlayer delegate = new BlockingPlayer();
+        WriteBehindRecordPlayer dropping = new WriteBehindRecordPlayer(delegate, 1, 1,
+                WriteBehindRecordPlayer.OverflowPolicy.DROP);
+        dropping.record(scenario("taken"), config);
+        Assertions.assertTrue(delegate.writing.await(5, TimeUnit.SECONDS), "Writer thread didn't start writing.");
+        Assertions.assertTrue(dropping.record(scenario("queued"), config), "Recording should have been queued.");
+        Assertions.assertFalse(dropping.record(scenario("dropped"), config), "Recording should have been dropped.");
+        delegate.release.countDown();
+        dropping.close();
+        Assertions.assertNotNull(delegate.playback(scenario("queued"), config), "Queued scenario wasn't written.");
+        Assertions.assertNull(delegate.playback(scenario("dropped"), config), "Dropped scenario was written.");
+
+        LocalFileSystemRecordPlayer fileDelegate = new LocalFileSystemRecordPlayer();
+        BlockingPlayer blocked = new BlockingPlayer();
+        WriteBehindRecordPlayer callerRuns = new WriteBehindRecordPlayer(new RecordPlayer() {
+            @Override
+            public boolean record(Scenario scenario, RecordingConfig config) {
+                return fileDelegate.record(scenario, config);
+            }
+
+            @Override
+            public boolean recordAll(Collection<Scenario> scenarios, RecordingConfig config) {
+                return blocked.recordAll(scenarios, config) && fileDelegate.recordAll(scenarios, config);
+            }
+
+            @Override
+            public Scenario playback(Scenario scenario, RecordingConfig config) {
+                return fileDelegate.playback(scenario, config);
+            }
+
+            @Override
+            public void delete(Scenario scenario, RecordingConfig config) {
+                fileDelegate.delete(scenario, config);
+            }
+
+            @Override
+            public void deleteByTags(List<String> tags, RecordingConfig config) {
+                fileDelegate.deleteByTags(tags, config);
+            }
+        }, 1, 1, WriteBehindRecordPlayer.OverflowPolicy.CALLER_RUNS);
+        callerRuns.record(scenario("taken"), config);
+        Assertions.assertTrue(blocked.writing.await(5, TimeUnit.SECONDS), "Writer thread didn't start writing.");
+        callerRuns.record(scenario("queued"), config);
+        blocked.release.countDown();
+        Assertions.assertTrue(callerRuns.record(scenario("inline"), config), "Recording on the caller failed.");
+        callerRuns.close();
+        for (String input : new String[]{"taken", "queued", "inline"})
+            Assertions.assertNotNull(fileDelegate.playback(scenario(input), config), "Scenario wasn't written.");
+    }
+
+    @Test
+    public void droppedWritesNeitherBlockNorShadowQueuedOnes() throws Exception {
+        RecordingConfig config = new RecordingConfig(JSONSerializer.getInstance(),
+                Files.createTempDirectory("vinyl-write-behind-drop-").toString());
+        BlockingPlayer delegate = new BlockingPlayer();
+        WriteBehindRecordPlayer player = new WriteBehindRecordPlayer(delegate, 1, 1,
+                WriteBehindRecordPlayer.OverflowPolicy.DROP);
+        player.record(scenario("taken"), config);
+        Assertions.assertTrue(delegate.writing.await(5, TimeUnit.SECONDS), "Writer thread didn't start writing.");
+
+        // the recordings race for the last place in the queue
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger queued = new AtomicInteger();
+        List<Thread> recorders = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            String input = "concurrent" + i;
+            recorders.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (player.record(scenario(input), config))
+                    queued.incrementAndGet();
+            }));
+        }
+        for (Thread recorder : recorders)
+            recorder.start();
+        start.countDown();
+        for (Thread recorder : recorders)
+            recorder.join(TimeUnit.SECONDS.toMillis(5));
+        for (Thread recorder : recorders)
+            Assertions.assertFalse(recorder.isAlive(), "Recording blocked on the full queue.");
+        Assertions.assertEquals(1, queued.get(), "Only one recording fits in the queue.");
+
+        // a dropped write leaves the queued write of the scenario in place
+        String queuedInput = null;
+        for (int i = 0; i < 8; i++) {
+            if (player.playback(scenario("concurrent" + i), config) != null)
+                queuedInput = "concurrent" + i;
+        }
+        Scenario newer = new Scenario("source", "method",
+                Collections.singletonList(new Data("input", queuedInput)), new Data("output", "newer"));
+        Assertions.assertFalse(player.record(newer, config), "Recording should have been dropped.");
+        Assertions.assertEquals(queuedInput, player.playback(newer, config).getOutput().getValue());
+
+        delegate.release.countDown();
+        player.close();
+        Assertions.assertEquals(queuedInput, delegate.playback(newer, config).getOutput().getValue());
+    }
+
+    @Test
+    public void writesAndFlushesFailOnceClosed() throws Exception {
+        RecordingConfig config = new RecordingConfig(JSONSerializer.getInstance(),
+                Files.createTempDirectory("vinyl-write-behind-closed-").toString());
+        BlockingPlayer delegate = new BlockingPlayer();
+        delegate.release.countDown();
+        WriteBehindRecordPlayer player = new WriteBehindRecordPlayer(delegate);
+        player.record(scenario("written"), config);
+        Assertions.assertTrue(player.flush(), "Queued writes weren't flushed.");
+
+        List<Thread> closers = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+            closers.add(new Thread(player::close));
+        for (Thread closer : closers)
+            closer.start();
+        for (Thread closer : closers)
+            closer.join(TimeUnit.SECONDS.toMillis(5));
+        for (Thread closer : closers)
+            Assertions.assertFalse(closer.isAlive(), "Close didn't return.");
+
+        Assertions.assertTrue(delegate.closed, "Underlying player should be closed.");
+        Assertions.assertEquals("written", delegate.playback(scenario("written"), config).getOutput().getValue());
+        Assertions.assertThrows(IllegalStateException.class, player::flush);
+        Assertions.assertThrows(IllegalStateException.class,
+                () -> player.deleteByTags(Collections.singletonList("tag"), config));
+        Assertions.assertThrows(IllegalStateException.class, () -> player.record(scenario("late"), config));
+        Assertions.assertThrows(IllegalStateException.class, () -> player.delete(scenario("written"), config));
+    }
+
+    private static Scenario scenario(String input) {
+        return new Scenario("source", "method",
+                Collections.singletonList(new Data("input", input)), new Data("output", input));
+    }
+
+    /**
+     * Player holding up the writes until released.
+     */
+    private static class BlockingPlayer implements RecordPlayer {
+
+        final CountDownLatch writing = new CountDownLatch(1);
+
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final LocalFileSystemRecordPlayer player = new LocalFileSystemRecordPlayer();
+
+        volatile boolean closed;
+
+        @Override
+        public boolean record(Scenario scenario, RecordingConfig config) {
+            return recordAll(Collections.singletonList(scenario), config);
+        }
+
+        @Override
+        public boolean recordAll(Collection<Scenario> scenarios, RecordingConfig config) {
+            writing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return player.recordAll(new ArrayList<>(scenarios), config);
+        }
+
+        @Override
+        public Scenario playback(Scenario scenario, RecordingConfig config) {
+            return player.playback(scenario, config);
+        }
+
+        @Override
+        public void delete(Scenario scenario, RecordingConfig config) {
+            player.delete(scenario, config);
+        }
+
+        @Override
+        public void deleteByTags(List<String> tags, RecordingConfig config) {
+            player.deleteByTags(tags, config);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            player.close();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.recorder;
+
+import com.compass.vinyl.*;
+import com.compass.vinyl.player.LocalFileSystemRecordPlayer;
+import com.compass.vinyl.serializer.JSONSerializer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class VinylAdmissionTest {
+
+    private static Vinyl vinyl(AdmissionPolicy policy) throws IOException {
+        String path = Files.createTempDirectory("vinyl-admission-").toAbsolutePath().toString();
+        return new Vinyl.Builder()
+                .usingMode(Mode.CACHE)
+                .withPlayer(new LocalFileSystemRecordPlayer())
+                .usingRecordingConfig(new RecordingConfig(JSONSerializer.getInstance(), path))
+                .usingAdmissionPolicy(policy)
+                .create();
+    }
+
+    private static Scenario scenario(String input) {
+        return new Scenario("admission", "test", Collections.singletonList(new Data("input", input)));
+    }
+
+    private static String text(int length) {
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length)
+            text.append('x');
+        return text.toString();
+    }
+
+    @Test
+    public void recordedOnSecondSighting() throws Exception {
+        try (Vinyl vinyl = vinyl(AdmissionPolicy.seenAtLeast(2))) {
+            AtomicInteger computations = new AtomicInteger();
+            for (int i = 0; i < 3; i++) {
+                Scenario computedScenario = vinyl.playbackOrCompute(scenario("popular"), () -> {
+                    computations.incrementAndGet();
+                    return new Data("output", "popular");
+                });
+                Assertions.assertEquals("popular", computedScenario.getOutput().getValue());
+                if (i == 0)
+                    Assertions.assertNull(vinyl.playback(scenario("popular")), "Recorded on first sighting.");
+            }
+            Assertions.assertEquals(2, computations.get());
+            Assertions.assertNotNull(vinyl.playback(scenario("popular")));
+        }
+        Assertions.assertThrows(IllegalArgumentException.class, () -> AdmissionPolicy.seenAtLeast(16));
+    }
+
+    @Test
+    public void recordedWhenSlowAndSmall() throws Exception {
+        try (Vinyl vinyl = vinyl(AdmissionPolicy.slowerThan(20).and(AdmissionPolicy.smallerThan(1024)))) {
+            vinyl.playbackOrCompute(scenario("fast"), () -> new Data("output", "fast"));
+            vinyl.playbackOrCompute(scenario("slow"), () -> {
+                sleep(40);
+                return new Data("output", "slow");
+            });
+            vinyl.playbackOrCompute(scenario("huge"), () -> {
+                sleep(40);
+                return new Data("output", text(4096));
+            });
+
+            Assertions.assertNull(vinyl.playback(scenario("fast")));
+            Assertions.assertNotNull(vinyl.playback(scenario("slow")));
+            Assertions.assertNull(vinyl.playback(scenario("huge")));
+
+            // recorded explicitly regardless of the policy
+            vinyl.record(scenario("fast").withOutput(new Data("output", "fast")));
+            Assertions.assertNotNull(vinyl.playback(scenario("fast")));
+        }
+    }
+
+    @Test
+    public void recordedWhenSavingEnoughPerKilobyte() throws Exception {
+        try (Vinyl vinyl = vinyl(AdmissionPolicy.savingAtLeast(1000))) {
+            vinyl.playbackOrCompute(scenario("cheap"), () -> new Data("output", text(64 * 1024)));
+            vinyl.playbackOrCompute(scenario("costly"), () -> {
+                sleep(20);
+                return new Data("output", text(1024));
+            });
+
+            Assertions.assertNull(vinyl.playback(scenario("cheap")));
+            Assertions.assertNotNull(vinyl.playback(scenario("costly")));
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.recorder;
+
+import com.compass.vinyl.*;
+import com.compass.vinyl.player.LocalFileSystemRecordPlayer;
+import com.compass.vinyl.serializer.JSONSerializer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.*;
+
+public class VinylAsyncTest {
+
+    private static Vinyl.Builder builder() throws IOException {
+        String path = Files.createTempDirectory("vinyl-async-").toAbsolutePath().toString();
+        return new Vinyl.Builder()
+                .usingMode(Mode.CACHE)
+                .withPlayer(new LocalFileSystemRecordPlayer())
+                .usingRecordingConfig(new RecordingConfig(JSONSerializer.getInstance(), path));
+    }
+
+    private static Scenario scenario(String input) {
+        Scenario scenario = new Scenario("async", "test", Collections.singletonList(new Data("input", input)));
+        scenario.setMetadata(new ScenarioMetadata(Collections.singletonList("async")));
+        return scenario;
+    }
+
+    @Test
+    public void recordPlaybackAndClear() throws Exception {
+        try (Vinyl vinyl = builder().usingIoThreads(2, 10).create()) {
+            vinyl.recordAsync(scenario("first").withOutput(new Data("output", "first"))).get(5, TimeUnit.SECONDS);
+            vinyl.recordAsync(scenario("second").withOutput(new Data("output", "second"))).get(5, TimeUnit.SECONDS);
+
+            Scenario recordedScenario = vinyl.playbackAsync(scenario("first")).get(5, TimeUnit.SECONDS);
+            Assertions.assertEquals("first", recordedScenario.getOutput().getValue());
+
+            vinyl.clearScenarioAsync(scenario("first")).get(5, TimeUnit.SECONDS);
+            Assertions.assertNull(vinyl.playbackAsync(scenario("first")).get(5, TimeUnit.SECONDS));
+
+            vinyl.clearAsync(Collections.singletonList("async")).get(5, TimeUnit.SECONDS);
+            Assertions.assertNull(vinyl.playbackAsync(scenario("second")).get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void rejectedWhenExecutorIsFull() throws Exception {
+        Executor rejecting = command -> {
+            throw new RejectedExecutionException("Full");
+        };
+        try (Vinyl vinyl = builder().usingIoExecutor(rejecting).create()) {
+            CompletableFuture<Scenario> playback = vinyl.playbackAsync(scenario("first"));
+            ExecutionException e = Assertions.assertThrows(ExecutionException.class, playback::get);
+            Assertions.assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    @Test
+    public void computedOutputRecordedInBackground() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        try (Vinyl vinyl = builder().usingIoExecutor(executor).withBackgroundRecording(true).create()) {
+            // returns while the recording waits for the executor
+            Scenario computedScenario = vinyl.playbackOrCompute(scenario("first"), () -> new Data("output", "first"));
+            Assertions.assertEquals("first", computedScenario.getOutput().getValue());
+            Assertions.assertNull(vinyl.playback(scenario("first")), "Scenario recorded on the caller's thread.");
+
+            // served the computed output until it is recorded
+            Assertions.assertEquals("first", vinyl.playbackOrCompute(scenario("first"), () -> {
+                throw new AssertionError("Scenario computed again.");
+            }).getOutput().getValue());
+
+            release.countDown();
+            executor.shutdown();
+            Assertions.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+            Assertions.assertEquals("first", vinyl.playback(scenario("first")).getOutput().getValue());
+        }
+    }
+}
@@ -0,0 +1,110 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.recorder;
+
+import com.compass.vinyl.*;
+import com.compass.vinyl.player.LocalFileSystemRecordPlayer;
+import com.compass.vinyl.serializer.JSONSerializer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class VinylCoalescingTest {
+
+    private static Vinyl vinyl(long coalescingTimeoutInMillis) throws IOException {
+        String path = Files.createTempDirectory("vinyl-coalescing-").toAbsolutePath().toString();
+        return new Vinyl.Builder()
+                .usingMode(Mode.CACHE)
+                .withPlayer(new LocalFileSystemRecordPlayer())
+                .usingRecordingConfig(new RecordingConfig(JSONSerializer.getInstance(), path))
+                .usingCoalescingTimeout(coalescingTimeoutInMillis)
+                .create();
+    }
+
+    private static Scenario scenario() {
+        return new Scenario("coalescing", "test", Collections.singletonList(new Data("input", "input")));
+    }
+
+    private static List<Future<Scenario>> callConcurrently(Vinyl vinyl, int calls, Callable<Data> compute)
+            throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(calls);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Scenario>> results = new ArrayList<>();
+        for (int i = 0; i < calls; i++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                return vinyl.playbackOrCompute(scenario(), () -> {
+                    try {
+                        return compute.call();
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+            }));
+        }
+        start.countDown();
+        executor.shutdown();
+        return results;
+    }
+
+    @Test
+    public void concurrentMissesComputedOnce() throws Exception {
+        Vinyl vinyl = vinyl(10_000);
+        AtomicInteger computations = new AtomicInteger();
+        List<Future<Scenario>> results = callConcurrently(vinyl, 8, () -> {
+            computations.incrementAndGet();
+            Thread.sleep(300);
+            return new Data("output", "computed");
+        });
+
+        for (Future<Scenario> result : results)
+            Assertions.assertEquals("computed", result.get().getOutput().getValue());
+        Assertions.assertEquals(1, computations.get(), "Output computed more than once.");
+
+        // recorded by the computation
+        Assertions.assertEquals("computed", vinyl.playback(scenario()).getOutput().getValue());
+        Assertions.assertEquals("computed", vinyl.playbackOrCompute(scenario(), () -> {
+            throw new AssertionError("Recorded scenario computed.");
+        }).getOutput().getValue());
+    }
+
+    @Test
+    public void failureSharedWithWaitingCalls() throws Exception {
+        Vinyl vinyl = vinyl(10_000);
+        AtomicInteger computations = new AtomicInteger();
+        List<Future<Scenario>> results = callConcurrently(vinyl, 4, () -> {
+            computations.incrementAndGet();
+            Thread.sleep(300);
+            throw new IOException("Service unavailable");
+        });
+
+        for (Future<Scenario> result : results) {
+            ExecutionException e = Assertions.assertThrows(ExecutionException.class, result::get);
+            Assertions.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        Assertions.assertEquals(1, computations.get(), "Output computed more than once.");
+        Assertions.assertNull(vinyl.playback(scenario()));
+    }
+
+    @Test
+    public void computedAgainAfterTimeout() throws Exception {
+        Vinyl vinyl = vinyl(50);
+        AtomicInteger computations = new AtomicInteger();
+        List<Future<Scenario>> results = callConcurrently(vinyl, 2, () -> {
+            computations.incrementAndGet();
+            Thread.sleep(500);
+            return new Data("output", "computed");
+        });
+
+        for (Future<Scenario> result : results)
+            Assertions.assertEquals("computed", result.get().getOutput().getValue());
+        Assertions.assertEquals(2, computations.get(), "Waiting call didn't compute the output itself.");
+    }
+}
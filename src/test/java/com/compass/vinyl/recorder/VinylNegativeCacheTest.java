@@ -0,0 +1,71 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.recorder;
+
+import com.compass.vinyl.*;
+import com.compass.vinyl.metrics.VinylStats;
+import com.compass.vinyl.player.LocalFileSystemRecordPlayer;
+import com.compass.vinyl.serializer.JSONSerializer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+
+public class VinylNegativeCacheTest {
+
+    private static Vinyl vinyl(Mode mode, VinylStats stats) throws IOException {
+        String path = Files.createTempDirectory("vinyl-negative-").toAbsolutePath().toString();
+        return new Vinyl.Builder()
+                .usingMode(mode)
+                .withPlayer(new LocalFileSystemRecordPlayer())
+                .usingRecordingConfig(new RecordingConfig(JSONSerializer.getInstance(), path))
+                .usingMetrics(stats)
+                .usingNegativeCacheSize(2)
+                .create();
+    }
+
+    private static Scenario scenario(String input) {
+        return new Scenario("negative", "test", Collections.singletonList(new Data("input", input)));
+    }
+
+    @Test
+    public void knownMissesAnsweredUntilExpiredOrRecorded() throws Exception {
+        VinylStats stats = new VinylStats();
+        try (Vinyl vinyl = vinyl(Mode.CACHE, stats)) {
+            vinyl.recordNegative(scenario("failing").withOutput(new Data("error", "unavailable")), 60_000);
+            vinyl.recordNegative(scenario("expiring"), 1);
+
+            Scenario negativeScenario = vinyl.playbackNegative(scenario("failing"));
+            Assertions.assertEquals("unavailable", negativeScenario.getOutput().getValue());
+            Assertions.assertNull(vinyl.playback(scenario("failing")), "Known miss recorded by the player.");
+            Thread.sleep(5);
+            Assertions.assertNull(vinyl.playbackNegative(scenario("expiring")));
+            Assertions.assertNull(vinyl.playbackNegative(scenario("other")));
+            Assertions.assertEquals(1, stats.getEndpoint("negative", "test").getNegativeHits());
+
+            vinyl.record(scenario("failing").withOutput(new Data("output", "recovered")));
+            Assertions.assertNull(vinyl.playbackNegative(scenario("failing")), "Recorded scenario still missing.");
+            Assertions.assertEquals("recovered", vinyl.playback(scenario("failing")).getOutput().getValue());
+
+            // bounded, and forgotten on clear
+            for (int i = 0; i < 5; i++)
+                vinyl.recordNegative(scenario("bounded-" + i), 60_000);
+            int known = 0;
+            for (int i = 0; i < 5; i++)
+                known += vinyl.playbackNegative(scenario("bounded-" + i)) != null ? 1 : 0;
+            Assertions.assertEquals(2, known);
+            vinyl.clear(Collections.emptyList());
+            Assertions.assertNull(vinyl.playbackNegative(scenario("bounded-4")));
+        }
+    }
+
+    @Test
+    public void knownMissesOnlyInCacheMode() throws Exception {
+        try (Vinyl vinyl = vinyl(Mode.PLAYBACK, new VinylStats())) {
+            vinyl.recordNegative(scenario("failing"), 60_000);
+            Assertions.assertNull(vinyl.playbackNegative(scenario("failing")));
+        }
+    }
+}
@@ -0,0 +1,150 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.recorder;
+
+import com.compass.vinyl.*;
+import com.compass.vinyl.player.LocalFileSystemRecordPlayer;
+import com.compass.vinyl.player.RecordPlayer;
+import com.compass.vinyl.serializer.JSONSerializer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class VinylRefreshTest {
+
+    private static Vinyl vinyl() throws IOException {
+        return vinyl(new LocalFileSystemRecordPlayer(),
+                Files.createTempDirectory("vinyl-refresh-").toAbsolutePath().toString());
+    }
+
+    private static Vinyl vinyl(RecordPlayer player, String path) {
+        return new Vinyl.Builder()
+                .usingMode(Mode.CACHE)
+                .withPlayer(player)
+                .usingRecordingConfig(new RecordingConfig(JSONSerializer.getInstance(), path))
+                .usingRefreshThreads(1, 10)
+                .create();
+    }
+
+    private static Scenario scenario(long softExpiryTimeInMillis, long expiryTimeInMillis) {
+        Scenario scenario = new Scenario("refresh", "test", Collections.singletonList(new Data("input", "input")));
+        ScenarioMetadata metadata = new ScenarioMetadata();
+        metadata.setSoftExpiryTimeInMillis(softExpiryTimeInMillis);
+        metadata.setExpiryTimeInMillis(expiryTimeInMillis);
+        scenario.setMetadata(metadata);
+        return scenario;
+    }
+
+    @Test
+    public void staleScenarioServedAndRefreshed() throws Exception {
+        long now = System.currentTimeMillis();
+        try (Vinyl vinyl = vinyl()) {
+            vinyl.record(scenario(now + 100, now + 60_000).withOutput(new Data("output", "stale")));
+            Thread.sleep(150);
+
+            AtomicInteger computations = new AtomicInteger();
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch refreshed = new CountDownLatch(1);
+            for (int i = 0; i < 3; i++) {
+                Scenario recordedScenario = vinyl.playbackOrCompute(scenario(now + 60_000, now + 120_000), () -> {
+                    computations.incrementAndGet();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    refreshed.countDown();
+                    return new Data("output", "fresh");
+                });
+                Assertions.assertEquals("stale", recordedScenario.getOutput().getValue());
+            }
+            release.countDown();
+            Assertions.assertTrue(refreshed.await(5, TimeUnit.SECONDS), "Stale scenario wasn't refreshed.");
+
+            // the refresh is recorded right after the computation
+            Scenario recordedScenario = null;
+            for (int i = 0; i < 50; i++) {
+                recordedScenario = vinyl.playback(scenario(0, 0));
+                if ("fresh".equals(recordedScenario.getOutput().getValue()))
+                    break;
+                Thread.sleep(20);
+            }
+            Assertions.assertEquals("fresh", recordedScenario.getOutput().getValue());
+            // renewed by the times to live of the stale recording
+            Assertions.assertTrue(recordedScenario.getMetadata().getSoftExpiryTimeInMillis() > now + 100);
+            Assertions.assertTrue(recordedScenario.getMetadata().getExpiryTimeInMillis() > now + 60_000);
+            Assertions.assertEquals(1, computations.get(), "Stale scenario refreshed more than once.");
+        }
+    }
+
+    @Test
+    public void refreshKeepsTagsAndExpiry() throws Exception {
+        String path = Files.createTempDirectory("vinyl-refresh-tags-").toAbsolutePath().toString();
+        LocalFileSystemRecordPlayer player = new LocalFileSystemRecordPlayer();
+        RecordingConfig config = new RecordingConfig(JSONSerializer.getInstance(), path);
+        long now = System.currentTimeMillis();
+        try (Vinyl vinyl = vinyl(player, path)) {
+            Scenario tagged = scenario(now + 100, now + 60_000).withOutput(new Data("output", "stale"));
+            tagged.getMetadata().setTags(Collections.singletonList("tag"));
+            vinyl.record(tagged);
+            Thread.sleep(150);
+
+            // the scenario asked for has no metadata of its own
+            Scenario input = new Scenario("refresh", "test", Collections.singletonList(new Data("input", "input")));
+            CountDownLatch refreshed = new CountDownLatch(1);
+            vinyl.playbackOrCompute(input, () -> new Data("output", "computed"), () -> {
+                refreshed.countDown();
+                return new Data("output", "fresh");
+            });
+            Assertions.assertTrue(refreshed.await(5, TimeUnit.SECONDS), "Stale scenario wasn't refreshed.");
+
+            Scenario recordedScenario = null;
+            for (int i = 0; i < 50; i++) {
+                recordedScenario = vinyl.playback(input);
+                if ("fresh".equals(recordedScenario.getOutput().getValue()))
+                    break;
+                Thread.sleep(20);
+            }
+            Assertions.assertEquals("fresh", recordedScenario.getOutput().getValue());
+            ScenarioMetadata metadata = recordedScenario.getMetadata();
+            Assertions.assertEquals(Collections.singletonList("tag"), metadata.getTags());
+            Assertions.assertNotNull(metadata.getSoftExpiryTimeInMillis(), "Refreshed scenario never goes stale.");
+            Assertions.assertNotNull(metadata.getExpiryTimeInMillis(), "Refreshed scenario never expires.");
+
+            long expiry = metadata.getExpiryTimeInMillis();
+            Assertions.assertNotNull(player.playbackIfNotExpired(input, config, expiry - 1));
+            Assertions.assertNull(player.playbackIfNotExpired(input, config, expiry + 1),
+                    "Refreshed scenario doesn't expire.");
+
+            vinyl.clear(Collections.singletonList("tag"));
+            Assertions.assertNull(vinyl.playback(input), "Refreshed scenario wasn't cleared by its tag.");
+        }
+    }
+
+    @Test
+    public void expiredScenarioComputed() throws Exception {
+        long now = System.currentTimeMillis();
+        try (Vinyl vinyl = vinyl()) {
+            vinyl.record(scenario(now - 2_000, now - 1_000).withOutput(new Data("output", "expired")));
+
+            Scenario computedScenario = vinyl.playbackOrCompute(scenario(now + 60_000, now + 120_000),
+                    () -> new Data("output", "computed"));
+            Assertions.assertEquals("computed", computedScenario.getOutput().getValue());
+        }
+    }
+
+    @Test
+    public void staleness() {
+        long now = System.currentTimeMillis();
+        Assertions.assertTrue(scenario(now - 1_000, now + 1_000).getMetadata().isStale(now));
+        Assertions.assertFalse(scenario(now + 1_000, now + 2_000).getMetadata().isStale(now));
+        Assertions.assertFalse(scenario(now - 2_000, now - 1_000).getMetadata().isStale(now));
+        Assertions.assertFalse(new ScenarioMetadata().isStale(now));
+    }
+}
@@ -294,4 +294,38 @@ public abstract class VinylTest {
         scenario = vinyl.playback(expectedScenario);
         Assertions.assertNull(scenario, "Recorded file should have been empty");
     }
+
+    @Test
+    @Order(10)
+    void recordAllAndPlaybackAll() {
+        vinyl = new Vinyl.Builder()
+                .usingMode(Mode.RECORD)
+                .withPlayer(player)
+                .usingRecordingConfig(config)
+                .create();
+
+        Scenario scenario1 = new Scenario("batch", "method",
+                Collections.singletonList(new Data("input", "input1")), new Data("output", "output1"));
+        Scenario scenario2 = new Scenario("batch", "method",
+                Collections.singletonList(new Data("input", "input2")), new Data("output", "output2"));
+        ScenarioMetadata expired = new ScenarioMetadata();
+        expired.setExpiryTimeInMillis(System.currentTimeMillis() - 10);
+        scenario2.setMetadata(expired);
+        vinyl.recordAll(Arrays.asList(scenario1, scenario2));
+
+        vinyl = new Vinyl.Builder()
+                .usingMode(Mode.CACHE)
+                .withPlayer(player)
+                .usingRecordingConfig(config)
+                .create();
+        List<Scenario> scenarios = vinyl.playbackAll(Arrays.asList(
+                new Scenario(scenario1.getSource(), scenario1.getMethod(), scenario1.getInputs()),
+                new Scenario(scenario2.getSource(), scenario2.getMethod(), scenario2.getInputs()),
+                new Scenario("NA", "NA", null)));
+
+        Assertions.assertEquals(3, scenarios.size());
+        Assertions.assertEquals("output1", scenarios.get(0).getOutput().getValue(), "Replay of the scenario failed.");
+        Assertions.assertNull(scenarios.get(1), "Expired scenario shouldn't be played back in cache mode");
+        Assertions.assertNull(scenarios.get(2), "Scenario doesn't exist but result is not null.");
+    }
 }
\ No newline at end of file
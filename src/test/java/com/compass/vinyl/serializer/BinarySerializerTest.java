@@ -0,0 +1,77 @@
+// Copyright © 2020 Compass. All rights reserved.
+
+package com.compass.vinyl.serializer;
+
+import com.compass.vinyl.Data;
+import com.compass.vinyl.Scenario;
+import com.compass.vinyl.serializer.models.Animal;
+import com.compass.vinyl.serializer.models.Lion;
+import com.compass.vinyl.serializer.models.Tiger;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class BinarySerializerTest {
+
+    private final BinarySerializer serializer = BinarySerializer.getInstance();
+
+    private Scenario scenario() {
+        List<Animal> animals = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            animals.add(new Lion("Alex" + i, i, Arrays.asList("Orange", "Yellow")));
+            animals.add(new Tiger("Cat" + i, i, Arrays.asList("Yellow", "Black")));
+        }
+        return new Scenario(this.getClass().getCanonicalName(), "serialize", null, new Data("animals", animals));
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        Scenario scenario = scenario();
+        byte[] serializedData = serializer.serializeToBytes(scenario);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.serialize(scenario, out);
+        Assertions.assertArrayEquals(serializedData, out.toByteArray());
+
+        List<Scenario> scenarios = Arrays.asList(
+                serializer.deserialize(serializedData, Scenario.class),
+                serializer.deserialize(ByteBuffer.wrap(serializedData), Scenario.class),
+                serializer.deserialize(new ByteArrayInputStream(serializedData), Scenario.class));
+        for (Scenario deserialized : scenarios)
+            Assertions.assertEquals(scenario.getOutput().getValue(), deserialized.getOutput().getValue(),
+                    "Deserialized data doesn't match");
+    }
+
+    @Test
+    public void smallerThanJson() {
+        Scenario scenario = scenario();
+        int binaryLength = serializer.serializeToBytes(scenario).length;
+        int jsonLength = JSONSerializer.getInstance().serializeToBytes(scenario).length;
+        Assertions.assertTrue(binaryLength * 2 < jsonLength,
+                "Binary data isn't compact. Binary=" + binaryLength + ", JSON=" + jsonLength);
+    }
+
+    @Test
+    public void deserializeJson() throws IOException {
+        Scenario scenario = scenario();
+        String json = JSONSerializer.getInstance().serialize(scenario);
+        byte[] jsonBytes = json.getBytes(StandardCharsets.UTF_8);
+
+        List<Scenario> scenarios = Arrays.asList(
+                serializer.deserialize(json, Scenario.class),
+                serializer.deserialize(jsonBytes, Scenario.class),
+                serializer.deserialize(ByteBuffer.wrap(jsonBytes), Scenario.class),
+                serializer.deserialize(new ByteArrayInputStream(jsonBytes), Scenario.class));
+        for (Scenario deserialized : scenarios)
+            Assertions.assertEquals(scenario.getOutput().getValue(), deserialized.getOutput().getValue(),
+                    "Deserialized data doesn't match");
+    }
+}
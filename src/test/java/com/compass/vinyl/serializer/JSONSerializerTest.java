@@ -12,6 +12,11 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -79,4 +84,92 @@ public class JSONSerializerTest {
             Assertions.assertTrue(birds.get(i).equals(extractedBirds.get(i)), "Deserialized data doesn't match");
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void serializeToBytes() throws IOException {
+        Data data = new Data("animals", animals);
+        Scenario s = new Scenario(this.getClass().getCanonicalName(), "serialize", null, data);
+
+        byte[] expectedJson = expectedAnimalsJson.getBytes(StandardCharsets.UTF_8);
+        Assertions.assertArrayEquals(expectedJson, serializer.serializeToBytes(s), "JSON does not match");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.serialize(s, out);
+        Assertions.assertArrayEquals(expectedJson, out.toByteArray(), "JSON does not match");
+    }
+
+    @Test
+    public void deserializeFromBytes() throws IOException {
+        byte[] json = expectedBirdsJSON.getBytes(StandardCharsets.UTF_8);
+        byte[] framedJson = new byte[json.length + 2];
+        System.arraycopy(json, 0, framedJson, 1, json.length);
+
+        List<Scenario> scenarios = Arrays.asList(
+                serializer.deserialize(json, Scenario.class),
+                serializer.deserialize(ByteBuffer.wrap(framedJson, 1, json.length), Scenario.class),
+                serializer.deserialize(new ByteArrayInputStream(json), Scenario.class));
+        for (Scenario scenario : scenarios) {
+            List<Bird> extractedBirds = (List<Bird>) scenario.getOutput().getValue();
+            Assertions.assertEquals(birds, extractedBirds, "Deserialized data doesn't match");
+        }
+    }
+
+    @Test
+    public void roundTripNonAscii() {
+        Scenario s = new Scenario(this.getClass().getCanonicalName(), "serialize", null,
+                new Data("greeting", "Grüße, 你好 \uD83D\uDE00"));
+
+        Scenario scenario = serializer.deserialize(serializer.serializeToBytes(s), Scenario.class);
+        Assertions.assertEquals("Grüße, 你好 \uD83D\uDE00", scenario.getOutput().getValue());
+    }
+
+    @Test
+    public void outputDecodedOnAccess() {
+        // the class of the output doesn't exist, which only fails once the output is accessed
+        String json = "{\"source\":\"source\",\"method\":\"method\",\"output\":{\"typeInfo\":\"Missing\","
+                + "\"name\":\"missing\",\"value\":[\"com.compass.vinyl.Missing\",{\"name\":\"x\"}]},"
+                + "\"metadata\":{\"expiryTimeInMillis\":42}}";
+        byte[] framedJson = ("  " + json).getBytes(StandardCharsets.UTF_8);
+
+        Scenario scenario = serializer.deserialize(ByteBuffer.wrap(framedJson, 2, framedJson.length - 2), Scenario.class);
+        Assertions.assertEquals(Long.valueOf(42), scenario.getMetadata().getExpiryTimeInMillis());
+        Assertions.assertEquals("missing", scenario.getOutput().getName());
+        Assertions.assertNull(scenario.getOutput().getValue());
+    }
+
+    @Test
+    public void stringValueBytes() {
+        String text = "{\"quoted\": \"a\\b/c\"}\n\tGrüße \u0001 \uD83D\uDE00";
+        Scenario s = new Scenario(this.getClass().getCanonicalName(), "serialize", null, new Data("text", text));
+        byte[] expectedBytes = text.getBytes(StandardCharsets.UTF_8);
+
+        Scenario fromBytes = serializer.deserialize(serializer.serializeToBytes(s), Scenario.class);
+        Assertions.assertArrayEquals(expectedBytes, fromBytes.getOutput().getStringValueBytes());
+        Assertions.assertEquals(text, fromBytes.getOutput().getValue());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(1024);
+        direct.put(serializer.serializeToBytes(s)).flip();
+        Scenario fromDirect = serializer.deserialize(direct, Scenario.class);
+        Assertions.assertArrayEquals(expectedBytes, fromDirect.getOutput().getStringValueBytes());
+
+        Scenario fromString = serializer.deserialize(serializer.serialize(s), Scenario.class);
+        Assertions.assertArrayEquals(expectedBytes, fromString.getOutput().getStringValueBytes());
+
+        Scenario notString = new Scenario("source", "method", null, new Data("number", 42));
+        Assertions.assertNull(serializer.deserialize(serializer.serializeToBytes(notString), Scenario.class)
+                .getOutput().getStringValueBytes());
+    }
+
+    @Test
+    public void tunedInstance() {
+        JSONSerializer tuned = JSONSerializer.getTunedInstance();
+        Assertions.assertNotSame(serializer, tuned, "Tuned serializer is the default one.");
+
+        Data data = new Data("animals", animals);
+        Scenario s = new Scenario(this.getClass().getCanonicalName(), "serialize", null, data);
+        Assertions.assertEquals(expectedAnimalsJson, tuned.serialize(s), "JSON does not match");
+
+        Scenario scenario = tuned.deserialize(expectedAnimalsJson.getBytes(StandardCharsets.UTF_8), Scenario.class);
+        Assertions.assertEquals(animals, scenario.getOutput().getValue(), "Deserialized data doesn't match");
+    }
+}